@@ -1,6 +1,10 @@
 package chat.app;
 
 import chat.app.experiments.BatchRunner;
+import chat.app.experiments.ClientWorker;
+import chat.app.experiments.MessageLogBenchmark;
+import chat.app.experiments.ResultsReport;
+import chat.app.experiments.ServerWorker;
 import chat.app.experiments.TestHarness;
 
 import java.util.Arrays;
@@ -11,6 +15,8 @@ public class AppLauncher {
         System.out.println("Usage:");
         System.out.println("  java -jar ... batch <scenario.json | scenarios_dir>");
         System.out.println("  java -jar ... harness [--transport=tcp|udp --clients=N --duration=SEC --latency=MS --loss=P ...]");
+        System.out.println("  java -jar ... report [resultsDir] [--baseline=FILE --write-baseline=FILE --tolerance=0.10 --threads=N]");
+        System.out.println("  java -jar ... logbench [--records=N --size=BYTES --segmentMb=MB --flushMs=MS]");
         System.out.println();
         System.out.println("Examples:");
         System.out.println("  mvn exec:java -Dexec.args=\"batch experiments/configs\"");
@@ -29,6 +35,11 @@ public class AppLauncher {
         switch (mode.toLowerCase()) {
             case "batch" -> BatchRunner.main(subArgs);
             case "harness" -> TestHarness.main(subArgs);
+            case "report" -> ResultsReport.main(subArgs);
+            case "logbench" -> MessageLogBenchmark.main(subArgs);
+            // internal: forked by BatchRunner, driven over stdin/stdout
+            case "worker" -> ClientWorker.main(subArgs);
+            case "server" -> ServerWorker.main(subArgs);
             default -> {
                 System.out.println("Unknown mode: " + mode);
                 usage();
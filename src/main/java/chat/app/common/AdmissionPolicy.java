@@ -0,0 +1,15 @@
+package chat.app.common;
+
+/** What a server does with a chat message that exceeds its sender's token bucket. */
+public enum AdmissionPolicy {
+    /** discard the message */
+    DROP,
+    /** hold it (and everything behind it from that client) until a token is available */
+    DELAY,
+    /** close the client's connection (UDP: forget and ignore the address for a while) */
+    DISCONNECT;
+
+    public static AdmissionPolicy parse(String s) {
+        return s == null ? DROP : valueOf(s.trim().toUpperCase());
+    }
+}
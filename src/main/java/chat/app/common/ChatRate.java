@@ -0,0 +1,67 @@
+package chat.app.common;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chat messages per second for the clients that share it, adjustable while they run (phased
+ * workloads change it between phases). start() runs the send task on a client's scheduler at
+ * fixed-rate spacing, re-reading the rate before every send; a rate of 0 pauses sending.
+ */
+public final class ChatRate {
+    /** The clients' long-standing default: one chat every 200 ms. */
+    public static final double DEFAULT_PER_SEC = 5.0;
+    private static final long PAUSED_RECHECK_NS = 100_000_000L;
+
+    private volatile double perSec;
+
+    public ChatRate(double perSec) {
+        this.perSec = perSec;
+    }
+
+    public static ChatRate fixedDefault() {
+        return new ChatRate(DEFAULT_PER_SEC);
+    }
+
+    public void set(double perSec) { this.perSec = perSec; }
+    public double get() { return perSec; }
+
+    private long intervalNs() {
+        double r = perSec;
+        return r > 0 ? (long) (1e9 / r) : PAUSED_RECHECK_NS;
+    }
+
+    /** Schedule send repeatedly on scheduler until it shuts down; the first send is one interval from now. */
+    public void start(ScheduledExecutorService scheduler, Runnable send) {
+        new Tick(scheduler, send, System.nanoTime() + intervalNs()).schedule();
+    }
+
+    private final class Tick implements Runnable {
+        private final ScheduledExecutorService scheduler;
+        private final Runnable send;
+        private long dueNs;
+
+        Tick(ScheduledExecutorService scheduler, Runnable send, long dueNs) {
+            this.scheduler = scheduler;
+            this.send = send;
+            this.dueNs = dueNs;
+        }
+
+        void schedule() {
+            try {
+                scheduler.schedule(this, Math.max(0, dueNs - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // client stopped
+            }
+        }
+
+        @Override
+        public void run() {
+            if (perSec > 0) send.run();
+            // fixed rate, but no burst to catch up after a stall
+            dueNs = Math.max(System.nanoTime(), dueNs + intervalNs());
+            schedule();
+        }
+    }
+}
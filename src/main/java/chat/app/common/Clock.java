@@ -0,0 +1,20 @@
+package chat.app.common;
+
+/**
+ * Process-wide timestamp source for message timestamps (MSG/PING send times and receive times).
+ * In a single JVM it is System.nanoTime(). A forked client worker sets the estimated offset of its
+ * clock against the coordinator, so timestamps from different worker JVMs are comparable and
+ * one-way delivery latency stays meaningful.
+ */
+public final class Clock {
+    private static volatile long offsetNs;
+
+    private Clock() {}
+
+    public static long nanoTime() { return System.nanoTime() - offsetNs; }
+
+    /** offset = localNanoTime - referenceNanoTime */
+    public static void setOffsetNs(long ns) { offsetNs = ns; }
+
+    public static long getOffsetNs() { return offsetNs; }
+}
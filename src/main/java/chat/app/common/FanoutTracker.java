@@ -0,0 +1,157 @@
+package chat.app.common;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared across all receivers of a run: tracks, per broadcast message (sender + send timestamp),
+ * when the first and the last recipient saw it. The spread last - first is the fan-out completion time.
+ * A message is finalized as soon as expectedRecipients have seen it; leftovers are reported as incomplete.
+ * A message whose first arrival is more than expiryNs older than the latest arrival (lost datagrams,
+ * recipients that joined later) is finalized as incomplete too, so the map only holds recent messages.
+ * Forked client workers each hold a partial tracker (see forWorker): there expired entries are only
+ * moved out of the map, and writeCsv/mergeCsv combine them in the coordinator
+ * (arrival times are in Clock time, so they are comparable across worker JVMs).
+ */
+public class FanoutTracker {
+    private record Key(int senderId, long sendTsNs) {}
+
+    private static final class Entry {
+        long firstNs;
+        long lastNs;
+        int recipients;
+    }
+
+    public static final long DEFAULT_EXPIRY_NS = 10_000_000_000L;
+    private static final long SWEEP_INTERVAL_NS = 1_000_000_000L;
+
+    private final int expectedRecipients;
+    private final long expiryNs;
+    private final boolean partial;
+    private final Map<Key, Entry> inFlight = new ConcurrentHashMap<>();
+    private final List<Long> completeSpreadNs = Collections.synchronizedList(new ArrayList<>());
+    private final List<Long> expiredSpreadNs = Collections.synchronizedList(new ArrayList<>());
+    /** Partial trackers: expired entries as {senderId, sendTsNs, firstNs, lastNs, recipients}, for writeCsv. */
+    private final List<long[]> expiredPartials = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong nextSweepNs = new AtomicLong(Long.MIN_VALUE);
+
+    public FanoutTracker(int expectedRecipients) {
+        this(expectedRecipients, DEFAULT_EXPIRY_NS, false);
+    }
+
+    private FanoutTracker(int expectedRecipients, long expiryNs, boolean partial) {
+        this.expectedRecipients = expectedRecipients;
+        this.expiryNs = expiryNs;
+        this.partial = partial;
+    }
+
+    /** Tracker for one forked worker: expired entries are kept aside for the coordinator's merge. */
+    public static FanoutTracker forWorker(int expectedRecipients) {
+        return new FanoutTracker(expectedRecipients, DEFAULT_EXPIRY_NS, true);
+    }
+
+    /** expiryNs <= 0 keeps entries until the end of the run. */
+    public static FanoutTracker withExpiry(int expectedRecipients, long expiryNs) {
+        return new FanoutTracker(expectedRecipients, expiryNs, false);
+    }
+
+    public void recordArrival(int senderId, long sendTsNs, long nowNs) {
+        merge(new Key(senderId, sendTsNs), nowNs, nowNs, 1);
+        long due = nextSweepNs.get();
+        if (expiryNs > 0 && nowNs >= due && nextSweepNs.compareAndSet(due, nowNs + SWEEP_INTERVAL_NS)) {
+            expireBefore(nowNs - expiryNs);
+        }
+    }
+
+    /** Finalize entries first seen before cutoffNs as incomplete. */
+    private void expireBefore(long cutoffNs) {
+        for (Key key : inFlight.keySet()) {
+            inFlight.computeIfPresent(key, (k, e) -> {
+                if (e.firstNs >= cutoffNs) return e;
+                if (partial) {
+                    expiredPartials.add(new long[] {k.senderId(), k.sendTsNs(), e.firstNs, e.lastNs, e.recipients});
+                } else {
+                    expired.incrementAndGet();
+                    if (e.recipients >= 2) expiredSpreadNs.add(e.lastNs - e.firstNs);
+                }
+                return null;
+            });
+        }
+    }
+
+    private void merge(Key key, long firstNs, long lastNs, int recipients) {
+        inFlight.compute(key, (k, e) -> {
+            if (e == null) {
+                e = new Entry();
+                e.firstNs = firstNs;
+                e.lastNs = lastNs;
+            } else {
+                e.firstNs = Math.min(e.firstNs, firstNs);
+                e.lastNs = Math.max(e.lastNs, lastNs);
+            }
+            e.recipients += recipients;
+            if (e.recipients >= expectedRecipients) {
+                completeSpreadNs.add(e.lastNs - e.firstNs);
+                return null;
+            }
+            return e;
+        });
+    }
+
+    /** Dump complete spreads ("spread,ns") and in-flight entries ("entry,sender,sendTs,first,last,recipients"). */
+    public void writeCsv(File f) throws IOException {
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(f)))) {
+            for (long ns : getCompleteSpreadsNs()) pw.println("spread," + ns);
+            for (Map.Entry<Key, Entry> me : inFlight.entrySet()) {
+                Key k = me.getKey();
+                Entry e = me.getValue();
+                pw.println("entry," + k.senderId() + "," + k.sendTsNs() + "," + e.firstNs + "," + e.lastNs + "," + e.recipients);
+            }
+            synchronized (expiredPartials) {
+                for (long[] x : expiredPartials) pw.println("entry," + x[0] + "," + x[1] + "," + x[2] + "," + x[3] + "," + x[4]);
+            }
+        }
+    }
+
+    public void mergeCsv(File f) throws IOException {
+        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
+            for (String line; (line = br.readLine()) != null; ) {
+                String[] p = line.split(",");
+                if (p[0].equals("spread")) {
+                    completeSpreadNs.add(Long.parseLong(p[1]));
+                } else if (p[0].equals("entry") && p.length >= 6) {
+                    merge(new Key(Integer.parseInt(p[1]), Long.parseLong(p[2])),
+                            Long.parseLong(p[3]), Long.parseLong(p[4]), Integer.parseInt(p[5]));
+                }
+            }
+        }
+    }
+
+    public int getExpectedRecipients() { return expectedRecipients; }
+
+    /** Spreads (ns) of messages that reached every expected recipient. */
+    public List<Long> getCompleteSpreadsNs() {
+        synchronized (completeSpreadNs) {
+            return new ArrayList<>(completeSpreadNs);
+        }
+    }
+
+    /** Spreads (ns) of messages still missing recipients or expired, among those seen by at least two. */
+    public List<Long> getIncompleteSpreadsNs() {
+        List<Long> out;
+        synchronized (expiredSpreadNs) { out = new ArrayList<>(expiredSpreadNs); }
+        for (Entry e : inFlight.values()) {
+            if (e.recipients >= 2) out.add(e.lastNs - e.firstNs);
+        }
+        return out;
+    }
+
+    /** Messages that never reached every expected recipient: expired plus still in flight. */
+    public long getIncompleteCount() { return expired.get() + inFlight.size() + expiredPartials.size(); }
+
+    /** Messages finalized as incomplete because they expired. */
+    public long getExpiredCount() { return expired.get(); }
+}
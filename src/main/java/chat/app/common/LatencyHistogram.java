@@ -0,0 +1,69 @@
+package chat.app.common;
+
+/**
+ * Fixed-size log-linear histogram of non-negative long values (ns), ~1% relative precision.
+ * Values below 128 get exact buckets; above, every power of two is split into 64 sub-buckets.
+ * Mergeable and O(1) memory, so percentiles over millions of samples need no sample lists.
+ * Not thread-safe.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;   // 64
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;        // 128
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS) * SUB_BUCKETS + LINEAR_LIMIT;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts[indexOf(value)]++;
+        total++;
+        sum += value;
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) counts[i] += other.counts[i];
+        total += other.total;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long count() { return total; }
+    public long max() { return max; }
+    public long min() { return total == 0 ? 0 : min; }
+    public double mean() { return total == 0 ? Double.NaN : (double) sum / total; }
+
+    /** Value at percentile pct (0..100), as the midpoint of its bucket clamped to [min, max]. */
+    public long percentile(double pct) {
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(pct / 100.0 * total);
+        if (rank < 1) rank = 1;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.max(min, Math.min(max, midpointOf(i)));
+        }
+        return max;
+    }
+
+    private static int indexOf(long v) {
+        if (v < LINEAR_LIMIT) return (int) v;
+        int shift = (63 - Long.numberOfLeadingZeros(v)) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (v >>> shift);
+    }
+
+    private static long midpointOf(int index) {
+        if (index < LINEAR_LIMIT) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long mantissa = index - (long) shift * SUB_BUCKETS;
+        long low = mantissa << shift;
+        return low + ((1L << shift) >> 1);
+    }
+}
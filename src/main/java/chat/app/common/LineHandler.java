@@ -0,0 +1,115 @@
+package chat.app.common;
+
+import chat.app.jfr.BroadcastEvent;
+import chat.app.jfr.PongReplyEvent;
+import chat.app.log.MessageLog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The chat protocol's per-line rules, shared by the servers: a PING is answered with a PONG (a copy
+ * of the line with its second byte changed; the sender's bytes are never touched),
+ * "REPLAY:<clientId>:<fromOffset>" asks for the message log, and anything else is broadcast to every
+ * client and then appended to the log (a failed append is counted, see ServerMetrics), unless the
+ * OverloadDetector says to shed it.
+ * The transport does the I/O through a Sink; C is whatever it uses to name a connection.
+ * Emits the PongReply and Broadcast JFR events. Not thread-safe: one handler per server loop.
+ */
+public final class LineHandler<C> {
+
+    /** Where a handled line goes. */
+    public interface Sink<C> {
+        /** Send pong (a whole line, '\n' included) back to the connection whose PING was read at readNs. */
+        void pong(C conn, byte[] pong, long readNs);
+
+        /** Stream the message log to conn from offset on (offset >= 0). */
+        void replay(C conn, long clientId, long offset);
+
+        /** Send line (a whole line, '\n' included) to every connection; returns how many it went to. */
+        int broadcast(byte[] line);
+    }
+
+    private final String transport;
+    private final ServerMetrics serverMetrics;
+    private final MessageLog messageLog;
+    private final OverloadDetector overload;
+    private final Sink<C> sink;
+
+    /** messageLog, overload and serverMetrics may be null (no log, never shed, no metrics). */
+    public LineHandler(String transport, ServerMetrics serverMetrics, MessageLog messageLog,
+                       OverloadDetector overload, Sink<C> sink) {
+        this.transport = transport;
+        this.serverMetrics = serverMetrics;
+        this.messageLog = messageLog;
+        this.overload = overload;
+        this.sink = sink;
+    }
+
+    /** A PING or REPLAY line (answered to its sender, never broadcast or throttled). */
+    public static boolean isControl(ByteBuffer buf, int from, int to) {
+        return Message.startsWith(buf, from, to, Message.PING) || Message.startsWith(buf, from, to, Message.REPLAY);
+    }
+
+    /** Handle the line buf[from, to) (without its '\n') read from conn at readNs. */
+    public void handle(C conn, ByteBuffer buf, int from, int to, long readNs) {
+        if (to <= from) return;
+        if (isControl(buf, from, to)) handleControl(conn, buf, from, to, readNs);
+        else broadcastLine(buf, from, to);
+    }
+
+    /** Answer a PING or start a REPLAY; the line must be one (see isControl). */
+    public void handleControl(C conn, ByteBuffer buf, int from, int to, long readNs) {
+        if (Message.startsWith(buf, from, to, Message.PING)) {
+            PongReplyEvent pongEvent = new PongReplyEvent();
+            pongEvent.begin();
+            byte[] out = copyLine(buf, from, to);
+            out[1] = 'O'; // PING -> PONG
+            sink.pong(conn, out, readNs);
+            pongEvent.end();
+            if (pongEvent.shouldCommit()) {
+                pongEvent.transport = transport;
+                pongEvent.bytes = out.length;
+                pongEvent.commit();
+            }
+        } else {
+            long clientId = Message.parseField(buf, from, to, 1);
+            long offset = Message.parseField(buf, from, to, 2);
+            if (offset >= 0) sink.replay(conn, clientId, offset);
+        }
+    }
+
+    /** Broadcast a chat line and append it to the log, or shed it while overloaded. */
+    public void broadcastLine(ByteBuffer buf, int from, int to) {
+        if (overload != null && overload.isOverloaded()) {
+            if (serverMetrics != null) serverMetrics.recordShed(Message.parseClientId(buf, from, to));
+            return;
+        }
+        byte[] out = copyLine(buf, from, to);
+        BroadcastEvent event = new BroadcastEvent();
+        event.begin();
+        int recipients = sink.broadcast(out);
+        event.end();
+        if (event.shouldCommit()) {
+            event.transport = transport;
+            event.recipients = recipients;
+            event.bytes = (long) recipients * out.length;
+            event.commit();
+        }
+        if (messageLog != null) {
+            try {
+                messageLog.append(out);
+            } catch (IOException e) {
+                // the line already went out; a log that stays broken would fail every broadcast, so count, don't print
+                if (serverMetrics != null) serverMetrics.incLogAppendErrors();
+            }
+        }
+    }
+
+    private static byte[] copyLine(ByteBuffer buf, int from, int to) {
+        byte[] out = new byte[to - from + 1];
+        buf.get(from, out, 0, to - from);
+        out[out.length - 1] = '\n';
+        return out;
+    }
+}
@@ -0,0 +1,71 @@
+package chat.app.common;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+
+/**
+ * How an event loop waits for readiness:
+ *  - block: selector.select(timeout), the thread parks and pays a wakeup per event
+ *  - spin: selector.selectNow() on every iteration, never parks (burns a core)
+ *  - spin-park: selectNow() for up to spinBudgetUs after the last event, then falls back to select(timeout)
+ * One instance per loop (not thread-safe); it counts polls, empty polls and parks so runs can weigh
+ * the CPU spent against the latency gained.
+ */
+public final class LoopStrategy {
+    public enum Mode { BLOCK, SPIN, SPIN_PARK }
+
+    private final Mode mode;
+    private final long spinBudgetNs;
+    private long lastEventNs = System.nanoTime();
+    private long polls;
+    private long emptyPolls;
+    private long parks;
+
+    public LoopStrategy(Mode mode, long spinBudgetUs) {
+        this.mode = mode;
+        this.spinBudgetNs = spinBudgetUs * 1_000L;
+    }
+
+    /** "block" (default), "spin" or "spin-park". */
+    public static LoopStrategy of(String mode, long spinBudgetUs) {
+        Mode m = mode == null ? Mode.BLOCK : Mode.valueOf(mode.trim().toUpperCase().replace('-', '_'));
+        return new LoopStrategy(m, spinBudgetUs);
+    }
+
+    public static LoopStrategy block() {
+        return new LoopStrategy(Mode.BLOCK, 0);
+    }
+
+    /** Wait for ready keys the configured way; returns the number of selected keys (may be 0). */
+    public int select(Selector selector, long timeoutMs) throws IOException {
+        polls++;
+        int n;
+        switch (mode) {
+            case SPIN -> {
+                n = selector.selectNow();
+                if (n == 0) Thread.onSpinWait();
+            }
+            case SPIN_PARK -> {
+                if (System.nanoTime() - lastEventNs < spinBudgetNs) {
+                    n = selector.selectNow();
+                    if (n == 0) Thread.onSpinWait();
+                } else {
+                    parks++;
+                    n = selector.select(timeoutMs);
+                }
+            }
+            default -> {
+                parks++;
+                n = selector.select(timeoutMs);
+            }
+        }
+        if (n == 0) emptyPolls++;
+        else lastEventNs = System.nanoTime();
+        return n;
+    }
+
+    public Mode mode() { return mode; }
+    public long polls() { return polls; }
+    public long emptyPolls() { return emptyPolls; }
+    public long parks() { return parks; }
+}
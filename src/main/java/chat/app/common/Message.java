@@ -1,19 +1,97 @@
 package chat.app.common;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 /**
  * Simple text message format used by clients/servers.
  * Format examples:
- *  - "MSG:<clientId>:<sendTsNs>"
+ *  - "MSG:<clientId>:<sendTsNs>:<seq>"   (seq: per-sender chat sequence number, from 0)
  *  - "PING:<clientId>:<seq>:<sendTsNs>"
  *  - "PONG:<clientId>:<seq>:<sendTsNs>"
+ *
+ * The ByteBuffer helpers parse a line in place (absolute reads, no String/byte[] copies),
+ * for receive loops that work directly on their (direct) receive buffer.
  */
 public class Message {
+    public static final byte[] PING = ascii("PING:");
+    public static final byte[] PONG = ascii("PONG:");
+    public static final byte[] MSG = ascii("MSG:");
+    public static final byte[] LOG = ascii("LOG:");
+    public static final byte[] REPLAY = ascii("REPLAY:");
+
      public static byte[] toBytes(String s) {
         return (s + "\n").getBytes(StandardCharsets.UTF_8);
     }
 
+    /** s as a line of at least minBytes bytes: a shorter one gets a trailing ":xx..." field, which parsers skip. */
+    public static byte[] toBytes(String s, int minBytes) {
+        int pad = minBytes - s.length() - 2;
+        return pad > 0 ? toBytes(s + ":" + "x".repeat(pad)) : toBytes(s);
+    }
+
     public static String fromBytes(byte[] b, int len) {
         return new String(b, 0, len, StandardCharsets.UTF_8).trim();
     }
+
+    /** True if buf[from, to) starts with prefix. */
+    public static boolean startsWith(ByteBuffer buf, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf.get(from + i) != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    /** End of the line starting at from: index of the next '\n' before limit, or limit. */
+    public static int lineEnd(ByteBuffer buf, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (buf.get(i) == '\n') return i;
+        }
+        return limit;
+    }
+
+    /** End index of buf[from, to) without trailing whitespace (like String.trim on the right). */
+    public static int trimEnd(ByteBuffer buf, int from, int to) {
+        while (to > from && buf.get(to - 1) <= ' ') to--;
+        return to;
+    }
+
+    /** parseField result for a field that is missing or not a number (timestamps may be negative, so not -1). */
+    public static final long MISSING = Long.MIN_VALUE;
+
+    /**
+     * Decimal value (optionally negative: Clock time with a worker offset can be) of ':'-separated field
+     * number {@code field} (0 = the type) of line buf[from, to), or MISSING if the field is absent or not a number.
+     */
+    public static long parseField(ByteBuffer buf, int from, int to, int field) {
+        int i = from;
+        for (int f = 0; f < field; f++) {
+            while (i < to && buf.get(i) != ':') i++;
+            if (i >= to) return MISSING;
+            i++;
+        }
+        boolean negative = i < to && buf.get(i) == '-';
+        if (negative) i++;
+        long v = 0;
+        int digits = 0;
+        for (; i < to; i++) {
+            byte b = buf.get(i);
+            if (b == ':' || b <= ' ') break;
+            if (b < '0' || b > '9') return MISSING;
+            v = v * 10 + (b - '0');
+            digits++;
+        }
+        if (digits == 0) return MISSING;
+        return negative ? -v : v;
+    }
+
+    /** Client id (field 1) of a line, or -1 if it has none. */
+    public static long parseClientId(ByteBuffer buf, int from, int to) {
+        long id = parseField(buf, from, to, 1);
+        return id >= 0 ? id : -1;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
 }
@@ -9,19 +9,38 @@ import com.sun.management.OperatingSystemMXBean;
 /**
  * Thread-safe metrics collector.
  * - Records RTT samples (ns)
+ * - Records one-way broadcast delivery latency (ns, sender and receiver share System.nanoTime)
  * - Counts bytes/messages sent/received
  * - Records emulator-drop counts (simulated loss)
+ * - Counts messages replayed from the server's message log
+ * - Tracks per-sender chat sequence numbers (loss, reordering, duplicates) via SequenceTracker
+ * - TLS: handshake latency samples (ns), resumed handshakes, and wrap/unwrap time per record
  * - Exports a CSV-like file.
  */
 public class Metrics {
     private final List<Long> rttSamples = Collections.synchronizedList(new ArrayList<>());
+    private final List<Long> deliverySamples = Collections.synchronizedList(new ArrayList<>());
+    private final List<Long> handshakeSamples = Collections.synchronizedList(new ArrayList<>());
     private final AtomicLong bytesSent = new AtomicLong();
     private final AtomicLong bytesReceived = new AtomicLong();
     private final AtomicLong messagesSent = new AtomicLong();
     private final AtomicLong messagesReceived = new AtomicLong();
     private final AtomicLong emulatorDrops = new AtomicLong();
+    private final AtomicLong messagesReplayed = new AtomicLong();
+    private final AtomicLong chatGenerated = new AtomicLong();
+    private final AtomicLong receiveWakeups = new AtomicLong();
+    private final AtomicLong datagramsReceived = new AtomicLong();
+    private final AtomicLong receiveNs = new AtomicLong();
+    private final AtomicLong loopPolls = new AtomicLong();
+    private final AtomicLong loopEmptyPolls = new AtomicLong();
+    private final AtomicLong loopParks = new AtomicLong();
+    private final AtomicLong handshakesResumed = new AtomicLong();
+    private final AtomicLong tlsCryptoNs = new AtomicLong();
+    private final AtomicLong tlsRecords = new AtomicLong();
+    private final SequenceTracker sequences = new SequenceTracker();
 
     private final OperatingSystemMXBean osBean;
+    private volatile FanoutTracker fanoutTracker;
 
     public Metrics() {
         OperatingSystemMXBean b = null;
@@ -34,11 +53,85 @@ public class Metrics {
     }
 
     public void recordRTT(long rttNs) { rttSamples.add(rttNs); }
+    public void setFanoutTracker(FanoutTracker tracker) { this.fanoutTracker = tracker; }
+
+    /** A broadcast "MSG:<senderId>:<sendTsNs>:<seq>" arrived at this receiver at nowNs (seq < 0 = none). */
+    public void recordDelivery(int senderId, long sendTsNs, long seq, long nowNs) {
+        if (seq >= 0) sequences.record(senderId, seq);
+        deliverySamples.add(nowNs - sendTsNs);
+        FanoutTracker t = fanoutTracker;
+        if (t != null) t.recordArrival(senderId, sendTsNs, nowNs);
+    }
+
+    public long getMessagesSent() { return messagesSent.get(); }
+    public long getMessagesReceived() { return messagesReceived.get(); }
+    public long getChatGenerated() { return chatGenerated.get(); }
+    public long getEmulatorDrops() { return emulatorDrops.get(); }
+    public SequenceTracker getSequences() { return sequences; }
+    public long getReceiveWakeups() { return receiveWakeups.get(); }
+    public long getDatagramsReceived() { return datagramsReceived.get(); }
+    public long getReceiveNs() { return receiveNs.get(); }
+    public long getLoopPolls() { return loopPolls.get(); }
+    public long getLoopEmptyPolls() { return loopEmptyPolls.get(); }
+    public long getLoopParks() { return loopParks.get(); }
+    public long getHandshakesResumed() { return handshakesResumed.get(); }
+    public long getTlsCryptoNs() { return tlsCryptoNs.get(); }
+    public long getTlsRecords() { return tlsRecords.get(); }
+
+    public List<Long> getHandshakeSamples() {
+        synchronized (handshakeSamples) { return new ArrayList<>(handshakeSamples); }
+    }
+
+    public List<Long> getRttSamples() {
+        synchronized (rttSamples) { return new ArrayList<>(rttSamples); }
+    }
+
+    public List<Long> getDeliverySamples() {
+        synchronized (deliverySamples) { return new ArrayList<>(deliverySamples); }
+    }
+
+    /** RTT samples from index from on, for windowed views while the client is running. */
+    public List<Long> getRttSamplesFrom(int from) {
+        synchronized (rttSamples) { return new ArrayList<>(rttSamples.subList(Math.min(from, rttSamples.size()), rttSamples.size())); }
+    }
+
+    public List<Long> getDeliverySamplesFrom(int from) {
+        synchronized (deliverySamples) { return new ArrayList<>(deliverySamples.subList(Math.min(from, deliverySamples.size()), deliverySamples.size())); }
+    }
     public void addBytesSent(long b){ bytesSent.addAndGet(b); }
     public void addBytesReceived(long b){ bytesReceived.addAndGet(b); }
     public void incMessagesSent(){ messagesSent.incrementAndGet(); }
     public void incMessagesReceived(){ messagesReceived.incrementAndGet(); }
     public void incEmulatorDrop(){ emulatorDrops.incrementAndGet(); }
+    public void incMessagesReplayed(){ messagesReplayed.incrementAndGet(); }
+    /** A chat message got a sequence number (counted before the emulator may drop it). */
+    public void incChatGenerated(){ chatGenerated.incrementAndGet(); }
+
+    /** One drained receive batch: datagrams read on a single selector wakeup and the ns spent handling them. */
+    public void recordReceiveBatch(int datagrams, long ns) {
+        receiveWakeups.incrementAndGet();
+        datagramsReceived.addAndGet(datagrams);
+        receiveNs.addAndGet(ns);
+    }
+
+    /** Event-loop totals at shutdown (see LoopStrategy): polls, polls that found nothing, parks. */
+    public void recordLoop(long polls, long emptyPolls, long parks) {
+        loopPolls.set(polls);
+        loopEmptyPolls.set(emptyPolls);
+        loopParks.set(parks);
+    }
+
+    /** A completed TLS handshake: ns from the TCP connection being up to the handshake finishing. */
+    public void recordHandshake(long ns, boolean resumed) {
+        handshakeSamples.add(ns);
+        if (resumed) handshakesResumed.incrementAndGet();
+    }
+
+    /** Time spent encrypting/decrypting application data and the TLS records involved. */
+    public void addTlsCrypto(long ns, long records) {
+        tlsCryptoNs.addAndGet(ns);
+        tlsRecords.addAndGet(records);
+    }
 
     public double getProcessCpuPercent() {
         if (osBean == null) return Double.NaN;
@@ -48,9 +141,67 @@ public class Metrics {
     }
 
     /**
-     * Write a small CSV-like file with metrics and RTT samples (ms).
+     * Rebuild counters and samples from a file written by writeCsv (e.g. by a forked client worker).
+     * CPU load is not carried over.
+     */
+    public static Metrics readCsv(File f) throws IOException {
+        Metrics m = new Metrics();
+        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
+            List<Long> section = null;
+            int remaining = 0;
+            for (String line; (line = br.readLine()) != null; ) {
+                if (remaining > 0) {
+                    section.add(Math.round(Double.parseDouble(line) * 1_000_000.0));
+                    remaining--;
+                    continue;
+                }
+                int comma = line.indexOf(',');
+                if (comma < 0) continue;
+                String key = line.substring(0, comma);
+                String value = line.substring(comma + 1);
+                switch (key) {
+                    case "messagesSent" -> m.messagesSent.set(Long.parseLong(value));
+                    case "messagesReceived" -> m.messagesReceived.set(Long.parseLong(value));
+                    case "bytesSent" -> m.bytesSent.set(Long.parseLong(value));
+                    case "bytesReceived" -> m.bytesReceived.set(Long.parseLong(value));
+                    case "emulatorDrops" -> m.emulatorDrops.set(Long.parseLong(value));
+                    case "messagesReplayed" -> m.messagesReplayed.set(Long.parseLong(value));
+                    case "chatGenerated" -> m.chatGenerated.set(Long.parseLong(value));
+                    case "seqUnique" -> m.sequences.unique = Long.parseLong(value);
+                    case "seqLost" -> m.sequences.slidOutLost = Long.parseLong(value);
+                    case "seqDuplicates" -> m.sequences.duplicates = Long.parseLong(value);
+                    case "seqReordered" -> m.sequences.reordered = Long.parseLong(value);
+                    case "seqMaxReorderDistance" -> m.sequences.maxReorderDistance = Long.parseLong(value);
+                    case "seqLate" -> m.sequences.late = Long.parseLong(value);
+                    case "receiveWakeups" -> m.receiveWakeups.set(Long.parseLong(value));
+                    case "datagramsReceived" -> m.datagramsReceived.set(Long.parseLong(value));
+                    case "receiveNs" -> m.receiveNs.set(Long.parseLong(value));
+                    case "loopPolls" -> m.loopPolls.set(Long.parseLong(value));
+                    case "loopEmptyPolls" -> m.loopEmptyPolls.set(Long.parseLong(value));
+                    case "loopParks" -> m.loopParks.set(Long.parseLong(value));
+                    case "handshakesResumed" -> m.handshakesResumed.set(Long.parseLong(value));
+                    case "tlsCryptoNs" -> m.tlsCryptoNs.set(Long.parseLong(value));
+                    case "tlsRecords" -> m.tlsRecords.set(Long.parseLong(value));
+                    case "rttSamplesCount" -> { section = m.rttSamples; remaining = Integer.parseInt(value); }
+                    case "deliverySamplesCount" -> { section = m.deliverySamples; remaining = Integer.parseInt(value); }
+                    case "handshakeSamplesCount" -> { section = m.handshakeSamples; remaining = Integer.parseInt(value); }
+                    default -> { }
+                }
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Write a small CSV-like file with metrics, RTT samples (ms), delivery latency samples (ms)
+     * and TLS handshake samples (ms).
      */
     public void writeCsv(File f, String headerInfo) throws IOException {
+        writeCsv(f, headerInfo, true);
+    }
+
+    /** As writeCsv; processCpu false leaves out the (wall-clock) CPU load, so a simulated run's file only depends on its inputs. */
+    public void writeCsv(File f, String headerInfo, boolean processCpu) throws IOException {
         try (PrintWriter pw = new PrintWriter(new FileWriter(f))) {
             pw.println("info," + headerInfo);
             pw.println("messagesSent," + messagesSent.get());
@@ -58,7 +209,24 @@ public class Metrics {
             pw.println("bytesSent," + bytesSent.get());
             pw.println("bytesReceived," + bytesReceived.get());
             pw.println("emulatorDrops," + emulatorDrops.get());
-            pw.println("processCpuPercent," + getProcessCpuPercent());
+            pw.println("messagesReplayed," + messagesReplayed.get());
+            pw.println("chatGenerated," + chatGenerated.get());
+            pw.println("seqUnique," + sequences.getUnique());
+            pw.println("seqLost," + sequences.getLost());
+            pw.println("seqDuplicates," + sequences.getDuplicates());
+            pw.println("seqReordered," + sequences.getReordered());
+            pw.println("seqMaxReorderDistance," + sequences.getMaxReorderDistance());
+            pw.println("seqLate," + sequences.getLate());
+            if (processCpu) pw.println("processCpuPercent," + getProcessCpuPercent());
+            pw.println("receiveWakeups," + receiveWakeups.get());
+            pw.println("datagramsReceived," + datagramsReceived.get());
+            pw.println("receiveNs," + receiveNs.get());
+            pw.println("loopPolls," + loopPolls.get());
+            pw.println("loopEmptyPolls," + loopEmptyPolls.get());
+            pw.println("loopParks," + loopParks.get());
+            pw.println("handshakesResumed," + handshakesResumed.get());
+            pw.println("tlsCryptoNs," + tlsCryptoNs.get());
+            pw.println("tlsRecords," + tlsRecords.get());
 
             pw.println("rttSamplesCount," + rttSamples.size());
             synchronized (rttSamples) {
@@ -66,6 +234,20 @@ public class Metrics {
                     pw.println(ns / 1_000_000.0); // ms
                 }
             }
+
+            pw.println("deliverySamplesCount," + deliverySamples.size());
+            synchronized (deliverySamples) {
+                for (long ns : deliverySamples) {
+                    pw.println(ns / 1_000_000.0); // ms
+                }
+            }
+
+            pw.println("handshakeSamplesCount," + handshakeSamples.size());
+            synchronized (handshakeSamples) {
+                for (long ns : handshakeSamples) {
+                    pw.println(ns / 1_000_000.0); // ms
+                }
+            }
         }
     }
 }
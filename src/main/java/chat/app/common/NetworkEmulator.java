@@ -1,20 +1,34 @@
 package chat.app.common;
 
+import chat.app.jfr.EmulatorFireEvent;
+import chat.app.jfr.EmulatorScheduleEvent;
+
 import java.util.Random;
 import java.util.concurrent.*;
 
 /**
  * Application-level network impairment injector: latency + jitter + loss.
  * emulateSend schedules a Runnable to run after simulated delay, or returns false if dropped.
+ * With a seed the loss/delay draws are reproducible; sampleDelayMs gives them to callers that keep
+ * their own (virtual) time, like the simulator in chat.app.sim.
  */
 public class NetworkEmulator {
     private final ScheduledExecutorService scheduler;
-    private final Random rng = new Random();
+    private final Random rng;
     private final int meanDelayMs;
     private final int jitterMs;
     private final double lossProb;
 
     public NetworkEmulator(int meanDelayMs, int jitterMs, double lossProb) {
+        this(meanDelayMs, jitterMs, lossProb, new Random());
+    }
+
+    public NetworkEmulator(int meanDelayMs, int jitterMs, double lossProb, long seed) {
+        this(meanDelayMs, jitterMs, lossProb, new Random(seed));
+    }
+
+    private NetworkEmulator(int meanDelayMs, int jitterMs, double lossProb, Random rng) {
+        this.rng = rng;
         this.meanDelayMs = Math.max(0, meanDelayMs);
         this.jitterMs = Math.max(0, jitterMs);
         this.lossProb = Math.max(0.0, Math.min(1.0, lossProb));
@@ -30,15 +44,43 @@ public class NetworkEmulator {
      * on scheduler and returns true.
      */
     public boolean emulateSend(Runnable sendTask) {
-        if (rng.nextDouble() < lossProb) {
+        EmulatorScheduleEvent scheduleEvent = new EmulatorScheduleEvent();
+        long delay = sampleDelayMs();
+        if (delay < 0) {
+            if (scheduleEvent.shouldCommit()) {
+                scheduleEvent.dropped = true;
+                scheduleEvent.commit();
+            }
             return false; // dropped
         }
-        int jitter = jitterMs == 0 ? 0 : rng.nextInt(jitterMs * 2 + 1) - jitterMs;
-        long delay = Math.max(0, meanDelayMs + jitter);
-        scheduler.schedule(sendTask, delay, TimeUnit.MILLISECONDS);
+        long dueNs = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        scheduler.schedule(() -> {
+            EmulatorFireEvent fireEvent = new EmulatorFireEvent();
+            fireEvent.begin();
+            long startNs = System.nanoTime();
+            long lagNs = startNs - dueNs;
+            sendTask.run();
+            fireEvent.end();
+            boolean notable = lagNs >= EmulatorFireEvent.REPORT_NS || System.nanoTime() - startNs >= EmulatorFireEvent.REPORT_NS;
+            if (notable && fireEvent.shouldCommit()) {
+                fireEvent.lagNs = lagNs;
+                fireEvent.commit();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+        if (scheduleEvent.shouldCommit()) {
+            scheduleEvent.delayMs = delay;
+            scheduleEvent.commit();
+        }
         return true;
     }
 
+    /** Draw one send: its delay in ms, or -1 if the message is lost. */
+    public long sampleDelayMs() {
+        if (rng.nextDouble() < lossProb) return -1;
+        int jitter = jitterMs == 0 ? 0 : rng.nextInt(jitterMs * 2 + 1) - jitterMs;
+        return Math.max(0, meanDelayMs + jitter);
+    }
+
     public void shutdown() {
         scheduler.shutdownNow();
     }
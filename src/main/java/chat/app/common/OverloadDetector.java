@@ -0,0 +1,47 @@
+package chat.app.common;
+
+/**
+ * Global overload signal for a server event loop. Overloaded when one loop iteration took longer than
+ * maxLagNs or more than maxQueuedBytes wait in outbound queues (either limit 0 = unused); it clears
+ * once both are back under half their limit, so the state does not flap around the threshold.
+ * While overloaded the servers shed broadcasts but keep answering PINGs. Owned by the event loop.
+ */
+public final class OverloadDetector {
+    private final long maxLagNs;
+    private final long maxQueuedBytes;
+    private boolean overloaded;
+    private long sinceNs;
+    private long episodes;
+    private long overloadedNs;
+
+    public OverloadDetector(long maxLagNs, long maxQueuedBytes) {
+        this.maxLagNs = maxLagNs;
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    /** Feed one loop iteration; returns whether the server is overloaded now. */
+    public boolean update(long loopLagNs, long queuedBytes, long nowNs) {
+        boolean lagHigh = maxLagNs > 0 && loopLagNs > maxLagNs;
+        boolean queueHigh = maxQueuedBytes > 0 && queuedBytes > maxQueuedBytes;
+        if (!overloaded && (lagHigh || queueHigh)) {
+            overloaded = true;
+            sinceNs = nowNs;
+            episodes++;
+        } else if (overloaded
+                && (maxLagNs <= 0 || loopLagNs <= maxLagNs / 2)
+                && (maxQueuedBytes <= 0 || queuedBytes <= maxQueuedBytes / 2)) {
+            overloaded = false;
+            overloadedNs += nowNs - sinceNs;
+        }
+        return overloaded;
+    }
+
+    public boolean isOverloaded() { return overloaded; }
+
+    public long episodes() { return episodes; }
+
+    /** Total time spent overloaded, including a still open episode. */
+    public long overloadedNs(long nowNs) {
+        return overloadedNs + (overloaded ? nowNs - sinceNs : 0);
+    }
+}
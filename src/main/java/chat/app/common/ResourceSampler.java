@@ -0,0 +1,213 @@
+package chat.app.common;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+
+/**
+ * Background sampler of JVM resource usage over a run:
+ * - GC pauses (count, total/max duration) from GC notifications, per collector
+ * - allocated bytes and CPU time per thread, rolled up into groups (server loop, clients, emulator, ...)
+ * - heap usage samples
+ * Exports totals plus per-message ratios, so protocol differences can be told apart from GC/allocation noise.
+ */
+public class ResourceSampler {
+    private static final class ThreadStat {
+        final String name;
+        final long baseAlloc;
+        final long baseCpu;
+        long alloc;
+        long cpu;
+
+        ThreadStat(String name, long baseAlloc, long baseCpu) {
+            this.name = name;
+            this.baseAlloc = baseAlloc;
+            this.baseCpu = baseCpu;
+            this.alloc = baseAlloc;
+            this.cpu = baseCpu;
+        }
+    }
+
+    private final int intervalMs;
+    private final com.sun.management.ThreadMXBean threadBean;
+    private final MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+    private final Map<Long, ThreadStat> threads = new HashMap<>();
+    private final List<long[]> heapSamples = new ArrayList<>(); // {msSinceStart, usedBytes}
+    private final List<Long> pauseMs = Collections.synchronizedList(new ArrayList<>());
+    private final Map<String, long[]> pausesByCollector = Collections.synchronizedMap(new TreeMap<>()); // {count, totalMs}
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    private final NotificationListener gcListener = this::onGc;
+    private volatile boolean running;
+    private Thread thread;
+    private long startMs;
+    private long stopMs;
+
+    public ResourceSampler(int intervalMs) {
+        this.intervalMs = Math.max(10, intervalMs);
+        this.threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }
+
+    public synchronized void start() {
+        if (threadBean.isThreadAllocatedMemorySupported()) threadBean.setThreadAllocatedMemoryEnabled(true);
+        if (threadBean.isThreadCpuTimeSupported()) threadBean.setThreadCpuTimeEnabled(true);
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter emitter) {
+                emitter.addNotificationListener(gcListener, null, null);
+                emitters.add(emitter);
+            }
+        }
+        startMs = System.currentTimeMillis();
+        sample(true);
+        running = true;
+        thread = new Thread(this::loop, "resource-sampler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            try { thread.join(1000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+        sample(false);
+        stopMs = System.currentTimeMillis();
+        for (NotificationEmitter emitter : emitters) {
+            try { emitter.removeNotificationListener(gcListener); } catch (Exception ignored) {}
+        }
+        emitters.clear();
+    }
+
+    private void loop() {
+        while (running) {
+            try {
+                Thread.sleep(intervalMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            sample(false);
+        }
+    }
+
+    private void onGc(Notification n, Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(n.getType())) return;
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) n.getUserData());
+        String name = info.getGcName();
+        // concurrent cycles (ZGC/Shenandoah "Cycles", G1 "Concurrent") are not stop-the-world pauses
+        if (name.contains("Cycles") || name.contains("Concurrent")) return;
+        long ms = info.getGcInfo().getDuration();
+        pauseMs.add(ms);
+        pausesByCollector.compute(name, (k, v) -> {
+            if (v == null) v = new long[2];
+            v[0]++;
+            v[1] += ms;
+            return v;
+        });
+    }
+
+    private synchronized void sample(boolean baseline) {
+        heapSamples.add(new long[]{System.currentTimeMillis() - startMs, memoryBean.getHeapMemoryUsage().getUsed()});
+
+        long[] ids = threadBean.getAllThreadIds();
+        long[] alloc = threadBean.getThreadAllocatedBytes(ids);
+        long[] cpu = threadBean.getThreadCpuTime(ids);
+        for (int i = 0; i < ids.length; i++) {
+            if (alloc[i] < 0 && cpu[i] < 0) continue; // thread ended meanwhile
+            ThreadStat st = threads.get(ids[i]);
+            if (st == null) {
+                ThreadInfo ti = threadBean.getThreadInfo(ids[i], 0);
+                if (ti == null) continue;
+                // threads already alive at start only count from here; new ones from zero
+                st = new ThreadStat(ti.getThreadName(), baseline ? Math.max(0, alloc[i]) : 0, baseline ? Math.max(0, cpu[i]) : 0);
+                threads.put(ids[i], st);
+            }
+            if (alloc[i] >= 0) st.alloc = alloc[i];
+            if (cpu[i] >= 0) st.cpu = cpu[i];
+        }
+    }
+
+    /** Thread group used in the report, derived from the thread names used across the app. */
+    static String groupOf(String threadName) {
+        if (threadName.endsWith("-server")) return "server";
+        if (threadName.contains("-client-")) return "clients";
+        if (threadName.equals("net-emulator")) return "emulator";
+        if (threadName.equals("log-flusher")) return "log";
+        return "other";
+    }
+
+    public synchronized long totalAllocatedBytes() {
+        long total = 0;
+        for (ThreadStat st : threads.values()) total += st.alloc - st.baseAlloc;
+        return total;
+    }
+
+    public long gcPauseCount() { return pauseMs.size(); }
+
+    public long gcPauseTotalMs() {
+        synchronized (pauseMs) { return pauseMs.stream().mapToLong(Long::longValue).sum(); }
+    }
+
+    /**
+     * Write totals, per-group and per-thread breakdowns, and ratios per message (messages = the
+     * caller's denominator, e.g. messages sent by the clients of this JVM).
+     */
+    public synchronized void writeCsv(File out, String headerInfo, long messages) throws IOException {
+        Map<String, long[]> groups = new TreeMap<>(); // {allocBytes, cpuNs, threads}
+        for (ThreadStat st : threads.values()) {
+            long[] g = groups.computeIfAbsent(groupOf(st.name), k -> new long[3]);
+            g[0] += st.alloc - st.baseAlloc;
+            g[1] += st.cpu - st.baseCpu;
+            g[2]++;
+        }
+        long totalAlloc = totalAllocatedBytes();
+        long totalCpu = groups.values().stream().mapToLong(g -> g[1]).sum();
+        List<Long> pauses;
+        synchronized (pauseMs) { pauses = new ArrayList<>(pauseMs); }
+        Collections.sort(pauses);
+        long pauseTotal = pauses.stream().mapToLong(Long::longValue).sum();
+        long heapMax = heapSamples.stream().mapToLong(s -> s[1]).max().orElse(0);
+        double heapMean = heapSamples.stream().mapToLong(s -> s[1]).average().orElse(Double.NaN);
+        double perMsg = messages > 0 ? 1.0 / messages : Double.NaN;
+
+        try (PrintWriter pw = new PrintWriter(new FileWriter(out))) {
+            pw.println("info," + headerInfo);
+            pw.println("durationMs," + (stopMs - startMs));
+            pw.println("messages," + messages);
+            pw.println("gcPauseCount," + pauses.size());
+            pw.println("gcPauseTotalMs," + pauseTotal);
+            pw.println("gcPauseMaxMs," + (pauses.isEmpty() ? 0 : pauses.get(pauses.size() - 1)));
+            synchronized (pausesByCollector) {
+                for (Map.Entry<String, long[]> e : pausesByCollector.entrySet()) {
+                    pw.println("gc," + e.getKey() + "," + e.getValue()[0] + "," + e.getValue()[1]);
+                }
+            }
+            pw.println("allocatedBytes," + totalAlloc);
+            pw.println("threadCpuMs," + totalCpu / 1_000_000.0);
+            pw.println("heapUsedMaxBytes," + heapMax);
+            pw.println("heapUsedMeanBytes," + heapMean);
+            pw.println("allocBytesPerMessage," + totalAlloc * perMsg);
+            pw.println("cpuUsPerMessage," + totalCpu / 1_000.0 * perMsg);
+            pw.println("gcPauseMsPer1kMessages," + pauseTotal * 1000.0 * perMsg);
+            for (Map.Entry<String, long[]> e : groups.entrySet()) {
+                long[] g = e.getValue();
+                pw.println("group," + e.getKey() + ",threads=" + g[2] + ",allocBytes=" + g[0]
+                        + ",cpuMs=" + g[1] / 1_000_000.0 + ",allocBytesPerMessage=" + g[0] * perMsg);
+            }
+            List<ThreadStat> sorted = new ArrayList<>(threads.values());
+            sorted.sort(Comparator.comparingLong((ThreadStat t) -> t.cpu - t.baseCpu).reversed());
+            pw.println("threadsCount," + sorted.size());
+            for (ThreadStat st : sorted) {
+                pw.println("thread," + st.name + "," + groupOf(st.name) + ",cpuMs=" + (st.cpu - st.baseCpu) / 1_000_000.0
+                        + ",allocBytes=" + (st.alloc - st.baseAlloc));
+            }
+            pw.println("heapSamplesCount," + heapSamples.size());
+            for (long[] s : heapSamples) pw.println(s[0] + "," + s[1]);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package chat.app.common;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Receiver-side accounting of per-sender chat sequence numbers with a sliding bitmap per sender.
+ * - a sender's first sequence seen starts its window (late joiners do not count earlier messages);
+ *   until the window first slides, a lower sequence still extends it downwards
+ * - gaps that slide out of the window, or are still open at the end, count as lost
+ * - an already-marked sequence is a duplicate; one below the highest seen is reordered (distance kept)
+ * - a sequence older than the window is "late": it was already counted as lost
+ */
+public class SequenceTracker {
+    private static final int WINDOW = 1024;
+    private static final int WORDS = WINDOW / 64;
+
+    private static final class SenderWindow {
+        final long[] bits = new long[WORDS];
+        long base;
+        long highest = -1;
+        boolean slid;
+
+        boolean isSet(long seq) {
+            int i = (int) (seq % WINDOW);
+            return (bits[i >>> 6] & (1L << (i & 63))) != 0;
+        }
+
+        void set(long seq) {
+            int i = (int) (seq % WINDOW);
+            bits[i >>> 6] |= 1L << (i & 63);
+        }
+
+        void clear(long seq) {
+            int i = (int) (seq % WINDOW);
+            bits[i >>> 6] &= ~(1L << (i & 63));
+        }
+    }
+
+    private final Map<Integer, SenderWindow> senders = new HashMap<>();
+    long unique;
+    long duplicates;
+    long reordered;
+    long maxReorderDistance;
+    long late;
+    long slidOutLost;
+
+    public synchronized void record(int senderId, long seq) {
+        SenderWindow w = senders.computeIfAbsent(senderId, k -> new SenderWindow());
+        if (w.highest < 0) {
+            w.base = seq;
+            w.highest = seq;
+            w.set(seq);
+            unique++;
+            return;
+        }
+        if (seq < w.base) {
+            if (w.slid || w.highest - seq >= WINDOW) {
+                late++;
+                return;
+            }
+            w.base = seq; // reordered right after joining: grow the window downwards
+        }
+        if (seq >= w.base + WINDOW) slide(w, seq - WINDOW + 1);
+        if (w.isSet(seq)) {
+            duplicates++;
+            return;
+        }
+        w.set(seq);
+        unique++;
+        if (seq < w.highest) {
+            reordered++;
+            maxReorderDistance = Math.max(maxReorderDistance, w.highest - seq);
+        } else {
+            w.highest = seq;
+        }
+    }
+
+    /** Move the window start to newBase; every unmarked sequence leaving it is lost. */
+    private void slide(SenderWindow w, long newBase) {
+        long end = Math.min(newBase, w.base + WINDOW);
+        for (long s = w.base; s < end; s++) {
+            if (!w.isSet(s)) slidOutLost++;
+            w.clear(s);
+        }
+        if (newBase > end) slidOutLost += newBase - end; // never inside the window at all
+        w.base = newBase;
+        w.slid = true;
+    }
+
+    public synchronized long getUnique() { return unique; }
+    public synchronized long getDuplicates() { return duplicates; }
+    public synchronized long getReordered() { return reordered; }
+    public synchronized long getMaxReorderDistance() { return maxReorderDistance; }
+    public synchronized long getLate() { return late; }
+
+    /** Lost so far: gaps that left the window plus open gaps below each sender's highest sequence. */
+    public synchronized long getLost() {
+        long lost = slidOutLost;
+        for (SenderWindow w : senders.values()) {
+            for (long s = w.base; s <= w.highest; s++) {
+                if (!w.isSet(s)) lost++;
+            }
+        }
+        return lost;
+    }
+}
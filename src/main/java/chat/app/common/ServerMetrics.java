@@ -1,6 +1,7 @@
 package chat.app.common;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.*;
 import java.io.*;
 
@@ -9,6 +10,15 @@ import java.io.*;
  * - messageProcessingTimes (ns) recorded per-message
  * - bytesReceived / bytesSent counters
  * - messagesReceived / messagesSent counts
+ * - short writes/sends: TCP broadcasts dropped for a client whose queue is full, UDP sends refused by a full buffer
+ * - log append errors: broadcasts that went out but could not be appended to the MessageLog
+ * - PONG delay: PING read to PONG fully written (TCP), and with priority lanes the broadcast work each PING skipped
+ * - admission/overload: per sending client, chat messages throttled by its token bucket and broadcasts shed
+ *   while the server was overloaded; disconnects, overload episodes and time spent overloaded
+ * - TLS: handshake latency, resumed handshakes, handshake CPU time (giving a setup rate one loop thread
+ *   could sustain) and wrap/unwrap time per record of application data
+ * - accepts: connections taken per selector event, accept rate between the first and last accept,
+ *   peak open connections, and the time to add/remove a connection in the server's registry
  */
 public class ServerMetrics {
     private final List<Long> processingNs = Collections.synchronizedList(new ArrayList<>());
@@ -16,12 +26,100 @@ public class ServerMetrics {
     private final AtomicLong bytesSent = new AtomicLong();
     private final AtomicLong messagesReceived = new AtomicLong();
     private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong shortWrites = new AtomicLong();
+    private final AtomicLong unsentBytes = new AtomicLong();
+    private final AtomicLong logAppendErrors = new AtomicLong();
+    private final AtomicLong receiveWakeups = new AtomicLong();
+    private final AtomicLong datagramsReceived = new AtomicLong();
+    private final AtomicLong receiveNs = new AtomicLong();
+    private final List<Long> pongDelayNs = Collections.synchronizedList(new ArrayList<>());
+    private final List<Long> holAvoidedNs = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong pongBypassedFrames = new AtomicLong();
+    private final Map<Long, AtomicLong> throttledByClient = new ConcurrentHashMap<>();
+    private final Map<Long, AtomicLong> shedByClient = new ConcurrentHashMap<>();
+    private final AtomicLong admissionDisconnects = new AtomicLong();
+    private volatile long overloadEpisodes;
+    private volatile long overloadNs;
+    private volatile long loopPolls;
+    private volatile long loopEmptyPolls;
+    private volatile long loopParks;
+    private final List<Long> handshakeNs = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong handshakeWorkNs = new AtomicLong();
+    private final AtomicLong handshakesResumed = new AtomicLong();
+    private final AtomicLong tlsCryptoNs = new AtomicLong();
+    private final AtomicLong tlsRecords = new AtomicLong();
+    private final AtomicLong accepts = new AtomicLong();
+    private final AtomicLong acceptBatches = new AtomicLong();
+    private final AtomicLong acceptErrors = new AtomicLong();
+    private volatile long firstAcceptNs;
+    private volatile long lastAcceptNs;
+    private volatile int peakConnections;
+    // one sample per connect/disconnect, so churn runs would grow a sample list without bound
+    private final LatencyHistogram registryAddNs = new LatencyHistogram();
+    private final LatencyHistogram registryRemoveNs = new LatencyHistogram();
 
     public void recordProcessingNs(long ns) { processingNs.add(ns); }
     public void addBytesReceived(long b){ bytesReceived.addAndGet(b); }
     public void addBytesSent(long b){ bytesSent.addAndGet(b); }
     public void incMessagesReceived(){ messagesReceived.incrementAndGet(); }
     public void incMessagesSent(){ messagesSent.incrementAndGet(); }
+    /** A write/send that left unsentBytes of a message behind (those bytes never reach the client). */
+    public void recordShortWrite(long unsent){ shortWrites.incrementAndGet(); unsentBytes.addAndGet(unsent); }
+    /** A broadcast line the MessageLog failed to append (it is missing from later replays). */
+    public void incLogAppendErrors() { logAppendErrors.incrementAndGet(); }
+
+    /** One drained receive batch: datagrams read on a single selector wakeup and the ns spent handling them. */
+    public void recordReceiveBatch(int datagrams, long ns) {
+        receiveWakeups.incrementAndGet();
+        datagramsReceived.addAndGet(datagrams);
+        receiveNs.addAndGet(ns);
+    }
+
+    /** Time from reading a PING to having written its PONG to the socket. */
+    public void recordPongDelayNs(long ns) { pongDelayNs.add(ns); }
+    /** Priority lanes: broadcast work that arrived before a PING and was done after its PONG. */
+    public void recordHolAvoidedNs(long ns) { holAvoidedNs.add(ns); }
+    /** Priority lanes: queued broadcast frames a PONG was sent ahead of. */
+    public void addPongBypassedFrames(int frames) { pongBypassedFrames.addAndGet(frames); }
+
+    /** A chat message from clientId (-1 = unknown) exceeded its rate limit (dropped, delayed or cause of a disconnect). */
+    public void recordThrottled(long clientId) { throttledByClient.computeIfAbsent(clientId, k -> new AtomicLong()).incrementAndGet(); }
+    /** A broadcast from clientId was shed because the server was overloaded. */
+    public void recordShed(long clientId) { shedByClient.computeIfAbsent(clientId, k -> new AtomicLong()).incrementAndGet(); }
+    public void incAdmissionDisconnects() { admissionDisconnects.incrementAndGet(); }
+    public void recordOverload(long episodes, long ns) { overloadEpisodes = episodes; overloadNs = ns; }
+
+    /** Event-loop totals at shutdown (see LoopStrategy): polls, polls that found nothing, parks. */
+    public void recordLoop(long polls, long emptyPolls, long parks) { loopPolls = polls; loopEmptyPolls = emptyPolls; loopParks = parks; }
+
+    /** A completed server-side handshake: latency since accept and the ns spent handshaking on the loop. */
+    public void recordHandshake(long ns, long workNs, boolean resumed) {
+        handshakeNs.add(ns);
+        handshakeWorkNs.addAndGet(workNs);
+        if (resumed) handshakesResumed.incrementAndGet();
+    }
+
+    /** Time one connection spent encrypting/decrypting application data and the TLS records involved. */
+    public void addTlsCrypto(long ns, long records) {
+        tlsCryptoNs.addAndGet(ns);
+        tlsRecords.addAndGet(records);
+    }
+
+    /** One selector event's accepts; open = connections registered afterwards. */
+    public void recordAcceptBatch(int accepted, int open) {
+        long now = System.nanoTime();
+        if (accepts.getAndAdd(accepted) == 0) firstAcceptNs = now;
+        lastAcceptNs = now;
+        acceptBatches.incrementAndGet();
+        if (open > peakConnections) peakConnections = open;
+    }
+
+    public void incAcceptErrors() { acceptErrors.incrementAndGet(); }
+    public void recordRegistryAddNs(long ns) { synchronized (registryAddNs) { registryAddNs.record(ns); } }
+    public void recordRegistryRemoveNs(long ns) { synchronized (registryRemoveNs) { registryRemoveNs.record(ns); } }
+
+    public long getMessagesReceived() { return messagesReceived.get(); }
+    public long getMessagesSent() { return messagesSent.get(); }
 
     public double medianProcessingMs() {
         synchronized(processingNs) {
@@ -33,6 +131,35 @@ public class ServerMetrics {
         }
     }
 
+    private static long sum(Map<Long, AtomicLong> counts) {
+        return counts.values().stream().mapToLong(AtomicLong::get).sum();
+    }
+
+    private static long count(Map<Long, AtomicLong> counts, long id) {
+        AtomicLong c = counts.get(id);
+        return c == null ? 0 : c.get();
+    }
+
+    private static double percentileUs(List<Long> samples, double pct) {
+        return percentileNs(samples, pct) / 1_000.0;
+    }
+
+    private static double percentileNs(List<Long> samples, double pct) {
+        synchronized (samples) {
+            if (samples.isEmpty()) return Double.NaN;
+            List<Long> copy = new ArrayList<>(samples);
+            Collections.sort(copy);
+            int idx = (int) Math.min(copy.size() - 1, Math.ceil(pct / 100.0 * copy.size()) - 1);
+            return copy.get(Math.max(0, idx));
+        }
+    }
+
+    private static double percentileNs(LatencyHistogram samples, double pct) {
+        synchronized (samples) {
+            return samples.count() == 0 ? Double.NaN : samples.percentile(pct);
+        }
+    }
+
     public void writeCsv(File out, String headerInfo) throws IOException {
         try (PrintWriter pw = new PrintWriter(new FileWriter(out))) {
             pw.println("info," + headerInfo);
@@ -40,8 +167,57 @@ public class ServerMetrics {
             pw.println("messagesSent," + messagesSent.get());
             pw.println("bytesReceived," + bytesReceived.get());
             pw.println("bytesSent," + bytesSent.get());
+            pw.println("shortWrites," + shortWrites.get());
+            pw.println("unsentBytes," + unsentBytes.get());
+            pw.println("logAppendErrors," + logAppendErrors.get());
+            long wakeups = receiveWakeups.get(), datagrams = datagramsReceived.get();
+            pw.println("receiveWakeups," + wakeups);
+            pw.printf("datagramsPerWakeup,%.3f%n", wakeups == 0 ? 0.0 : (double) datagrams / wakeups);
+            pw.printf("receiveNsPerPacket,%.1f%n", datagrams == 0 ? 0.0 : (double) receiveNs.get() / datagrams);
             pw.println("medianProcessingMs," + medianProcessingMs());
             pw.println("processingSamplesCount," + processingNs.size());
+            pw.println("pongDelaySamplesCount," + pongDelayNs.size());
+            pw.println("pongDelayP50Us," + percentileUs(pongDelayNs, 50));
+            pw.println("pongDelayP99Us," + percentileUs(pongDelayNs, 99));
+            pw.println("holAvoidedSamplesCount," + holAvoidedNs.size());
+            pw.println("holAvoidedP50Us," + percentileUs(holAvoidedNs, 50));
+            pw.println("holAvoidedP99Us," + percentileUs(holAvoidedNs, 99));
+            pw.println("pongBypassedFrames," + pongBypassedFrames.get());
+            pw.println("loopPolls," + loopPolls);
+            pw.println("loopEmptyPolls," + loopEmptyPolls);
+            pw.println("loopParks," + loopParks);
+            pw.println("throttled," + sum(throttledByClient));
+            pw.println("shed," + sum(shedByClient));
+            pw.println("admissionDisconnects," + admissionDisconnects.get());
+            pw.println("overloadEpisodes," + overloadEpisodes);
+            pw.println("overloadMs," + overloadNs / 1_000_000.0);
+            long handshakes = handshakeNs.size(), workNs = handshakeWorkNs.get(), records = tlsRecords.get();
+            pw.println("handshakes," + handshakes);
+            pw.println("handshakesResumed," + handshakesResumed.get());
+            pw.println("handshakeP50Us," + percentileUs(handshakeNs, 50));
+            pw.println("handshakeP99Us," + percentileUs(handshakeNs, 99));
+            pw.printf("handshakeCpuUs,%.1f%n", handshakes == 0 ? 0.0 : workNs / 1_000.0 / handshakes);
+            pw.printf("handshakesPerCpuSec,%.1f%n", workNs == 0 ? 0.0 : handshakes * 1e9 / workNs);
+            pw.println("tlsRecords," + records);
+            pw.printf("tlsCryptoNsPerRecord,%.1f%n", records == 0 ? 0.0 : (double) tlsCryptoNs.get() / records);
+            long accepted = accepts.get(), batches = acceptBatches.get();
+            double acceptSpanSec = (lastAcceptNs - firstAcceptNs) / 1e9;
+            pw.println("accepts," + accepted);
+            pw.println("acceptErrors," + acceptErrors.get());
+            pw.println("acceptBatches," + batches);
+            pw.printf("acceptsPerBatch,%.2f%n", batches == 0 ? 0.0 : (double) accepted / batches);
+            pw.printf("acceptsPerSec,%.1f%n", acceptSpanSec <= 0 ? 0.0 : accepted / acceptSpanSec);
+            pw.println("peakConnections," + peakConnections);
+            pw.println("registryAddP50Ns," + percentileNs(registryAddNs, 50));
+            pw.println("registryAddP99Ns," + percentileNs(registryAddNs, 99));
+            pw.println("registryRemoveP50Ns," + percentileNs(registryRemoveNs, 50));
+            pw.println("registryRemoveP99Ns," + percentileNs(registryRemoveNs, 99));
+            // per sending client: client,<id>,<throttled>,<shed>
+            Set<Long> ids = new TreeSet<>(throttledByClient.keySet());
+            ids.addAll(shedByClient.keySet());
+            for (long id : ids) {
+                pw.println("client," + id + "," + count(throttledByClient, id) + "," + count(shedByClient, id));
+            }
         }
     }
 }
@@ -0,0 +1,39 @@
+package chat.app.common;
+
+/**
+ * Token bucket for per-client admission: tokens refill continuously at ratePerSec up to burst,
+ * each admitted message takes one. Not thread-safe; owned by the server's event loop.
+ */
+public final class TokenBucket {
+    private final double ratePerNs;
+    private final double burst;
+    private double tokens;
+    private long lastNs;
+
+    public TokenBucket(double ratePerSec, int burst, long nowNs) {
+        this.ratePerNs = ratePerSec / 1e9;
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.lastNs = nowNs;
+    }
+
+    public boolean tryAcquire(long nowNs) {
+        refill(nowNs);
+        if (tokens < 1) return false;
+        tokens -= 1;
+        return true;
+    }
+
+    /** Time until the next token is available (0 if one is available now). */
+    public long nanosUntilToken(long nowNs) {
+        refill(nowNs);
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / ratePerNs);
+    }
+
+    private void refill(long nowNs) {
+        if (nowNs > lastNs) {
+            tokens = Math.min(burst, tokens + (nowNs - lastNs) * ratePerNs);
+            lastNs = nowNs;
+        }
+    }
+}
@@ -1,16 +1,23 @@
 package chat.app.experiments;
 
+import chat.app.common.ChatRate;
+import chat.app.common.FanoutTracker;
 import chat.app.common.NetworkEmulator;
+import chat.app.common.ResourceSampler;
 import chat.app.common.Metrics;
 import chat.app.common.ServerMetrics;
-import chat.app.tcp.TcpServerNio;
-import chat.app.tcp.TcpClientNio;
-import chat.app.udp.UdpServerNio;
-import chat.app.udp.UdpClientNio;
+import chat.app.jfr.ChatRecording;
+import chat.app.log.MessageLog;
+import chat.app.sim.Simulation;
+import chat.app.trace.TraceReplayer;
+import chat.app.trace.TraceTarget;
+import chat.app.trace.TraceWriter;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jdk.jfr.Recording;
 
 import java.io.File;
+import java.io.IOException;
 // import java.nio.file.*;
 import java.util.*;
 // import java.util.concurrent.*;
@@ -18,11 +25,14 @@ import java.util.*;
 /**
  * BatchRunner reads one or more JSON scenario files (or a directory) and runs them sequentially.
  * For each scenario:
- *  - starts server (with ServerMetrics)
- *  - spawns clients (each with its own Metrics)
- *  - waits duration
+ *  - starts server (with ServerMetrics), optionally in its own JVM (serverProcess)
+ *  - spawns clients (each with its own Metrics), optionally spread over forked worker JVMs (workers)
+ *  - optionally churns short-lived connections next to them (churnRate, see ChurnDriver)
+ *  - optionally records the clients' sends to a trace, or drives them from one (traceCapture / traceReplay)
+ *  - waits duration (or runs its phases, adding and removing clients live: see PhasedWorkload)
  *  - stops clients and server
  *  - writes per-client CSVs and combined CSV (via CombinedResultsWriter)
+ * With simulate set the whole scenario runs on a virtual clock instead (see Simulation).
  */
 public class BatchRunner {
 
@@ -49,78 +59,227 @@ public class BatchRunner {
     }
 
     private static void runScenario(ScenarioConfig cfg) throws Exception {
-        NetworkEmulator emulator = new NetworkEmulator(cfg.latencyMs, cfg.jitterMs, cfg.lossProb);
-        ServerMetrics serverMetrics = new ServerMetrics();
+        if (cfg.simulate) {
+            runSimulation(cfg);
+            return;
+        }
+        if ("mem".equalsIgnoreCase(cfg.transport) && (cfg.serverProcess || cfg.workers > 0)) {
+            throw new IllegalArgumentException("transport mem runs in one JVM; workers/serverProcess are not supported");
+        }
+        boolean traced = cfg.traceCapture != null || cfg.traceReplay != null;
+        if (traced && (cfg.workers > 0 || !cfg.phases.isEmpty())) {
+            throw new IllegalArgumentException("traceCapture/traceReplay drive clients in this JVM; workers/phases are not supported");
+        }
+        PhasedWorkload.applyPhases(cfg);
+        File outDir = new File("results", cfg.name);
+        outDir.mkdirs();
+        // forked JVMs read the effective config from here
+        File scenarioFile = new File(outDir, "scenario.json");
+        if (cfg.serverProcess || cfg.workers > 0) new ObjectMapper().writeValue(scenarioFile, cfg);
+        Recording recording = cfg.jfr ? ChatRecording.start(cfg.name, cfg.jfrThresholdMs) : null;
+        ResourceSampler sampler = startSampler(cfg);
 
-        Thread serverThread;
-        if ("tcp".equalsIgnoreCase(cfg.transport)) {
-            TcpServerNio server = new TcpServerNio(cfg.port, serverMetrics);
-            serverThread = new Thread(server, "tcp-server");
+        // start server: in this JVM or in its own
+        ServerMetrics serverMetrics = null;
+        MessageLog messageLog = null;
+        Thread serverThread = null;
+        ForkedJvm serverJvm = null;
+        if (cfg.serverProcess) {
+            serverJvm = new ForkedJvm("server", cfg.serverJvmArgs, "server", List.of(scenarioFile.getPath()));
+            serverJvm.expect("READY", 30_000);
         } else {
-            UdpServerNio server = new UdpServerNio(cfg.port, serverMetrics);
-            serverThread = new Thread(server, "udp-server");
+            serverMetrics = new ServerMetrics();
+            messageLog = cfg.messageLog ? openMessageLog(new File(outDir, "log"), cfg) : null;
+            serverThread = new Thread(Transports.newServer(cfg, serverMetrics, messageLog), Transports.serverThreadName(cfg));
+            serverThread.start();
         }
-        serverThread.start();
 
+        // start clients: as threads here or spread over forked worker JVMs
+        NetworkEmulator emulator = null;
+        ClientFleet fleet = null;
+        PhasedWorkload phased = null;
         List<Thread> clientThreads = new ArrayList<>();
         List<Metrics> metricsList = new ArrayList<>();
-
-        for (int i = 0; i < cfg.clients; i++) {
-            Metrics m = new Metrics();
-            metricsList.add(m);
-            Thread t;
-            if ("tcp".equalsIgnoreCase(cfg.transport)) {
-                TcpClientNio client = new TcpClientNio(i, "localhost", cfg.port, emulator, m);
-                t = new Thread(client, "tcp-client-" + i);
-            } else {
-                UdpClientNio client = new UdpClientNio(i, "localhost", cfg.port, emulator, m);
-                t = new Thread(client, "udp-client-" + i);
+        FanoutTracker fanout = new FanoutTracker(cfg.clients);
+        TraceWriter traceCapture = cfg.traceCapture != null ? new TraceWriter(new File(cfg.traceCapture)) : null;
+        List<TraceTarget> traceTargets = new ArrayList<>();
+        if (cfg.workers > 0) {
+            fleet = ClientFleet.start(cfg, scenarioFile, outDir);
+        } else if (!cfg.phases.isEmpty()) {
+            emulator = new NetworkEmulator(cfg.latencyMs, cfg.jitterMs, cfg.lossProb);
+            phased = new PhasedWorkload(cfg, emulator, serverMetrics);
+            fanout = null; // recipients change from phase to phase
+        } else {
+            emulator = new NetworkEmulator(cfg.latencyMs, cfg.jitterMs, cfg.lossProb);
+            for (int i = 0; i < cfg.clients; i++) {
+                Metrics m = new Metrics();
+                m.setFanoutTracker(fanout);
+                metricsList.add(m);
+                Runnable client = Transports.newClient(cfg, i, emulator, m, new ChatRate(cfg.msgRate), traceCapture);
+                traceTargets.add((TraceTarget) client);
+                Thread t = new Thread(client, Transports.clientThreadName(cfg, i));
+                t.start();
+                clientThreads.add(t);
+                Thread.sleep(30);
             }
-            t.start();
-            clientThreads.add(t);
-            Thread.sleep(30);
         }
 
-        System.out.printf("Scenario '%s' running: transport=%s clients=%d latency=%d loss=%.3f duration=%ds%n",
-                cfg.name, cfg.transport, cfg.clients, cfg.latencyMs, cfg.lossProb, cfg.durationSec);
+        ChurnDriver churn = cfg.churnRate > 0 ? new ChurnDriver(cfg) : null;
+        Thread churnThread = null;
+        if (churn != null) {
+            churnThread = new Thread(churn, "churn");
+            churnThread.start();
+        }
+
+        TraceReplayer replayer = cfg.traceReplay != null
+                ? new TraceReplayer(new File(cfg.traceReplay), traceTargets, cfg.traceSpeedup) : null;
+        Thread replayThread = null;
+        if (replayer != null) {
+            replayThread = new Thread(replayer, "trace-replay");
+            replayThread.start();
+        }
+
+        System.out.printf("Scenario '%s' running: transport=%s clients=%d latency=%d loss=%.3f duration=%ds workers=%d serverProcess=%s%n",
+                cfg.name, cfg.transport, cfg.clients, cfg.latencyMs, cfg.lossProb, cfg.durationSec, cfg.workers, cfg.serverProcess);
 
-        Thread.sleep(cfg.durationSec * 1000L);
+        if (phased != null) metricsList = phased.run(outDir);
+        else Thread.sleep(cfg.durationSec * 1000L);
 
         // stop clients
-        for (Thread t : clientThreads) {
-            t.interrupt();
+        if (replayer != null) {
+            replayThread.interrupt();
+            replayThread.join(5000);
+            replayer.writeCsv(new File(outDir, "trace_replay.csv"), String.format("scenario=%s,transport=%s", cfg.name, cfg.transport));
+        }
+        if (churn != null) {
+            churn.shutdown();
+            churnThread.join(5000);
+            churn.writeCsv(outDir);
+        }
+        if (fleet != null) {
+            metricsList = fleet.stop();
+            fanout = fleet.mergedFanout();
+        } else if (phased != null) {
+            phased.stopAll();
+            Thread.sleep(800);
+        } else {
+            for (Thread t : clientThreads) {
+                t.interrupt();
+            }
+            Thread.sleep(800);
+        }
+        if (traceCapture != null) {
+            traceCapture.close();
+            System.out.printf("Trace: %d sends captured to %s%n", traceCapture.records(), cfg.traceCapture);
         }
-        Thread.sleep(800);
 
         // stop server
-        // send interrupt to server thread and rely on its shutdown mechanism
-        serverThread.interrupt();
+        if (serverJvm != null) {
+            serverJvm.send("STOP");
+            serverJvm.expect("DONE", 30_000);
+            serverJvm.awaitExit(5_000);
+        } else {
+            // send interrupt to server thread and rely on its shutdown mechanism
+            serverThread.interrupt();
+            serverThread.join(2000);
+            if (messageLog != null) {
+                System.out.printf("Message log: %d records, flushed up to offset %d%n",
+                        messageLog.nextOffset(), messageLog.flushedOffset());
+                messageLog.close();
+            }
+            // write server metrics
+            try {
+                writeServerCsv(outDir, cfg, serverMetrics);
+            } catch (Exception e) { e.printStackTrace(); }
+        }
+
+        // write per-client CSVs (forked workers already wrote theirs)
+        if (fleet == null) writeClientCsvs(outDir, cfg, 0, metricsList);
+
+        // write combined CSV
+        CombinedResultsWriter.writeCombinedCsv(outDir, cfg, metricsList, fanout);
 
-        // write per-client CSVs
+        if (sampler != null) {
+            long messagesSent = metricsList.stream().mapToLong(Metrics::getMessagesSent).sum();
+            writeResourceCsv(sampler, new File(outDir, "resource_metrics.csv"), cfg, "coordinator", messagesSent);
+        }
+
+        if (emulator != null) emulator.shutdown();
+        if (recording != null) ChatRecording.stop(recording, new File(outDir, cfg.name + ".jfr"));
+    }
+
+    private static void runSimulation(ScenarioConfig cfg) throws IOException {
+        if (cfg.workers > 0 || cfg.serverProcess || !cfg.phases.isEmpty() || cfg.churnRate > 0
+                || cfg.traceCapture != null || cfg.traceReplay != null) {
+            throw new IllegalArgumentException("simulate runs in one virtual-time loop; workers/serverProcess/phases/churn/traces are not supported");
+        }
         File outDir = new File("results", cfg.name);
         outDir.mkdirs();
+        ServerMetrics serverMetrics = new ServerMetrics();
+        NetworkEmulator emulator = new NetworkEmulator(cfg.latencyMs, cfg.jitterMs, cfg.lossProb, cfg.simSeed);
+        Simulation sim = new Simulation(cfg.clients, cfg.msgRate, emulator, serverMetrics,
+                Math.round(cfg.simServiceUs * 1_000), Math.round(cfg.simSendUs * 1_000));
+        List<Metrics> metricsList = sim.run(cfg.durationSec);
+        emulator.shutdown();
+        System.out.printf("Scenario '%s' simulated: clients=%d %.1fs virtual in %.1fs wall (seed %d)%n",
+                cfg.name, cfg.clients, sim.getVirtualNs() / 1e9, sim.getWallNs() / 1e9, cfg.simSeed);
+
+        writeServerCsv(outDir, cfg, serverMetrics);
+        writeClientCsvs(outDir, cfg, 0, metricsList, false);
+        CombinedResultsWriter.writeCombinedCsv(outDir, cfg, metricsList, null, sim.getDeliveries());
+        sim.writeCsv(new File(outDir, "sim.csv"), String.format("scenario=%s,seed=%d", cfg.name, cfg.simSeed));
+    }
+
+    static File clientCsvFile(File outDir, ScenarioConfig cfg, int clientId) {
+        return new File(outDir, String.format("%s_client_%02d.csv", cfg.transport, clientId));
+    }
+
+    /** Per-client CSVs for clients firstClientId .. firstClientId + metricsList.size() - 1. */
+    static void writeClientCsvs(File outDir, ScenarioConfig cfg, int firstClientId, List<Metrics> metricsList) {
+        writeClientCsvs(outDir, cfg, firstClientId, metricsList, true);
+    }
+
+    /** processCpu false: leave out the wall-clock CPU load (simulated runs). */
+    static void writeClientCsvs(File outDir, ScenarioConfig cfg, int firstClientId, List<Metrics> metricsList, boolean processCpu) {
+        String header = String.format("scenario=%s,transport=%s,clients=%d,latency=%d,loss=%.3f",
+                cfg.name, cfg.transport, cfg.clients, cfg.latencyMs, cfg.lossProb);
         for (int i = 0; i < metricsList.size(); i++) {
-            Metrics m = metricsList.get(i);
-            File f = new File(outDir, String.format("%s_client_%02d.csv", cfg.transport, i));
-            String header = String.format("scenario=%s,transport=%s,clients=%d,latency=%d,loss=%.3f",
-                    cfg.name, cfg.transport, cfg.clients, cfg.latencyMs, cfg.lossProb);
             try {
-                m.writeCsv(f, header);
+                metricsList.get(i).writeCsv(clientCsvFile(outDir, cfg, firstClientId + i), header, processCpu);
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }
+    }
 
-        // write server metrics
-        try {
-            File sf = new File(outDir, "server_metrics.csv");
-            String header = String.format("scenario=%s,transport=%s", cfg.name, cfg.transport);
-            serverMetrics.writeCsv(sf, header);
-        } catch (Exception e) { e.printStackTrace(); }
+    static void writeServerCsv(File outDir, ScenarioConfig cfg, ServerMetrics serverMetrics) throws IOException {
+        File sf = new File(outDir, "server_metrics.csv");
+        String header = String.format("scenario=%s,transport=%s", cfg.name, cfg.transport);
+        serverMetrics.writeCsv(sf, header);
+    }
 
-        // write combined CSV
-        CombinedResultsWriter.writeCombinedCsv(outDir, cfg, metricsList);
+    static ResourceSampler startSampler(ScenarioConfig cfg) {
+        if (cfg.resourceSampleMs <= 0) return null;
+        ResourceSampler sampler = new ResourceSampler(cfg.resourceSampleMs);
+        sampler.start();
+        return sampler;
+    }
 
-        emulator.shutdown();
+    /** Stop the sampler and write its report; messages is the per-message denominator for this JVM. */
+    static void writeResourceCsv(ResourceSampler sampler, File out, ScenarioConfig cfg, String role, long messages) {
+        sampler.stop();
+        String header = String.format("scenario=%s,transport=%s,role=%s", cfg.name, cfg.transport, role);
+        try {
+            sampler.writeCsv(out, header, messages);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Each run starts from an empty log so offsets line up with this scenario's messages. */
+    static MessageLog openMessageLog(File dir, ScenarioConfig cfg) throws IOException {
+        File[] old = dir.listFiles();
+        if (old != null) for (File f : old) f.delete();
+        return new MessageLog(dir, cfg.logSegmentMb * 1024 * 1024, cfg.logFlushMs);
     }
 }
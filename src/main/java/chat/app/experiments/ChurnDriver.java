@@ -0,0 +1,281 @@
+package chat.app.experiments;
+
+import chat.app.common.LatencyHistogram;
+import chat.app.common.Message;
+import chat.app.tls.TlsChannel;
+import chat.app.tls.TlsContext;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Connection churn against a tcp/uds/tls server (churnRate > 0): opens churnRate connections per second,
+ * at most churnMaxOpen at a time, sends churnPings PINGs on each (the next one after the previous PONG)
+ * and closes it. A connection still open churnTimeoutMs after it was opened (connect, handshake or a PONG
+ * never came) is closed and counted as failed and timed out. One thread and one selector drive every
+ * connection, so the driver stays cheap next to the server it measures. Records TCP connect time and
+ * connect-to-first-PONG latency (including the TLS handshake for "tls") and writes churn.csv.
+ */
+final class ChurnDriver implements Runnable {
+    /** Churn connections use ids from here, clear of the regular clients'. */
+    private static final int FIRST_ID = 1_000_000;
+
+    private final ScenarioConfig cfg;
+    private final SocketAddress address;
+    private final TlsContext tls;
+    private final LatencyHistogram connectNs = new LatencyHistogram();
+    private final LatencyHistogram firstPongNs = new LatencyHistogram();
+    private volatile boolean running = true;
+    private Selector selector;
+    private int open;
+    /** Connections with a deadline, in the order they were opened (= deadline order); closed ones are skipped. */
+    private final ArrayDeque<Conn> byDeadline = new ArrayDeque<>();
+    private long opened, connected, completed, failed, timedOut, skipped, pongs;
+    private long startNs, endNs;
+
+    ChurnDriver(ScenarioConfig cfg) throws IOException {
+        this.cfg = cfg;
+        if ("uds".equalsIgnoreCase(cfg.transport)) {
+            address = Transports.udsAddress(cfg);
+            tls = null;
+        } else if ("tcp".equalsIgnoreCase(cfg.transport) || "tls".equalsIgnoreCase(cfg.transport)) {
+            address = new InetSocketAddress("localhost", cfg.port);
+            tls = "tls".equalsIgnoreCase(cfg.transport) ? Transports.clientTls(cfg) : null;
+        } else {
+            throw new IllegalArgumentException("churn needs a connection-oriented transport (tcp, uds or tls), not " + cfg.transport);
+        }
+    }
+
+    /** One churned connection. */
+    private static final class Conn {
+        final int id;
+        final SocketChannel channel;
+        final long startNs;
+        final long deadlineNs;
+        final ByteBuffer readBuf = ByteBuffer.allocate(4096);
+        SelectionKey key;
+        TlsChannel tls;
+        boolean ready;
+        int pongs;
+        /** What the socket has not taken yet of the PING in flight. */
+        ByteBuffer pending;
+
+        Conn(int id, SocketChannel channel, long startNs, long deadlineNs) {
+            this.id = id;
+            this.channel = channel;
+            this.startNs = startNs;
+            this.deadlineNs = deadlineNs;
+        }
+
+        ByteChannel io() { return tls != null ? tls : channel; }
+    }
+
+    @Override
+    public void run() {
+        long intervalNs = (long) (1e9 / cfg.churnRate);
+        long timeoutNs = cfg.churnTimeoutMs * 1_000_000L;
+        try {
+            selector = Selector.open();
+            startNs = System.nanoTime();
+            long nextOpenNs = startNs;
+            while (running) {
+                long now = System.nanoTime();
+                while (now >= nextOpenNs) {
+                    if (open < cfg.churnMaxOpen) openOne(now, timeoutNs);
+                    else skipped++;
+                    nextOpenNs += intervalNs;
+                }
+                long wakeNs = Math.min(nextOpenNs, expire(now));
+                long waitMs = Math.max(1, (wakeNs - System.nanoTime()) / 1_000_000);
+                selector.select(waitMs);
+                for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    Conn c = (Conn) key.attachment();
+                    try {
+                        if (key.isValid() && key.isConnectable()) finishConnect(c);
+                        if (key.isValid() && key.isWritable()) advance(c);
+                        if (key.isValid() && key.isReadable()) read(c);
+                    } catch (IOException e) {
+                        fail(c);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            endNs = System.nanoTime();
+            if (selector != null) {
+                for (SelectionKey key : selector.keys()) close((Conn) key.attachment());
+                try { selector.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    /** Close and count the connections whose deadline has passed; returns the next deadline (or MAX_VALUE). */
+    private long expire(long now) {
+        for (Conn c; (c = byDeadline.peek()) != null; byDeadline.poll()) {
+            if (!c.channel.isOpen()) continue;
+            if (c.deadlineNs > now) return c.deadlineNs;
+            timedOut++;
+            fail(c);
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private void openOne(long now, long timeoutNs) {
+        int id = FIRST_ID + (int) opened++;
+        Conn c = null;
+        try {
+            SocketChannel ch = address instanceof InetSocketAddress ? SocketChannel.open() : SocketChannel.open(StandardProtocolFamily.UNIX);
+            ch.configureBlocking(false);
+            c = new Conn(id, ch, now, timeoutNs > 0 ? now + timeoutNs : Long.MAX_VALUE);
+            open++;
+            if (timeoutNs > 0) byDeadline.add(c); // without one nothing would ever leave the queue
+            if (ch.connect(address)) {
+                c.key = ch.register(selector, SelectionKey.OP_READ, c);
+                connected(c);
+            } else {
+                c.key = ch.register(selector, SelectionKey.OP_CONNECT, c);
+            }
+        } catch (IOException e) {
+            if (c != null) fail(c);
+            else failed++;
+        }
+    }
+
+    private void finishConnect(Conn c) throws IOException {
+        if (!c.channel.finishConnect()) return;
+        c.key.interestOps(SelectionKey.OP_READ);
+        connected(c);
+    }
+
+    private void connected(Conn c) throws IOException {
+        connected++;
+        connectNs.record(System.nanoTime() - c.startNs);
+        if (tls != null) {
+            InetSocketAddress peer = (InetSocketAddress) address;
+            c.tls = new TlsChannel(c.channel, tls.newEngine(peer.getHostString(), peer.getPort()), tls);
+        }
+        advance(c);
+    }
+
+    /** Drive the TLS handshake or pending output; send the first PING once the connection is usable. */
+    private void advance(Conn c) throws IOException {
+        if (c.tls != null) {
+            if (!c.tls.handshake() || !c.tls.flush()) {
+                c.key.interestOps(SelectionKey.OP_READ | (c.tls.hasPendingOutput() ? SelectionKey.OP_WRITE : 0));
+                return;
+            }
+            c.key.interestOps(SelectionKey.OP_READ);
+        }
+        if (!c.ready) {
+            c.ready = true;
+            sendPing(c);
+        } else {
+            flushPing(c);
+        }
+    }
+
+    private void sendPing(Conn c) throws IOException {
+        c.pending = ByteBuffer.wrap(Message.toBytes("PING:" + c.id + ":" + c.pongs + ":" + System.nanoTime()));
+        flushPing(c);
+    }
+
+    /** Write what is left of the PING; OP_WRITE stays armed until the socket (and TLS) has taken all of it. */
+    private void flushPing(Conn c) throws IOException {
+        if (c.pending != null) {
+            c.io().write(c.pending);
+            if (!c.pending.hasRemaining()) c.pending = null;
+        }
+        boolean blocked = c.pending != null || (c.tls != null && c.tls.hasPendingOutput());
+        c.key.interestOps(SelectionKey.OP_READ | (blocked ? SelectionKey.OP_WRITE : 0));
+    }
+
+    private void read(Conn c) throws IOException {
+        if (!c.ready) {
+            advance(c);
+            if (!c.ready) return;
+        }
+        ByteBuffer buf = c.readBuf;
+        int r = c.io().read(buf);
+        if (r < 0) {
+            fail(c);
+            return;
+        }
+        int limit = buf.position();
+        int from = 0;
+        for (int eol; from < limit && (eol = Message.lineEnd(buf, from, limit)) < limit; from = eol + 1) {
+            // broadcasts from the regular clients arrive too; only PONGs count
+            if (!Message.startsWith(buf, from, eol, Message.PONG)) continue;
+            pongs++;
+            if (c.pongs++ == 0) firstPongNs.record(System.nanoTime() - c.startNs);
+            if (c.pongs >= cfg.churnPings) {
+                completed++;
+                close(c);
+                return;
+            }
+            sendPing(c);
+        }
+        buf.position(from).limit(limit);
+        buf.compact();
+        if (!buf.hasRemaining()) buf.clear(); // oversized line
+        if (c.tls != null && c.tls.hasBufferedInput()) read(c);
+    }
+
+    private void fail(Conn c) {
+        failed++;
+        close(c);
+    }
+
+    private void close(Conn c) {
+        if (!c.channel.isOpen()) return;
+        open--;
+        if (c.key != null) c.key.cancel();
+        try { c.io().close(); } catch (IOException ignored) {}
+    }
+
+    void shutdown() {
+        running = false;
+        if (selector != null) selector.wakeup();
+    }
+
+    void writeCsv(File outDir) throws IOException {
+        File out = new File(outDir, "churn.csv");
+        double sec = Math.max(1e-9, (endNs - startNs) / 1e9);
+        try (PrintWriter pw = new PrintWriter(new FileWriter(out))) {
+            pw.println("info,scenario=" + cfg.name + ",transport=" + cfg.transport);
+            pw.println("churnRate," + cfg.churnRate);
+            pw.println("churnPings," + cfg.churnPings);
+            pw.println("churnTimeoutMs," + cfg.churnTimeoutMs);
+            pw.println("opened," + opened);
+            pw.println("connected," + connected);
+            pw.println("completed," + completed);
+            pw.println("failed," + failed);
+            pw.println("timedOut," + timedOut);
+            pw.println("skippedAtMaxOpen," + skipped);
+            pw.println("pongs," + pongs);
+            pw.printf("openedPerSec,%.1f%n", opened / sec);
+            pw.printf("completedPerSec,%.1f%n", completed / sec);
+            pw.println("connectP50Ms," + ms(connectNs, 50));
+            pw.println("connectP99Ms," + ms(connectNs, 99));
+            pw.println("firstPongP50Ms," + ms(firstPongNs, 50));
+            pw.println("firstPongP99Ms," + ms(firstPongNs, 99));
+            pw.println("firstPongP999Ms," + ms(firstPongNs, 99.9));
+        }
+        System.out.println("Wrote churn results: " + out.getAbsolutePath());
+    }
+
+    private static double ms(LatencyHistogram h, double pct) {
+        return h.count() == 0 ? Double.NaN : h.percentile(pct) / 1e6;
+    }
+}
@@ -0,0 +1,109 @@
+package chat.app.experiments;
+
+import chat.app.common.FanoutTracker;
+import chat.app.common.Metrics;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Coordinator side of a multi-process client fleet: forks cfg.workers client-worker JVMs, splits the
+ * clients between them, estimates every worker's clock offset (NTP-style, minimum-RTT sample of
+ * SYNC round trips over the control channel), starts and stops them together and merges their results.
+ */
+class ClientFleet {
+    private static final int SYNC_ROUNDS = 16;
+    private static final long CONTROL_TIMEOUT_MS = 30_000;
+
+    private final ScenarioConfig cfg;
+    private final File outDir;
+    private final List<ForkedJvm> workers = new ArrayList<>();
+    private final List<int[]> ranges = new ArrayList<>(); // {firstClientId, clientCount}
+    private final List<long[]> syncs = new ArrayList<>(); // {offsetNs, rttNs}
+
+    private ClientFleet(ScenarioConfig cfg, File outDir) {
+        this.cfg = cfg;
+        this.outDir = outDir;
+    }
+
+    static ClientFleet start(ScenarioConfig cfg, File scenarioFile, File outDir) throws Exception {
+        ClientFleet fleet = new ClientFleet(cfg, outDir);
+        try {
+            int k = Math.min(cfg.workers, Math.max(1, cfg.clients));
+            int first = 0;
+            for (int w = 0; w < k; w++) {
+                int count = cfg.clients / k + (w < cfg.clients % k ? 1 : 0);
+                ForkedJvm jvm = new ForkedJvm("worker-" + w, cfg.workerJvmArgs, "worker",
+                        List.of(scenarioFile.getPath(), String.valueOf(w), String.valueOf(first), String.valueOf(count)));
+                fleet.workers.add(jvm);
+                fleet.ranges.add(new int[]{first, count});
+                first += count;
+            }
+            for (ForkedJvm jvm : fleet.workers) {
+                jvm.expect("READY", CONTROL_TIMEOUT_MS);
+                long[] sync = syncClock(jvm);
+                jvm.send("OFFSET " + sync[0]);
+                fleet.syncs.add(sync);
+            }
+            for (ForkedJvm jvm : fleet.workers) jvm.send("START");
+            for (ForkedJvm jvm : fleet.workers) jvm.expect("STARTED", CONTROL_TIMEOUT_MS);
+        } catch (Exception e) {
+            // a worker that never got STOP would outlive this run
+            for (ForkedJvm jvm : fleet.workers) jvm.destroy();
+            throw e;
+        }
+        return fleet;
+    }
+
+    /** Returns {offsetNs, rttNs} of the round trip with the smallest RTT; offset = worker - coordinator. */
+    private static long[] syncClock(ForkedJvm jvm) throws Exception {
+        long bestRtt = Long.MAX_VALUE, bestOffset = 0;
+        for (int i = 0; i < SYNC_ROUNDS; i++) {
+            long t0 = System.nanoTime();
+            jvm.send("SYNC " + t0);
+            String[] reply = jvm.expect("SYNC " + t0, CONTROL_TIMEOUT_MS).split(" ");
+            long t2 = System.nanoTime();
+            long t1 = Long.parseLong(reply[2]);
+            long rtt = t2 - t0;
+            if (rtt < bestRtt) {
+                bestRtt = rtt;
+                bestOffset = t1 - (t0 + rtt / 2);
+            }
+        }
+        return new long[]{bestOffset, bestRtt};
+    }
+
+    /** Stop all workers and load their per-client metrics, ordered by client id. */
+    List<Metrics> stop() throws Exception {
+        for (ForkedJvm jvm : workers) jvm.send("STOP");
+        for (ForkedJvm jvm : workers) {
+            jvm.expect("DONE", CONTROL_TIMEOUT_MS);
+            jvm.awaitExit(5_000);
+        }
+        List<Metrics> metricsList = new ArrayList<>();
+        for (int i = 0; i < cfg.clients; i++) {
+            metricsList.add(Metrics.readCsv(BatchRunner.clientCsvFile(outDir, cfg, i)));
+        }
+        writeFleetCsv();
+        return metricsList;
+    }
+
+    FanoutTracker mergedFanout() throws IOException {
+        FanoutTracker fanout = new FanoutTracker(cfg.clients);
+        for (int w = 0; w < workers.size(); w++) {
+            File f = new File(outDir, String.format("fanout_worker_%02d.csv", w));
+            fanout.mergeCsv(f);
+            f.delete();
+        }
+        return fanout;
+    }
+
+    private void writeFleetCsv() throws IOException {
+        try (PrintWriter pw = new PrintWriter(new FileWriter(new File(outDir, "fleet.csv")))) {
+            pw.println("worker,firstClient,clients,clockOffsetNs,syncRttNs");
+            for (int w = 0; w < workers.size(); w++) {
+                pw.println(w + "," + ranges.get(w)[0] + "," + ranges.get(w)[1] + "," + syncs.get(w)[0] + "," + syncs.get(w)[1]);
+            }
+        }
+    }
+}
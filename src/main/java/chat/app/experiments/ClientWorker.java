@@ -0,0 +1,93 @@
+package chat.app.experiments;
+
+import chat.app.common.Clock;
+import chat.app.common.FanoutTracker;
+import chat.app.common.Metrics;
+import chat.app.common.NetworkEmulator;
+import chat.app.common.ResourceSampler;
+import chat.app.jfr.ChatRecording;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jdk.jfr.Recording;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Entry point of a forked client-worker JVM ("worker" mode). Runs clients [first, first+count) of a
+ * scenario against the server on localhost, driven by the coordinator over stdin/stdout:
+ *  - SYNC t0    -> CTL SYNC t0 localNanoTime   (clock offset estimation)
+ *  - OFFSET ns  -> Clock offset for all message timestamps
+ *  - START      -> starts the clients, CTL STARTED
+ *  - STOP       -> stops them, writes per-client CSVs and a fan-out dump, CTL DONE
+ */
+public class ClientWorker {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.out.println("Usage: worker <scenario.json> <workerId> <firstClientId> <clientCount>");
+            System.exit(1);
+        }
+        ScenarioConfig cfg = new ObjectMapper().readValue(new File(args[0]), ScenarioConfig.class);
+        int workerId = Integer.parseInt(args[1]);
+        int first = Integer.parseInt(args[2]);
+        int count = Integer.parseInt(args[3]);
+        File outDir = new File("results", cfg.name);
+
+        NetworkEmulator emulator = new NetworkEmulator(cfg.latencyMs, cfg.jitterMs, cfg.lossProb);
+        FanoutTracker fanout = FanoutTracker.forWorker(cfg.clients);
+        List<Thread> clientThreads = new ArrayList<>();
+        List<Metrics> metricsList = new ArrayList<>();
+        Recording recording = cfg.jfr ? ChatRecording.start(cfg.name + "-worker-" + workerId, cfg.jfrThresholdMs) : null;
+        ResourceSampler sampler = BatchRunner.startSampler(cfg);
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        reply("READY");
+        for (String line; (line = in.readLine()) != null; ) {
+            String[] p = line.trim().split(" ");
+            switch (p[0]) {
+                case "SYNC" -> reply("SYNC " + p[1] + " " + System.nanoTime());
+                case "OFFSET" -> Clock.setOffsetNs(Long.parseLong(p[1]));
+                case "START" -> {
+                    for (int i = first; i < first + count; i++) {
+                        Metrics m = new Metrics();
+                        m.setFanoutTracker(fanout);
+                        metricsList.add(m);
+                        Thread t = new Thread(Transports.newClient(cfg, i, emulator, m), Transports.clientThreadName(cfg, i));
+                        t.start();
+                        clientThreads.add(t);
+                        Thread.sleep(30);
+                    }
+                    reply("STARTED");
+                }
+                case "STOP" -> {
+                    for (Thread t : clientThreads) t.interrupt();
+                    Thread.sleep(800);
+                    outDir.mkdirs();
+                    BatchRunner.writeClientCsvs(outDir, cfg, first, metricsList);
+                    fanout.writeCsv(new File(outDir, String.format("fanout_worker_%02d.csv", workerId)));
+                    if (sampler != null) {
+                        long messagesSent = metricsList.stream().mapToLong(Metrics::getMessagesSent).sum();
+                        BatchRunner.writeResourceCsv(sampler, new File(outDir, String.format("resource_worker_%02d.csv", workerId)),
+                                cfg, "worker-" + workerId, messagesSent);
+                    }
+                    emulator.shutdown();
+                    if (recording != null) {
+                        ChatRecording.stop(recording, new File(outDir, String.format("%s_worker_%02d.jfr", cfg.name, workerId)));
+                    }
+                    reply("DONE");
+                    System.exit(0);
+                }
+                default -> System.out.println("Unknown control command: " + line);
+            }
+        }
+        // coordinator went away
+        System.exit(2);
+    }
+
+    static void reply(String s) {
+        System.out.println(ForkedJvm.CTL + s);
+        System.out.flush();
+    }
+}
@@ -1,5 +1,7 @@
 package chat.app.experiments;
 
+import chat.app.common.FanoutTracker;
+import chat.app.common.LatencyHistogram;
 import chat.app.common.Metrics;
 
 import java.io.*;
@@ -9,13 +11,31 @@ import java.util.*;
 public class CombinedResultsWriter {
 
     public static void writeCombinedCsv(File outDir, ScenarioConfig cfg, List<Metrics> metricsList) {
+        writeCombinedCsv(outDir, cfg, metricsList, null);
+    }
+
+    private static boolean isStream(ScenarioConfig cfg) {
+        return "tcp".equalsIgnoreCase(cfg.transport) || "uds".equalsIgnoreCase(cfg.transport) || "tls".equalsIgnoreCase(cfg.transport);
+    }
+
+    public static void writeCombinedCsv(File outDir, ScenarioConfig cfg, List<Metrics> metricsList, FanoutTracker fanout) {
+        writeCombinedCsv(outDir, cfg, metricsList, fanout, null);
+    }
+
+    /** deliveries: delivery latency (ns) kept as a histogram instead of the clients' samples (simulated runs), or null. */
+    public static void writeCombinedCsv(File outDir, ScenarioConfig cfg, List<Metrics> metricsList, FanoutTracker fanout,
+                                        LatencyHistogram deliveries) {
         File out = new File(outDir, "combined_summary.csv");
         try (PrintWriter pw = new PrintWriter(new FileWriter(out))) {
             pw.println("scenario," + cfg.name);
             pw.println("transport," + cfg.transport);
             pw.println("clients," + cfg.clients);
+            pw.println("durationSec," + cfg.durationSec);
             pw.println("latencyMs," + cfg.latencyMs);
             pw.println("lossProb," + cfg.lossProb);
+            if (isStream(cfg)) pw.println("priorityLanes," + cfg.priorityLanes);
+            pw.println("loopStrategy," + cfg.loopStrategy);
+            if ("tls".equalsIgnoreCase(cfg.transport)) pw.println("tlsResumption," + cfg.tlsResumption);
             pw.println();
 
             long totalBytesSent = metricsList.stream().mapToLong(m -> {
@@ -88,12 +108,129 @@ public class CombinedResultsWriter {
                 pw.println("rtt_samples,0");
             }
 
+            // one-way broadcast delivery latency across all receivers
+            if (deliveries != null) {
+                writeDistribution(pw, "delivery", deliveries);
+            } else {
+                List<Double> deliveryMs = new ArrayList<>();
+                for (Metrics m : metricsList) {
+                    for (long ns : m.getDeliverySamples()) deliveryMs.add(ns / 1_000_000.0);
+                }
+                Collections.sort(deliveryMs);
+                writeDistribution(pw, "delivery", deliveryMs);
+            }
+
+            // receiver-side sequence accounting: what was actually delivered
+            long generated = 0, emulatorDrops = 0, unique = 0, lost = 0, dups = 0, reordered = 0, late = 0, maxReorder = 0;
+            for (Metrics m : metricsList) {
+                generated += m.getChatGenerated();
+                emulatorDrops += m.getEmulatorDrops();
+                unique += m.getSequences().getUnique();
+                lost += m.getSequences().getLost();
+                dups += m.getSequences().getDuplicates();
+                reordered += m.getSequences().getReordered();
+                late += m.getSequences().getLate();
+                maxReorder = Math.max(maxReorder, m.getSequences().getMaxReorderDistance());
+            }
+            long expected = generated * metricsList.size(); // every chat is broadcast to every client
+            pw.println("seq_chat_generated," + generated);
+            pw.println("seq_expected_deliveries," + expected);
+            pw.println("seq_unique_deliveries," + unique);
+            pw.println("seq_lost," + lost);
+            pw.println("seq_duplicates," + dups);
+            pw.println("seq_reordered," + reordered);
+            pw.println("seq_max_reorder_distance," + maxReorder);
+            pw.println("seq_late," + late);
+            pw.println("injected_drop_deliveries," + emulatorDrops * metricsList.size());
+            pw.println("delivery_ratio," + (expected > 0 ? (double) unique / expected : Double.NaN));
+            pw.println("delivery_ratio_observed_window," + (unique + lost > 0 ? (double) unique / (unique + lost) : Double.NaN));
+
+            // client receive path (UDP drains the socket per wakeup; TCP leaves these at 0)
+            long wakeups = 0, datagrams = 0, receiveNs = 0;
+            for (Metrics m : metricsList) {
+                wakeups += m.getReceiveWakeups();
+                datagrams += m.getDatagramsReceived();
+                receiveNs += m.getReceiveNs();
+            }
+            if (wakeups > 0) {
+                pw.println("client_receive_wakeups," + wakeups);
+                pw.printf("client_datagrams_per_wakeup,%.3f%n", (double) datagrams / wakeups);
+                pw.printf("client_receive_ns_per_packet,%.1f%n", (double) receiveNs / datagrams);
+            }
+
+            long loopPolls = 0, loopEmpty = 0, loopParks = 0;
+            for (Metrics m : metricsList) {
+                loopPolls += m.getLoopPolls();
+                loopEmpty += m.getLoopEmptyPolls();
+                loopParks += m.getLoopParks();
+            }
+            if (loopPolls > 0) {
+                pw.println("client_loop_polls," + loopPolls);
+                pw.println("client_loop_empty_polls," + loopEmpty);
+                pw.println("client_loop_parks," + loopParks);
+            }
+
+            // TLS: client-side handshake latency and crypto cost per record
+            List<Double> handshakeMs = new ArrayList<>();
+            long resumed = 0, cryptoNs = 0, records = 0;
+            for (Metrics m : metricsList) {
+                for (long ns : m.getHandshakeSamples()) handshakeMs.add(ns / 1_000_000.0);
+                resumed += m.getHandshakesResumed();
+                cryptoNs += m.getTlsCryptoNs();
+                records += m.getTlsRecords();
+            }
+            if (!handshakeMs.isEmpty()) {
+                Collections.sort(handshakeMs);
+                writeDistribution(pw, "tls_handshake", handshakeMs);
+                pw.println("tls_handshakes_resumed," + resumed);
+                pw.printf("client_tls_crypto_ns_per_record,%.1f%n", records == 0 ? 0.0 : (double) cryptoNs / records);
+            }
+
+            if (fanout != null) {
+                List<Double> spreadMs = new ArrayList<>();
+                for (long ns : fanout.getCompleteSpreadsNs()) spreadMs.add(ns / 1_000_000.0);
+                Collections.sort(spreadMs);
+                pw.println("fanout_expected_recipients," + fanout.getExpectedRecipients());
+                pw.println("fanout_complete_messages," + spreadMs.size());
+                pw.println("fanout_incomplete_messages," + fanout.getIncompleteCount());
+                pw.println("fanout_expired_messages," + fanout.getExpiredCount());
+                writeDistribution(pw, "fanout_spread", spreadMs);
+            }
+
             System.out.println("Wrote combined CSV: " + out.getAbsolutePath());
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    private static void writeDistribution(PrintWriter pw, String prefix, List<Double> sortedMs) {
+        if (sortedMs.isEmpty()) {
+            pw.println(prefix + "_median_ms,");
+            pw.println(prefix + "_p95_ms,");
+            pw.println(prefix + "_p99_ms,");
+            pw.println(prefix + "_max_ms,");
+            pw.println(prefix + "_samples,0");
+            return;
+        }
+        pw.println(prefix + "_median_ms," + percentile(sortedMs, 50));
+        pw.println(prefix + "_p95_ms," + percentile(sortedMs, 95));
+        pw.println(prefix + "_p99_ms," + percentile(sortedMs, 99));
+        pw.println(prefix + "_max_ms," + sortedMs.get(sortedMs.size() - 1));
+        pw.println(prefix + "_samples," + sortedMs.size());
+    }
+
+    private static void writeDistribution(PrintWriter pw, String prefix, LatencyHistogram h) {
+        if (h.count() == 0) {
+            writeDistribution(pw, prefix, List.of());
+            return;
+        }
+        pw.println(prefix + "_median_ms," + h.percentile(50) / 1_000_000.0);
+        pw.println(prefix + "_p95_ms," + h.percentile(95) / 1_000_000.0);
+        pw.println(prefix + "_p99_ms," + h.percentile(99) / 1_000_000.0);
+        pw.println(prefix + "_max_ms," + h.max() / 1_000_000.0);
+        pw.println(prefix + "_samples," + h.count());
+    }
+
     private static double percentile(List<Double> sorted, double pct) {
         if (sorted.isEmpty()) return Double.NaN;
         double pos = pct / 100.0 * (sorted.size() - 1);
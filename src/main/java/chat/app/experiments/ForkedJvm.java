@@ -0,0 +1,97 @@
+package chat.app.experiments;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A child JVM running an AppLauncher mode, driven over a line-based control channel on its stdin/stdout.
+ * The child answers with lines prefixed "CTL "; anything else it prints is forwarded to our stdout.
+ */
+class ForkedJvm {
+    static final String CTL = "CTL ";
+
+    private final String label;
+    private final Process process;
+    private final PrintWriter control;
+    private final BlockingQueue<String> replies = new LinkedBlockingQueue<>();
+
+    ForkedJvm(String label, List<String> jvmArgs, String mode, List<String> args) throws IOException {
+        this.label = label;
+        List<String> cmd = new ArrayList<>();
+        cmd.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        cmd.addAll(jvmArgs);
+        cmd.add("-cp");
+        cmd.add(classPath());
+        cmd.add("chat.app.AppLauncher");
+        cmd.add(mode);
+        cmd.addAll(args);
+        this.process = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+        this.control = new PrintWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8), true);
+
+        Thread reader = new Thread(this::pump, label + "-stdout");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void pump() {
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            for (String line; (line = br.readLine()) != null; ) {
+                if (line.startsWith(CTL)) replies.add(line.substring(CTL.length()));
+                else System.out.println("[" + label + "] " + line);
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    void send(String command) {
+        control.println(command);
+    }
+
+    /** Wait for the next control reply starting with prefix; other replies are skipped. */
+    String expect(String prefix, long timeoutMs) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (true) {
+            long left = deadline - System.currentTimeMillis();
+            String reply = left > 0 ? replies.poll(left, TimeUnit.MILLISECONDS) : null;
+            if (reply == null) {
+                throw new IOException(label + ": no '" + prefix + "' reply within " + timeoutMs + " ms"
+                        + (process.isAlive() ? "" : " (exited with " + process.exitValue() + ")"));
+            }
+            if (reply.startsWith(prefix)) return reply;
+        }
+    }
+
+    /** Kill the JVM right away (after a failed start, nothing is waiting for its results). */
+    void destroy() {
+        process.destroyForcibly();
+    }
+
+    void awaitExit(long timeoutMs) throws InterruptedException {
+        if (!process.waitFor(timeoutMs, TimeUnit.MILLISECONDS)) process.destroyForcibly();
+    }
+
+    String label() { return label; }
+
+    /** Under mvn exec:java the application classpath lives in the class loader, not in java.class.path. */
+    private static String classPath() {
+        ClassLoader cl = ForkedJvm.class.getClassLoader();
+        if (cl instanceof URLClassLoader ucl && ucl.getURLs().length > 0) {
+            StringJoiner sj = new StringJoiner(File.pathSeparator);
+            for (URL u : ucl.getURLs()) {
+                try {
+                    sj.add(Paths.get(u.toURI()).toString());
+                } catch (URISyntaxException | IllegalArgumentException e) {
+                    sj.add(u.getPath());
+                }
+            }
+            return sj.toString();
+        }
+        return System.getProperty("java.class.path");
+    }
+}
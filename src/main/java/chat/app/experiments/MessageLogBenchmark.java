@@ -0,0 +1,87 @@
+package chat.app.experiments;
+
+import chat.app.log.MessageLog;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Micro-benchmark for MessageLog:
+ *  - append throughput (records/s, MB/s) and append latency percentiles
+ *  - replay throughput streaming 64 KiB chunks straight from the mapped segments
+ *
+ * Usage: logbench [--records=N --size=BYTES --segmentMb=MB --flushMs=MS]
+ */
+public class MessageLogBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int records = 2_000_000;
+        int size = 48;
+        int segmentMb = 64;
+        int flushMs = 10;
+        for (String a : args) {
+            if (a.startsWith("--records=")) records = Integer.parseInt(a.split("=")[1]);
+            if (a.startsWith("--size=")) size = Integer.parseInt(a.split("=")[1]);
+            if (a.startsWith("--segmentMb=")) segmentMb = Integer.parseInt(a.split("=")[1]);
+            if (a.startsWith("--flushMs=")) flushMs = Integer.parseInt(a.split("=")[1]);
+        }
+
+        File dir = Files.createTempDirectory("chatlog-bench").toFile();
+        byte[] line = new byte[size];
+        Arrays.fill(line, (byte) 'x');
+        byte[] prefix = "MSG:0:".getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(prefix, 0, line, 0, Math.min(prefix.length, size));
+        line[size - 1] = '\n';
+        ByteBuffer buf = ByteBuffer.wrap(line);
+
+        try (MessageLog log = new MessageLog(dir, segmentMb * 1024 * 1024, flushMs)) {
+            // warm-up so the timed loop runs compiled code
+            for (int i = 0; i < 100_000; i++) log.append(buf);
+
+            long[] latNs = new long[records];
+            long t0 = System.nanoTime();
+            for (int i = 0; i < records; i++) {
+                long s = System.nanoTime();
+                log.append(buf);
+                latNs[i] = System.nanoTime() - s;
+            }
+            long appendNs = System.nanoTime() - t0;
+            long firstTimed = log.nextOffset() - records;
+
+            long r0 = System.nanoTime();
+            long replayed = replayBytes(log, firstTimed);
+            long replayNs = System.nanoTime() - r0;
+
+            Arrays.sort(latNs);
+            System.out.printf("append: %d records of %d B in %.1f ms -> %.0f rec/s, %.1f MB/s%n",
+                    records, size, appendNs / 1e6, records / (appendNs / 1e9), replayed / (appendNs / 1e9) / 1e6);
+            System.out.printf("append latency ns: p50=%d p99=%d p99.9=%d max=%d%n",
+                    latNs[records / 2], latNs[(int) (records * 0.99)], latNs[(int) (records * 0.999)], latNs[records - 1]);
+            System.out.printf("replay: %d bytes in %.1f ms -> %.1f MB/s (checksum %d)%n",
+                    replayed, replayNs / 1e6, replayed / (replayNs / 1e9) / 1e6, checksum);
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null) for (File f : files) f.delete();
+            dir.delete();
+        }
+    }
+
+    /** Sum of every byte replayed; printed so the JIT cannot drop the reads. */
+    private static long checksum;
+
+    /** Stream the log from an offset, touching every byte so the pages are really read. */
+    private static long replayBytes(MessageLog log, long from) {
+        MessageLog.Cursor cursor = log.cursor(from);
+        long total = 0;
+        ByteBuffer chunk;
+        while ((chunk = cursor.nextChunk(64 * 1024)) != null) {
+            while (chunk.remaining() >= 8) checksum += chunk.getLong();
+            while (chunk.hasRemaining()) checksum += chunk.get();
+            total += chunk.limit();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,226 @@
+package chat.app.experiments;
+
+import chat.app.common.ChatRate;
+import chat.app.common.LatencyHistogram;
+import chat.app.common.Metrics;
+import chat.app.common.NetworkEmulator;
+import chat.app.common.ServerMetrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.*;
+
+/**
+ * Runs a scenario's phases (ScenarioConfig.phases) with the clients as threads in this JVM.
+ * Between seconds it starts clients (new ids) or stops the newest ones to follow each phase's
+ * client count, and sets the shared chat rate. Once a second it collects what every client and
+ * the server recorded since the last second, tagged with the current phase:
+ * - phase_timeline.csv: one row per second (clients, messages, RTT/delivery percentiles, heap, threads)
+ * - phases.csv: one row per phase, with the heap growth rate (for leaks during a soak) and the recovery
+ *   time: seconds until the per-second RTT median stays within phaseRecoveryFactor x the first phase's
+ *   median (0 = never left it, -1 = not back by the end of the phase)
+ */
+final class PhasedWorkload {
+    private final ScenarioConfig cfg;
+    private final NetworkEmulator emulator;
+    private final ServerMetrics serverMetrics;
+    private final ChatRate chatRate = new ChatRate(ChatRate.DEFAULT_PER_SEC);
+    private final List<Metrics> metricsList = new ArrayList<>();
+    private final List<int[]> seen = new ArrayList<>(); // per client: {rtt samples, delivery samples} already collected
+    private final List<Long> seenReceived = new ArrayList<>();
+    private final Deque<Thread> running = new ArrayDeque<>();
+    private final List<Thread> stopped = new ArrayList<>();
+    private long seenServerReceived;
+
+    PhasedWorkload(ScenarioConfig cfg, NetworkEmulator emulator, ServerMetrics serverMetrics) {
+        this.cfg = cfg;
+        this.emulator = emulator;
+        this.serverMetrics = serverMetrics;
+    }
+
+    /** Validate the phases and make clients/durationSec the peak and total, as the rest of the run expects. */
+    static void applyPhases(ScenarioConfig cfg) {
+        if (cfg.phases.isEmpty()) return;
+        if (cfg.workers > 0) throw new IllegalArgumentException("phases start and stop clients in this JVM; workers are not supported");
+        int peak = 0, total = 0;
+        for (ScenarioConfig.Phase p : cfg.phases) {
+            if (p.durationSec <= 0 || p.clients < 0) throw new IllegalArgumentException("phase " + p.name + ": durationSec must be > 0, clients >= 0");
+            peak = Math.max(peak, p.clients);
+            total += p.durationSec;
+        }
+        cfg.clients = peak;
+        cfg.durationSec = total;
+    }
+
+    /** One second of the run. */
+    private static final class Window {
+        int sec;
+        int clients;
+        long received;
+        long serverReceived;
+        final LatencyHistogram rtt = new LatencyHistogram();
+        final LatencyHistogram delivery = new LatencyHistogram();
+        double heapMb;
+        double liveHeapMb;
+        int threads;
+    }
+
+    /** Run every phase; returns the metrics of every client started, indexed by client id. */
+    List<Metrics> run(File outDir) throws IOException, InterruptedException {
+        chatRate.set(cfg.msgRate);
+        long startNs = System.nanoTime();
+        int sec = 0;
+        List<List<Window>> byPhase = new ArrayList<>();
+        try (PrintWriter timeline = new PrintWriter(new FileWriter(new File(outDir, "phase_timeline.csv")))) {
+            timeline.println("sec,phase,clients,recvMsgs,rttSamples,rttP50Ms,rttP99Ms,deliveryP50Ms,heapUsedMb,liveHeapMb,threads,serverMsgs");
+            for (ScenarioConfig.Phase phase : cfg.phases) {
+                if (phase.msgRate > 0) chatRate.set(phase.msgRate);
+                System.out.printf("Phase '%s': %d clients, %.1f msg/s each, %ds%s%n", phase.name, phase.clients,
+                        chatRate.get(), phase.durationSec, phase.ramp ? " (ramp)" : "");
+                List<Window> windows = new ArrayList<>();
+                int from = running.size();
+                for (int i = 0; i < phase.durationSec; i++, sec++) {
+                    int target = phase.ramp ? from + Math.round((phase.clients - from) * (i + 1f) / phase.durationSec) : phase.clients;
+                    resize(target);
+                    long sleepNs = startNs + (sec + 1) * 1_000_000_000L - System.nanoTime();
+                    if (sleepNs > 0) Thread.sleep(sleepNs / 1_000_000, (int) (sleepNs % 1_000_000));
+                    Window w = sample(sec);
+                    windows.add(w);
+                    timeline.printf(Locale.ROOT, "%d,%s,%d,%d,%d,%.3f,%.3f,%.3f,%.1f,%.1f,%d,%d%n", w.sec, phase.name, w.clients,
+                            w.received, w.rtt.count(), ms(w.rtt, 50), ms(w.rtt, 99), ms(w.delivery, 50),
+                            w.heapMb, w.liveHeapMb, w.threads, w.serverReceived);
+                }
+                byPhase.add(windows);
+            }
+        }
+        writePhases(new File(outDir, "phases.csv"), byPhase);
+        return metricsList;
+    }
+
+    /** Stop every client still running and wait for all of them to exit. */
+    void stopAll() throws IOException, InterruptedException {
+        resize(0);
+        for (Thread t : stopped) t.join(2000);
+    }
+
+    private void resize(int target) throws IOException {
+        while (running.size() < target) {
+            int id = metricsList.size();
+            Metrics m = new Metrics();
+            metricsList.add(m);
+            seen.add(new int[2]);
+            seenReceived.add(0L);
+            Thread t = new Thread(Transports.newClient(cfg, id, emulator, m, chatRate), Transports.clientThreadName(cfg, id));
+            t.start();
+            running.addLast(t);
+        }
+        while (running.size() > target) {
+            Thread t = running.removeLast();
+            t.interrupt();
+            stopped.add(t);
+        }
+    }
+
+    private Window sample(int sec) {
+        Window w = new Window();
+        w.sec = sec;
+        w.clients = running.size();
+        for (int i = 0; i < metricsList.size(); i++) {
+            Metrics m = metricsList.get(i);
+            int[] idx = seen.get(i);
+            List<Long> rtt = m.getRttSamplesFrom(idx[0]);
+            for (long ns : rtt) w.rtt.record(ns);
+            idx[0] += rtt.size();
+            List<Long> delivery = m.getDeliverySamplesFrom(idx[1]);
+            for (long ns : delivery) w.delivery.record(ns);
+            idx[1] += delivery.size();
+            long received = m.getMessagesReceived();
+            w.received += received - seenReceived.get(i);
+            seenReceived.set(i, received);
+        }
+        if (serverMetrics != null) {
+            long received = serverMetrics.getMessagesReceived();
+            w.serverReceived = received - seenServerReceived;
+            seenServerReceived = received;
+        }
+        w.heapMb = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / 1048576.0;
+        // heap still in use after each pool's last collection: grows steadily only if something leaks
+        long live = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage after = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+            if (after != null) live += after.getUsed();
+        }
+        w.liveHeapMb = live / 1048576.0;
+        w.threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        return w;
+    }
+
+    private void writePhases(File out, List<List<Window>> byPhase) throws IOException {
+        double baseline = Double.NaN;
+        int startSec = 0;
+        try (PrintWriter pw = new PrintWriter(new FileWriter(out))) {
+            pw.println("phase,name,startSec,durationSec,clients,msgRate,recvMsgPerSec,rttSamples,rttP50Ms,rttP99Ms,"
+                    + "deliveryP50Ms,deliveryP99Ms,serverMsgPerSec,heapSlopeKbPerSec,liveHeapSlopeKbPerSec,threadsEnd,recoverySec");
+            double rate = cfg.msgRate;
+            for (int p = 0; p < byPhase.size(); p++) {
+                ScenarioConfig.Phase phase = cfg.phases.get(p);
+                if (phase.msgRate > 0) rate = phase.msgRate;
+                List<Window> windows = byPhase.get(p);
+                LatencyHistogram rtt = new LatencyHistogram(), delivery = new LatencyHistogram();
+                long received = 0, serverReceived = 0;
+                for (Window w : windows) {
+                    rtt.merge(w.rtt);
+                    delivery.merge(w.delivery);
+                    received += w.received;
+                    serverReceived += w.serverReceived;
+                }
+                if (p == 0) baseline = ms(rtt, 50);
+                pw.printf(Locale.ROOT, "%d,%s,%d,%d,%d,%.1f,%.1f,%d,%.3f,%.3f,%.3f,%.3f,%.1f,%.1f,%.1f,%d,%d%n", p, phase.name,
+                        startSec, phase.durationSec, phase.clients, rate, (double) received / windows.size(), rtt.count(),
+                        ms(rtt, 50), ms(rtt, 99), ms(delivery, 50), ms(delivery, 99),
+                        serverMetrics != null ? (double) serverReceived / windows.size() : Double.NaN,
+                        slopeKbPerSec(windows, false), slopeKbPerSec(windows, true),
+                        windows.get(windows.size() - 1).threads, recoverySec(windows, baseline * cfg.phaseRecoveryFactor));
+                startSec += phase.durationSec;
+            }
+        }
+        System.out.println("Wrote phases: " + out.getAbsolutePath());
+    }
+
+    /** First second from which every window with RTT samples has its median within limitMs; -1 if the last one does not. */
+    private static int recoverySec(List<Window> windows, double limitMs) {
+        if (Double.isNaN(limitMs)) return -1;
+        int recovered = 0;
+        for (int i = 0; i < windows.size(); i++) {
+            Window w = windows.get(i);
+            if (w.rtt.count() > 0 && ms(w.rtt, 50) > limitMs) recovered = i + 1;
+        }
+        return recovered >= windows.size() ? -1 : recovered;
+    }
+
+    /** Least-squares slope of heap (or post-GC heap) over the phase's seconds. */
+    private static double slopeKbPerSec(List<Window> windows, boolean live) {
+        int n = windows.size();
+        if (n < 2) return 0;
+        double sx = 0, sy = 0, sxx = 0, sxy = 0;
+        for (Window w : windows) {
+            double x = w.sec, y = (live ? w.liveHeapMb : w.heapMb) * 1024;
+            sx += x;
+            sy += y;
+            sxx += x * x;
+            sxy += x * y;
+        }
+        double d = n * sxx - sx * sx;
+        return d == 0 ? 0 : (n * sxy - sx * sy) / d;
+    }
+
+    private static double ms(LatencyHistogram h, double pct) {
+        return h.count() == 0 ? Double.NaN : h.percentile(pct) / 1e6;
+    }
+}
@@ -0,0 +1,498 @@
+package chat.app.experiments;
+
+import chat.app.common.LatencyHistogram;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+/**
+ * "report" mode: scans result directories, aggregates every client CSV in a streaming way
+ * (samples go straight into histograms, files are parsed in parallel), prints per-scenario
+ * throughput and latency percentiles with TCP vs UDP/UDS/TLS, priority vs FIFO lanes and event-loop strategies
+ * side by side, lists the phases of phased workloads and connection-churn results, and optionally gates on a baseline.
+ *
+ * Usage: report [resultsDir] [--baseline=FILE] [--write-baseline=FILE] [--tolerance=0.10]
+ *               [--rtt-tolerance=T] [--throughput-tolerance=T] [--threads=N] [--out=FILE]
+ * Scenarios are named by their directory relative to resultsDir; report.csv goes to the working
+ * directory unless --out says otherwise.
+ * Exits with status 2 when p99 RTT or throughput regresses beyond tolerance against the baseline, when
+ * either cannot be computed for a baseline scenario, or when a baseline scenario is missing from the results.
+ */
+public class ResultsReport {
+
+    /** Aggregate of all client CSVs of one scenario directory. */
+    static final class ScenarioStats {
+        final String scenario;
+        String transport;
+        int clients;
+        double durationSec = Double.NaN;
+        long clientFiles;
+        long messagesSent;
+        long messagesReceived;
+        long bytesReceived;
+        long emulatorDrops;
+        long chatGenerated;
+        long seqUnique;
+        long seqLost;
+        String lanes = "";
+        double pongDelayP50Us = Double.NaN;
+        double pongDelayP99Us = Double.NaN;
+        String loop = "";
+        double cpuMs = Double.NaN;
+        double handshakeP50Us = Double.NaN;
+        double handshakeP99Us = Double.NaN;
+        double handshakesPerCpuSec = Double.NaN;
+        double tlsCryptoNsPerRecord = Double.NaN;
+        final LatencyHistogram rtt = new LatencyHistogram();
+        final LatencyHistogram delivery = new LatencyHistogram();
+        /** combined_summary.csv's delivery percentiles, for runs whose client files carry no samples (simulated). */
+        double summaryDeliveryP50Ms = Double.NaN;
+        double summaryDeliveryP99Ms = Double.NaN;
+
+        ScenarioStats(String scenario) { this.scenario = scenario; }
+
+        synchronized void merge(ScenarioStats part) {
+            clientFiles += part.clientFiles;
+            messagesSent += part.messagesSent;
+            messagesReceived += part.messagesReceived;
+            bytesReceived += part.bytesReceived;
+            emulatorDrops += part.emulatorDrops;
+            chatGenerated += part.chatGenerated;
+            seqUnique += part.seqUnique;
+            seqLost += part.seqLost;
+            rtt.merge(part.rtt);
+            delivery.merge(part.delivery);
+        }
+
+        double throughput() { return messagesReceived / durationSec; }
+        /** Unique chat deliveries over chats generated times receivers (each chat goes to every client). */
+        double deliveryRatio() { return chatGenerated == 0 ? Double.NaN : (double) seqUnique / (chatGenerated * clientFiles); }
+        double rttMs(double pct) { return rtt.count() == 0 ? Double.NaN : rtt.percentile(pct) / 1e6; }
+        /** Thread CPU of every JVM of the run per message received by the clients. */
+        double cpuUsPerMessage() { return messagesReceived == 0 ? Double.NaN : cpuMs * 1000.0 / messagesReceived; }
+        double deliveryMs(double pct) {
+            if (delivery.count() > 0) return delivery.percentile(pct) / 1e6;
+            return pct == 50 ? summaryDeliveryP50Ms : pct == 99 ? summaryDeliveryP99Ms : Double.NaN;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        File root = new File("results");
+        File baseline = null, writeBaseline = null, out = null;
+        double tolerance = 0.10;
+        Double rttTolerance = null, throughputTolerance = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (String a : args) {
+            if (a.startsWith("--baseline=")) baseline = new File(a.split("=", 2)[1]);
+            else if (a.startsWith("--write-baseline=")) writeBaseline = new File(a.split("=", 2)[1]);
+            else if (a.startsWith("--tolerance=")) tolerance = Double.parseDouble(a.split("=", 2)[1]);
+            else if (a.startsWith("--rtt-tolerance=")) rttTolerance = Double.parseDouble(a.split("=", 2)[1]);
+            else if (a.startsWith("--throughput-tolerance=")) throughputTolerance = Double.parseDouble(a.split("=", 2)[1]);
+            else if (a.startsWith("--threads=")) threads = Integer.parseInt(a.split("=", 2)[1]);
+            else if (a.startsWith("--out=")) out = new File(a.split("=", 2)[1]);
+            else if (!a.startsWith("--")) root = new File(a);
+        }
+
+        long t0 = System.nanoTime();
+        Map<String, ScenarioStats> stats = scan(root.toPath(), threads);
+        System.out.printf("Scanned %d scenarios (%d client files) in %.1f ms%n", stats.size(),
+                stats.values().stream().mapToLong(s -> s.clientFiles).sum(), (System.nanoTime() - t0) / 1e6);
+
+        List<ScenarioStats> sorted = new ArrayList<>(stats.values());
+        sorted.sort(Comparator.comparing((ScenarioStats s) -> s.scenario));
+        printTable(sorted);
+        printSideBySide(sorted);
+        printPhases(root.toPath());
+        printChurn(root.toPath());
+        if (out == null) out = new File("report.csv"); // not inside root: a later scan would walk it
+        writeReportCsv(out, sorted);
+        if (writeBaseline != null) writeBaselineCsv(writeBaseline, sorted);
+
+        if (baseline != null) {
+            double rttTol = rttTolerance != null ? rttTolerance : tolerance;
+            double tputTol = throughputTolerance != null ? throughputTolerance : tolerance;
+            int regressions = compareToBaseline(baseline, sorted, rttTol, tputTol);
+            if (regressions > 0) {
+                System.out.println(regressions + " regression(s) against baseline " + baseline);
+                System.exit(2);
+            }
+            System.out.println("No regressions against baseline " + baseline);
+        }
+    }
+
+    /**
+     * Find every <transport>_client_NN.csv below root and aggregate them per directory and transport,
+     * in parallel. Directories without a combined_summary.csv (e.g. harness output) are labelled dir_transport.
+     */
+    static Map<String, ScenarioStats> scan(Path root, int threads) throws IOException, InterruptedException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(p -> p.getFileName().toString().matches(".+_client_\\d+\\.csv")).toList();
+        }
+        Map<String, ScenarioStats> stats = new ConcurrentHashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Path p : files) {
+                futures.add(pool.submit(() -> {
+                    File dir = p.getParent().toFile();
+                    String name = p.getFileName().toString();
+                    String transport = name.substring(0, name.indexOf("_client_"));
+                    ScenarioStats target = stats.computeIfAbsent(dir.getPath() + "|" + transport, k -> newScenario(root, dir, transport));
+                    try {
+                        target.merge(parseClientCsv(p));
+                    } catch (IOException | RuntimeException e) {
+                        System.out.println("Skipping unreadable " + p + ": " + e.getMessage());
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                try { f.get(); } catch (ExecutionException e) { throw new IOException(e.getCause()); }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return stats;
+    }
+
+    /** Scenario metadata from combined_summary.csv when the directory has one. */
+    private static ScenarioStats newScenario(Path root, File dir, String transport) {
+        File summary = new File(dir, "combined_summary.csv");
+        String name = root.relativize(dir.toPath()).toString().replace(File.separatorChar, '/');
+        if (name.isEmpty()) name = dir.getName();
+        ScenarioStats s = new ScenarioStats(summary.isFile() ? name : name + "_" + transport);
+        s.transport = transport;
+        if (!summary.isFile()) return s;
+        try (BufferedReader br = new BufferedReader(new FileReader(summary))) {
+            for (String line; (line = br.readLine()) != null; ) {
+                String[] kv = line.split(",", 2);
+                if (kv.length < 2 || kv[1].isEmpty()) continue;
+                switch (kv[0]) {
+                    case "transport" -> s.transport = kv[1];
+                    case "clients" -> s.clients = Integer.parseInt(kv[1]);
+                    case "durationSec" -> s.durationSec = Double.parseDouble(kv[1]);
+                    case "priorityLanes" -> s.lanes = Boolean.parseBoolean(kv[1]) ? "prio" : "fifo";
+                    case "loopStrategy" -> s.loop = kv[1].replace("-", "");
+                    case "delivery_median_ms" -> s.summaryDeliveryP50Ms = Double.parseDouble(kv[1]);
+                    case "delivery_p99_ms" -> s.summaryDeliveryP99Ms = Double.parseDouble(kv[1]);
+                    default -> { }
+                }
+            }
+        } catch (IOException | NumberFormatException ignored) {
+        }
+        // coordinator, server and worker JVMs each write their own resource_*.csv
+        File[] resources = dir.listFiles((d, n) -> n.startsWith("resource_") && n.endsWith(".csv"));
+        if (resources != null) {
+            for (File f : resources) {
+                try (BufferedReader br = new BufferedReader(new FileReader(f))) {
+                    for (String line; (line = br.readLine()) != null; ) {
+                        if (!line.startsWith("threadCpuMs,")) continue;
+                        double ms = Double.parseDouble(line.substring("threadCpuMs,".length()));
+                        s.cpuMs = Double.isNaN(s.cpuMs) ? ms : s.cpuMs + ms;
+                    }
+                } catch (IOException | NumberFormatException ignored) {
+                }
+            }
+        }
+        File server = new File(dir, "server_metrics.csv");
+        if (!server.isFile()) return s;
+        try (BufferedReader br = new BufferedReader(new FileReader(server))) {
+            for (String line; (line = br.readLine()) != null; ) {
+                String[] kv = line.split(",", 2);
+                if (kv.length < 2) continue;
+                switch (kv[0]) {
+                    case "pongDelayP50Us" -> s.pongDelayP50Us = Double.parseDouble(kv[1]);
+                    case "pongDelayP99Us" -> s.pongDelayP99Us = Double.parseDouble(kv[1]);
+                    case "handshakeP50Us" -> s.handshakeP50Us = Double.parseDouble(kv[1]);
+                    case "handshakeP99Us" -> s.handshakeP99Us = Double.parseDouble(kv[1]);
+                    case "handshakesPerCpuSec" -> s.handshakesPerCpuSec = Double.parseDouble(kv[1]);
+                    case "tlsCryptoNsPerRecord" -> s.tlsCryptoNsPerRecord = Double.parseDouble(kv[1]);
+                    default -> { }
+                }
+            }
+        } catch (IOException | NumberFormatException ignored) {
+        }
+        return s;
+    }
+
+    /** One pass over a client CSV (see Metrics.writeCsv); samples go straight into histograms. */
+    static ScenarioStats parseClientCsv(Path p) throws IOException {
+        ScenarioStats part = new ScenarioStats(String.valueOf(p.getParent().getFileName()));
+        part.clientFiles = 1;
+        try (BufferedReader br = Files.newBufferedReader(p)) {
+            LatencyHistogram section = null;
+            long remaining = 0;
+            for (String line; (line = br.readLine()) != null; ) {
+                if (remaining > 0) {
+                    section.record(Math.round(Double.parseDouble(line) * 1_000_000.0));
+                    remaining--;
+                    continue;
+                }
+                int comma = line.indexOf(',');
+                if (comma < 0) continue;
+                String key = line.substring(0, comma);
+                String value = line.substring(comma + 1);
+                switch (key) {
+                    case "messagesSent" -> part.messagesSent = Long.parseLong(value);
+                    case "messagesReceived" -> part.messagesReceived = Long.parseLong(value);
+                    case "bytesReceived" -> part.bytesReceived = Long.parseLong(value);
+                    case "emulatorDrops" -> part.emulatorDrops = Long.parseLong(value);
+                    case "chatGenerated" -> part.chatGenerated = Long.parseLong(value);
+                    case "seqUnique" -> part.seqUnique = Long.parseLong(value);
+                    case "seqLost" -> part.seqLost = Long.parseLong(value);
+                    case "rttSamplesCount" -> { section = part.rtt; remaining = Long.parseLong(value); }
+                    case "deliverySamplesCount" -> { section = part.delivery; remaining = Long.parseLong(value); }
+                    default -> { }
+                }
+            }
+        }
+        return part;
+    }
+
+    private static void printTable(List<ScenarioStats> sorted) {
+        System.out.printf("%-32s %-5s %7s %12s %10s %10s %10s %10s %10s %9s%n",
+                "scenario", "proto", "clients", "recv msg/s", "rtt p50", "rtt p95", "rtt p99", "dlv p50", "dlv p99", "delivered");
+        for (ScenarioStats s : sorted) {
+            System.out.printf("%-32s %-5s %7d %12.1f %10.3f %10.3f %10.3f %10.3f %10.3f %9.4f%n",
+                    s.scenario, s.transport, s.clientFiles, s.throughput(), s.rttMs(50), s.rttMs(95), s.rttMs(99),
+                    s.deliveryMs(50), s.deliveryMs(99), s.deliveryRatio());
+        }
+    }
+
+    /**
+     * Pair scenarios whose names only differ in the transport token, e.g. tcp_10_clients vs udp_10_clients
+     * (or uds_10_clients, for loopback TCP vs Unix domain sockets).
+     */
+    private static void printSideBySide(List<ScenarioStats> sorted) {
+        Map<String, Map<String, ScenarioStats>> pairs = new TreeMap<>();
+        for (ScenarioStats s : sorted) {
+            String key = s.scenario.replaceAll("(?i)(^|[_/])" + java.util.regex.Pattern.quote(s.transport) + "(_|$)", "$1*$2");
+            pairs.computeIfAbsent(key, k -> new TreeMap<>()).put(s.transport.toLowerCase(), s);
+        }
+        printPairs(pairs, "tcp", "udp");
+        printPairs(pairs, "tcp", "uds");
+        printPairs(pairs, "tcp", "tls");
+        printTls(pairs);
+        printLanes(sorted);
+        printLoopStrategies(sorted);
+    }
+
+    /** TLS runs next to their plain TCP pair: server handshake latency, setup rate per CPU second and the cost of crypto. */
+    private static void printTls(Map<String, Map<String, ScenarioStats>> pairs) {
+        boolean header = false;
+        for (Map.Entry<String, Map<String, ScenarioStats>> e : pairs.entrySet()) {
+            ScenarioStats tcp = e.getValue().get("tcp"), tls = e.getValue().get("tls");
+            if (tcp == null || tls == null) continue;
+            if (!header) {
+                System.out.println();
+                System.out.printf("%-32s %12s %12s %14s %14s %12s %12s%n", "tls handshakes/crypto",
+                        "hs p50 ms", "hs p99 ms", "setups/cpu s", "crypto ns/rec", "tcp us/msg", "tls us/msg");
+                header = true;
+            }
+            System.out.printf("%-32s %12.3f %12.3f %14.1f %14.1f %12.1f %12.1f%n", e.getKey(),
+                    tls.handshakeP50Us / 1000, tls.handshakeP99Us / 1000, tls.handshakesPerCpuSec,
+                    tls.tlsCryptoNsPerRecord, tcp.cpuUsPerMessage(), tls.cpuUsPerMessage());
+        }
+    }
+
+    /** Runs whose names only differ in a block/spin/spinpark token: latency against the CPU it cost. */
+    private static void printLoopStrategies(List<ScenarioStats> sorted) {
+        Map<String, List<ScenarioStats>> groups = new TreeMap<>();
+        for (ScenarioStats s : sorted) {
+            if (s.loop.isEmpty()) continue;
+            String key = s.scenario.replaceAll("(?i)(^|[_/])(block|spinpark|spin_park|spin)(_|$)", "$1*$3");
+            if (!key.equals(s.scenario)) groups.computeIfAbsent(key, k -> new ArrayList<>()).add(s);
+        }
+        boolean header = false;
+        for (Map.Entry<String, List<ScenarioStats>> e : groups.entrySet()) {
+            if (e.getValue().size() < 2) continue;
+            if (!header) {
+                System.out.println();
+                System.out.printf("%-32s %-9s %10s %10s %12s %12s%n", "loop strategy", "mode", "rtt p50", "rtt p99", "cpu ms", "cpu us/msg");
+                header = true;
+            }
+            for (ScenarioStats s : e.getValue()) {
+                System.out.printf("%-32s %-9s %10.3f %10.3f %12.1f %12.1f%n", e.getKey(), s.loop,
+                        s.rttMs(50), s.rttMs(99), s.cpuMs, s.cpuUsPerMessage());
+            }
+        }
+    }
+
+    /** Pair runs whose names only differ in a prio/fifo token: RTT and server PONG delay with and without priority lanes. */
+    private static void printLanes(List<ScenarioStats> sorted) {
+        Map<String, Map<String, ScenarioStats>> pairs = new TreeMap<>();
+        for (ScenarioStats s : sorted) {
+            if (s.lanes.isEmpty()) continue;
+            String key = s.scenario.replaceAll("(?i)(^|[_/])(prio|fifo)(_|$)", "$1*$3");
+            pairs.computeIfAbsent(key, k -> new TreeMap<>()).put(s.lanes, s);
+        }
+        boolean header = false;
+        for (Map.Entry<String, Map<String, ScenarioStats>> e : pairs.entrySet()) {
+            ScenarioStats prio = e.getValue().get("prio"), fifo = e.getValue().get("fifo");
+            if (prio == null || fifo == null) continue;
+            if (!header) {
+                System.out.println();
+                System.out.printf("%-32s %10s %10s %10s %10s %12s %12s %12s %12s%n", "prio vs fifo lanes",
+                        "prio p50", "fifo p50", "prio p99", "fifo p99", "prio pong50", "fifo pong50", "prio pong99", "fifo pong99");
+                header = true;
+            }
+            System.out.printf("%-32s %10.3f %10.3f %10.3f %10.3f %10.1fus %10.1fus %10.1fus %10.1fus%n", e.getKey(),
+                    prio.rttMs(50), fifo.rttMs(50), prio.rttMs(99), fifo.rttMs(99),
+                    prio.pongDelayP50Us, fifo.pongDelayP50Us, prio.pongDelayP99Us, fifo.pongDelayP99Us);
+        }
+    }
+
+    private static void printPairs(Map<String, Map<String, ScenarioStats>> pairs, String a, String b) {
+        boolean header = false;
+        for (Map.Entry<String, Map<String, ScenarioStats>> e : pairs.entrySet()) {
+            ScenarioStats x = e.getValue().get(a), y = e.getValue().get(b);
+            if (x == null || y == null) continue;
+            if (!header) {
+                System.out.println();
+                System.out.printf("%-32s %12s %12s %10s %10s %10s %10s %9s %9s%n", a + " vs " + b,
+                        a + " msg/s", b + " msg/s", a + " p50", b + " p50", a + " p99", b + " p99", a + " dlv", b + " dlv");
+                header = true;
+            }
+            System.out.printf("%-32s %12.1f %12.1f %10.3f %10.3f %10.3f %10.3f %9.4f %9.4f%n", e.getKey(),
+                    x.throughput(), y.throughput(), x.rttMs(50), y.rttMs(50), x.rttMs(99), y.rttMs(99),
+                    x.deliveryRatio(), y.deliveryRatio());
+        }
+    }
+
+    /** Every phases.csv below root (phased workloads, see PhasedWorkload), one line per phase. */
+    private static void printPhases(Path root) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(p -> p.getFileName().toString().equals("phases.csv")).sorted().toList();
+        }
+        if (files.isEmpty()) return;
+        System.out.println();
+        System.out.printf("%-32s %-10s %7s %12s %10s %10s %14s %10s%n", "phases", "phase", "clients", "recv msg/s",
+                "rtt p50", "rtt p99", "live KB/s", "recovery s");
+        for (Path f : files) {
+            String scenario = String.valueOf(f.getParent().getFileName());
+            List<String> lines = Files.readAllLines(f);
+            if (lines.isEmpty()) continue; // not even a header: the run died before writing it
+            for (String line : lines.subList(1, lines.size())) {
+                String[] c = line.split(",");
+                if (c.length < 17) continue;
+                System.out.printf("%-32s %-10s %7s %12s %10s %10s %14s %10s%n", scenario, c[1], c[4], c[6], c[8], c[9], c[14], c[16]);
+            }
+        }
+    }
+
+    /** Every churn.csv below root (see ChurnDriver) with the accept and registry figures of its server. */
+    private static void printChurn(Path root) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(p -> p.getFileName().toString().equals("churn.csv")).sorted().toList();
+        }
+        if (files.isEmpty()) return;
+        System.out.println();
+        System.out.printf("%-32s %10s %10s %10s %9s %10s %10s %10s %10s %10s%n", "churn", "opened/s", "done/s", "accepts/s",
+                "acc/batch", "1st pong50", "1st pong99", "pong99.9", "reg add99", "reg rm99");
+        for (Path f : files) {
+            Map<String, String> churn = readKeyValues(f);
+            Map<String, String> server = readKeyValues(f.resolveSibling("server_metrics.csv"));
+            System.out.printf("%-32s %10s %10s %10s %9s %10s %10s %10s %8sns %8sns%n", f.getParent().getFileName(),
+                    churn.get("openedPerSec"), churn.get("completedPerSec"), server.get("acceptsPerSec"),
+                    server.get("acceptsPerBatch"), fmt(churn.get("firstPongP50Ms")), fmt(churn.get("firstPongP99Ms")),
+                    fmt(churn.get("firstPongP999Ms")), server.get("registryAddP99Ns"), server.get("registryRemoveP99Ns"));
+        }
+    }
+
+    private static Map<String, String> readKeyValues(Path f) throws IOException {
+        Map<String, String> kv = new HashMap<>();
+        if (!Files.isRegularFile(f)) return kv;
+        for (String line : Files.readAllLines(f)) {
+            String[] p = line.split(",", 2);
+            if (p.length == 2) kv.put(p[0], p[1]);
+        }
+        return kv;
+    }
+
+    private static String fmt(String ms) {
+        if (ms == null) return "-";
+        try {
+            return String.format(Locale.ROOT, "%.3f", Double.parseDouble(ms));
+        } catch (NumberFormatException e) {
+            return ms;
+        }
+    }
+
+    private static void writeReportCsv(File out, List<ScenarioStats> sorted) throws IOException {
+        try (PrintWriter pw = new PrintWriter(new FileWriter(out))) {
+            pw.println("scenario,transport,clientFiles,durationSec,messagesSent,messagesReceived,bytesReceived,emulatorDrops,"
+                    + "throughputMsgPerSec,rttSamples,rttP50Ms,rttP95Ms,rttP99Ms,rttMaxMs,deliverySamples,deliveryP50Ms,deliveryP99Ms,"
+                    + "chatGenerated,seqUnique,seqLost,deliveryRatio,lanes,pongDelayP50Us,pongDelayP99Us,loop,cpuMs,cpuUsPerMessage,"
+                    + "handshakeP50Us,handshakeP99Us,handshakesPerCpuSec,tlsCryptoNsPerRecord");
+            for (ScenarioStats s : sorted) {
+                pw.println(String.join(",", s.scenario, s.transport, String.valueOf(s.clientFiles), String.valueOf(s.durationSec),
+                        String.valueOf(s.messagesSent), String.valueOf(s.messagesReceived), String.valueOf(s.bytesReceived),
+                        String.valueOf(s.emulatorDrops), String.valueOf(s.throughput()), String.valueOf(s.rtt.count()),
+                        String.valueOf(s.rttMs(50)), String.valueOf(s.rttMs(95)), String.valueOf(s.rttMs(99)),
+                        String.valueOf(s.rtt.max() / 1e6), String.valueOf(s.delivery.count()),
+                        String.valueOf(s.deliveryMs(50)), String.valueOf(s.deliveryMs(99)),
+                        String.valueOf(s.chatGenerated), String.valueOf(s.seqUnique), String.valueOf(s.seqLost),
+                        String.valueOf(s.deliveryRatio()), s.lanes, String.valueOf(s.pongDelayP50Us),
+                        String.valueOf(s.pongDelayP99Us), s.loop, String.valueOf(s.cpuMs),
+                        String.valueOf(s.cpuUsPerMessage()), String.valueOf(s.handshakeP50Us),
+                        String.valueOf(s.handshakeP99Us), String.valueOf(s.handshakesPerCpuSec),
+                        String.valueOf(s.tlsCryptoNsPerRecord)));
+            }
+        }
+        System.out.println("Wrote report: " + out.getAbsolutePath());
+    }
+
+    private static void writeBaselineCsv(File out, List<ScenarioStats> sorted) throws IOException {
+        try (PrintWriter pw = new PrintWriter(new FileWriter(out))) {
+            pw.println("scenario,throughputMsgPerSec,rttP99Ms");
+            for (ScenarioStats s : sorted) pw.println(s.scenario + "," + s.throughput() + "," + s.rttMs(99));
+        }
+        System.out.println("Wrote baseline: " + out.getAbsolutePath());
+    }
+
+    /**
+     * Returns the number of regressions: each metric past its tolerance or not produced by this run, and each
+     * baseline scenario missing from the results. Scenarios not in the baseline are reported but not counted.
+     */
+    static int compareToBaseline(File baseline, List<ScenarioStats> sorted, double rttTol, double tputTol) throws IOException {
+        Map<String, double[]> base = new HashMap<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(baseline))) {
+            br.readLine(); // header
+            for (String line; (line = br.readLine()) != null; ) {
+                String[] p = line.split(",");
+                if (p.length >= 3) base.put(p[0], new double[]{Double.parseDouble(p[1]), Double.parseDouble(p[2])});
+            }
+        }
+        int regressions = 0;
+        System.out.println();
+        System.out.printf("Baseline comparison (rtt tolerance %.1f%%, throughput tolerance %.1f%%)%n", rttTol * 100, tputTol * 100);
+        Set<String> seen = new HashSet<>();
+        for (ScenarioStats s : sorted) {
+            seen.add(s.scenario);
+            double[] b = base.get(s.scenario);
+            if (b == null) {
+                System.out.printf("  %-32s not in baseline%n", s.scenario);
+                continue;
+            }
+            double tput = s.throughput(), p99 = s.rttMs(99);
+            // a metric this run cannot produce (no durationSec in old summaries, no RTT samples) fails too
+            boolean tputBad = Double.isNaN(tput) || (!Double.isNaN(b[0]) && tput < b[0] * (1 - tputTol));
+            boolean rttBad = Double.isNaN(p99) || (!Double.isNaN(b[1]) && p99 > b[1] * (1 + rttTol));
+            System.out.printf("  %-32s msg/s %.1f -> %.1f%s   rtt p99 %.3f -> %.3f ms%s%n", s.scenario,
+                    b[0], tput, tputBad ? " REGRESSION" : "", b[1], p99, rttBad ? " REGRESSION" : "");
+            if (tputBad) regressions++;
+            if (rttBad) regressions++;
+        }
+        for (String name : new TreeSet<>(base.keySet())) {
+            if (seen.contains(name)) continue;
+            System.out.printf("  %-32s MISSING from results%n", name);
+            regressions++;
+        }
+        return regressions;
+    }
+}
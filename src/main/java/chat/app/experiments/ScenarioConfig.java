@@ -2,6 +2,9 @@ package chat.app.experiments;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * POJO representing a scenario config that BatchRunner will read from JSON.
  *
@@ -16,17 +19,120 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
  *   "jitterMs": 10,
  *   "lossProb": 0.02
  * }
+ *
+ * Optional fields:
+ *  - messageLog / logSegmentMb / logFlushMs: server appends broadcasts to a mapped log in results/<name>/log
+ *  - replayFromOffset: clients request a log replay from this offset on connect (-1 = off)
+ *  - workers / workerJvmArgs: run the clients in this many forked JVMs instead of as threads here
+ *  - serverProcess / serverJvmArgs: run the server in its own JVM (e.g. ["-Xmx2g", "-XX:+UseZGC"])
+ *  - resourceSampleMs: GC/allocation/heap/thread-CPU sampling interval, e.g. 250 (resource_*.csv; default 0 = off)
+ *  - jfr / jfrThresholdMs: record a flight recording per JVM into results/<name>/ (-1 = event defaults)
+ *  - udsPath: socket file for transport "uds" (TCP server/client logic over Unix domain sockets),
+ *    default <tmpdir>/chat-<port>.sock
+ *  - memRingSize: ring capacity per direction for transport "mem" (in-process, no sockets;
+ *    server and clients must share the JVM, so no workers/serverProcess)
+ *  - priorityLanes: tcp/uds server answers PINGs ahead of queued broadcasts (default off = arrival order);
+ *    name a pair of runs ..._prio / ..._fifo and the report shows them side by side
+ *  - clientRateLimit / clientBurst / admissionPolicy: per-client token bucket on the server for chat
+ *    messages (msgs/s, 0 = off) and what happens to excess ones: "drop", "delay" or "disconnect"
+ *  - overloadLagMs / overloadQueueKb: server sheds broadcasts (still answers PINGs) while an event-loop
+ *    iteration takes longer than this or this much broadcast data is queued (0 = off)
+ *  - loopStrategy / spinBudgetUs: event-loop wait for servers and socket clients: "block" (select(200)),
+ *    "spin" (selectNow busy-poll) or "spin-park" (busy-poll for spinBudgetUs after each event, then block);
+ *    name runs ..._block / ..._spin / ..._spinpark and the report lists them with their CPU cost
+ *  - udpMaxBatch: UDP datagrams drained per selector wakeup before other keys get a turn
+ *  - msgRate: chat messages per second per client (PINGs stay at 1/s)
+ *  - phases: run these in order instead of one flat phase, e.g.
+ *    [{"name":"ramp","clients":10,"durationSec":10,"ramp":true},
+ *     {"name":"spike","clients":50,"msgRate":10,"durationSec":5},
+ *     {"name":"soak","clients":10,"durationSec":120}];
+ *    clients are started/stopped live (in this JVM, so no workers), clients and durationSec become the
+ *    peak and the total. Writes phases.csv (per phase: throughput, RTT, heap slope, recovery time: seconds
+ *    until the per-second RTT median stays within phaseRecoveryFactor x the first phase's) and
+ *    phase_timeline.csv (per second)
+ *  - churnRate / churnPings / churnMaxOpen / churnTimeoutMs: besides the regular clients (clients may be 0),
+ *    open this many connections per second to the tcp/uds/tls server, each sending churnPings PINGs before
+ *    it closes (at most churnMaxOpen at once; one not done within churnTimeoutMs, default 5000, is closed
+ *    and counted as failed); writes churn.csv with connect-to-first-PONG percentiles
+ *  - tlsKeystore / tlsProtocols / tlsCipherSuites / tlsResumption: transport "tls" (the TCP server and
+ *    client over SSLEngine). The self-signed PKCS12 keystore is generated with keytool if missing
+ *    (default <tmpdir>/chat-tls.p12); empty lists keep the JDK defaults (e.g. ["TLSv1.2"],
+ *    ["TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256"]); resumption off gives every client a fresh session cache
+ *  - simulate / simSeed / simServiceUs / simSendUs: run on a virtual clock instead (chat.app.sim): no
+ *    sockets or threads, finishes as fast as the events can be processed and gives identical results for
+ *    the same simSeed (emulator draws). The server costs simServiceUs per frame plus simSendUs per frame
+ *    written; transport is only a label. Same CSVs, except that delivery latency is only summarized in
+ *    combined_summary.csv and there is no fan-out or CPU load, plus sim.csv (virtual vs wall time); no
+ *    workers, serverProcess, phases or churn
+ *  - traceCapture: write every client chat/PING as it is generated to this binary trace file
+ *    (16-byte records: time, clientId, type, size; see chat.app.trace)
+ *  - traceReplay / traceSpeedup: clients send only what this trace says, at its timing divided by
+ *    traceSpeedup and padded to the recorded sizes, instead of msgRate + 1 PING/s; trace clientIds map
+ *    onto the clients modulo clients, the trace is streamed through mapped windows and replay stops at
+ *    its end or after durationSec. Writes trace_replay.csv (records replayed, scheduling lag).
+ *    Neither works with workers, phases or simulate
  */
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class ScenarioConfig {
     public String name = "scenario";
-    public String transport = "tcp"; // "tcp" or "udp"
+    public String transport = "tcp"; // "tcp", "udp", "uds", "mem" or "tls"
     public int port = 9000;
     public int clients = 10;
     public int durationSec = 20;
     public int latencyMs = 50;
     public int jitterMs = 10;
     public double lossProb = 0.0;
+    public boolean messageLog = false;
+    public int logSegmentMb = 16;
+    public int logFlushMs = 10;
+    public long replayFromOffset = -1;
+    public int workers = 0;
+    public List<String> workerJvmArgs = new ArrayList<>();
+    public boolean serverProcess = false;
+    public List<String> serverJvmArgs = new ArrayList<>();
+    public int resourceSampleMs = 0;
+    public boolean jfr = false;
+    public int jfrThresholdMs = -1;
+    public int udpMaxBatch = 64;
+    public String udsPath = null;
+    public int memRingSize = 4096;
+    public boolean priorityLanes = false;
+    public double clientRateLimit = 0;
+    public int clientBurst = 10;
+    public String admissionPolicy = "drop";
+    public int overloadLagMs = 0;
+    public int overloadQueueKb = 0;
+    public String loopStrategy = "block";
+    public int spinBudgetUs = 50;
+    public String tlsKeystore = null;
+    public List<String> tlsProtocols = new ArrayList<>();
+    public List<String> tlsCipherSuites = new ArrayList<>();
+    public boolean tlsResumption = true;
+    public double msgRate = 5.0;
+    public List<Phase> phases = new ArrayList<>();
+    public double phaseRecoveryFactor = 1.5;
+    public double churnRate = 0;
+    public int churnPings = 3;
+    public int churnMaxOpen = 1000;
+    public long churnTimeoutMs = 5000;
+    public boolean simulate = false;
+    public long simSeed = 1;
+    public double simServiceUs = 10;
+    public double simSendUs = 1;
+    public String traceCapture = null;
+    public String traceReplay = null;
+    public double traceSpeedup = 1.0;
+
+    /** One step of a phased workload; msgRate <= 0 keeps the previous phase's rate. */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Phase {
+        public String name = "phase";
+        public int clients = 10;
+        public double msgRate = 0;
+        public int durationSec = 10;
+        /** Move the client count linearly from the previous phase's to this one's over the phase (else: at once). */
+        public boolean ramp = false;
+    }
 
     // getters/setters optional (Jackson can use public fields)
 }
@@ -0,0 +1,55 @@
+package chat.app.experiments;
+
+import chat.app.common.ResourceSampler;
+import chat.app.common.ServerMetrics;
+import chat.app.jfr.ChatRecording;
+import chat.app.log.MessageLog;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jdk.jfr.Recording;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Entry point of a server JVM ("server" mode), so the server gets its own heap and GC and is not
+ * disturbed by the load generator. Prints CTL READY once the socket is bound; on STOP it stops the
+ * server, writes server_metrics.csv and answers CTL DONE.
+ */
+public class ServerWorker {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: server <scenario.json>");
+            System.exit(1);
+        }
+        ScenarioConfig cfg = new ObjectMapper().readValue(new File(args[0]), ScenarioConfig.class);
+        File outDir = new File("results", cfg.name);
+        outDir.mkdirs();
+
+        Recording recording = cfg.jfr ? ChatRecording.start(cfg.name + "-server", cfg.jfrThresholdMs) : null;
+        ResourceSampler sampler = BatchRunner.startSampler(cfg);
+        ServerMetrics serverMetrics = new ServerMetrics();
+        MessageLog messageLog = cfg.messageLog ? BatchRunner.openMessageLog(new File(outDir, "log"), cfg) : null;
+        Thread serverThread = new Thread(Transports.newServer(cfg, serverMetrics, messageLog), Transports.serverThreadName(cfg));
+        serverThread.start();
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        ClientWorker.reply("READY");
+        for (String line; (line = in.readLine()) != null; ) {
+            if (!line.trim().equals("STOP")) continue;
+            serverThread.interrupt();
+            serverThread.join(2000);
+            if (messageLog != null) messageLog.close();
+            BatchRunner.writeServerCsv(outDir, cfg, serverMetrics);
+            if (sampler != null) {
+                BatchRunner.writeResourceCsv(sampler, new File(outDir, "resource_server.csv"), cfg, "server",
+                        serverMetrics.getMessagesReceived());
+            }
+            if (recording != null) ChatRecording.stop(recording, new File(outDir, cfg.name + "_server.jfr"));
+            ClientWorker.reply("DONE");
+            break;
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,172 @@
+package chat.app.experiments;
+
+import chat.app.common.AdmissionPolicy;
+import chat.app.common.ChatRate;
+import chat.app.common.LoopStrategy;
+import chat.app.common.Metrics;
+import chat.app.common.NetworkEmulator;
+import chat.app.common.OverloadDetector;
+import chat.app.common.ServerMetrics;
+import chat.app.log.MessageLog;
+import chat.app.mem.MemClient;
+import chat.app.mem.MemServer;
+import chat.app.tcp.TcpClientNio;
+import chat.app.tcp.TcpServerNio;
+import chat.app.tls.TlsContext;
+import chat.app.trace.TraceWriter;
+import chat.app.udp.UdpClientNio;
+import chat.app.udp.UdpServerNio;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.security.GeneralSecurityException;
+
+/**
+ * Builds servers and clients for a scenario's transport, so the in-process runner and the
+ * forked worker JVMs construct them the same way.
+ */
+final class Transports {
+    private static ScenarioConfig clientTlsFor;
+    private static TlsContext clientTls;
+
+    private Transports() {}
+
+    static Runnable newServer(ScenarioConfig cfg, ServerMetrics serverMetrics, MessageLog messageLog) throws IOException {
+        if ("tcp".equalsIgnoreCase(cfg.transport) || "uds".equalsIgnoreCase(cfg.transport)) {
+            return tcpServer(cfg, serverMetrics, messageLog, null);
+        }
+        if ("tls".equalsIgnoreCase(cfg.transport)) {
+            TlsContext tls = tls(() -> TlsContext.server(keystore(cfg), cfg.tlsProtocols, cfg.tlsCipherSuites));
+            return tcpServer(cfg, serverMetrics, messageLog, tls);
+        }
+        if ("mem".equalsIgnoreCase(cfg.transport)) {
+            MemServer server = new MemServer(cfg.port, cfg.memRingSize, serverMetrics);
+            server.setMessageLog(messageLog);
+            return server;
+        }
+        UdpServerNio server = new UdpServerNio(cfg.port, serverMetrics);
+        server.setMessageLog(messageLog);
+        server.setMaxBatch(cfg.udpMaxBatch);
+        server.setAdmission(cfg.clientRateLimit, cfg.clientBurst, AdmissionPolicy.parse(cfg.admissionPolicy));
+        server.setOverloadDetector(overloadDetector(cfg));
+        server.setLoopStrategy(LoopStrategy.of(cfg.loopStrategy, cfg.spinBudgetUs));
+        return server;
+    }
+
+    static Runnable newClient(ScenarioConfig cfg, int clientId, NetworkEmulator emulator, Metrics metrics) throws IOException {
+        return newClient(cfg, clientId, emulator, metrics, new ChatRate(cfg.msgRate));
+    }
+
+    static Runnable newClient(ScenarioConfig cfg, int clientId, NetworkEmulator emulator, Metrics metrics,
+                              ChatRate chatRate) throws IOException {
+        return newClient(cfg, clientId, emulator, metrics, chatRate, null);
+    }
+
+    /** Every client built here is a TraceTarget; traceCapture (may be null) records its sends. */
+    static Runnable newClient(ScenarioConfig cfg, int clientId, NetworkEmulator emulator, Metrics metrics,
+                              ChatRate chatRate, TraceWriter traceCapture) throws IOException {
+        if ("tcp".equalsIgnoreCase(cfg.transport) || "uds".equalsIgnoreCase(cfg.transport)) {
+            return tcpClient(cfg, clientId, emulator, metrics, chatRate, traceCapture, null);
+        }
+        if ("tls".equalsIgnoreCase(cfg.transport)) {
+            return tcpClient(cfg, clientId, emulator, metrics, chatRate, traceCapture, clientTls(cfg));
+        }
+        if ("mem".equalsIgnoreCase(cfg.transport)) {
+            MemClient client = new MemClient(clientId, cfg.port, emulator, metrics);
+            client.setChatRate(chatRate);
+            client.setTraceCapture(traceCapture);
+            client.setTraceDriven(cfg.traceReplay != null);
+            client.setReplayFrom(cfg.replayFromOffset);
+            return client;
+        }
+        UdpClientNio client = new UdpClientNio(clientId, "localhost", cfg.port, emulator, metrics);
+        client.setChatRate(chatRate);
+        client.setTraceCapture(traceCapture);
+        client.setTraceDriven(cfg.traceReplay != null);
+        client.setReplayFrom(cfg.replayFromOffset);
+        client.setMaxBatch(cfg.udpMaxBatch);
+        client.setLoopStrategy(LoopStrategy.of(cfg.loopStrategy, cfg.spinBudgetUs));
+        return client;
+    }
+
+    /** The tcp, tls and uds server: uds binds a socket file, tls is null for plain sockets. */
+    private static TcpServerNio tcpServer(ScenarioConfig cfg, ServerMetrics serverMetrics, MessageLog messageLog,
+                                          TlsContext tls) throws IOException {
+        TcpServerNio server = "uds".equalsIgnoreCase(cfg.transport)
+                ? new TcpServerNio(udsAddress(cfg), serverMetrics)
+                : new TcpServerNio(cfg.port, serverMetrics);
+        if (tls != null) server.setTls(tls);
+        server.setMessageLog(messageLog);
+        server.setPriorityLanes(cfg.priorityLanes);
+        server.setAdmission(cfg.clientRateLimit, cfg.clientBurst, AdmissionPolicy.parse(cfg.admissionPolicy));
+        server.setOverloadDetector(overloadDetector(cfg));
+        server.setLoopStrategy(LoopStrategy.of(cfg.loopStrategy, cfg.spinBudgetUs));
+        return server;
+    }
+
+    /** The tcp, tls and uds client: uds connects to a socket file, tls is null for plain sockets. */
+    private static TcpClientNio tcpClient(ScenarioConfig cfg, int clientId, NetworkEmulator emulator, Metrics metrics,
+                                          ChatRate chatRate, TraceWriter traceCapture, TlsContext tls) {
+        TcpClientNio client = "uds".equalsIgnoreCase(cfg.transport)
+                ? new TcpClientNio(clientId, udsAddress(cfg), emulator, metrics)
+                : new TcpClientNio(clientId, "localhost", cfg.port, emulator, metrics);
+        client.setChatRate(chatRate);
+        client.setTraceCapture(traceCapture);
+        client.setTraceDriven(cfg.traceReplay != null);
+        if (tls != null) client.setTls(tls);
+        client.setReplayFrom(cfg.replayFromOffset);
+        client.setLoopStrategy(LoopStrategy.of(cfg.loopStrategy, cfg.spinBudgetUs));
+        return client;
+    }
+
+    /**
+     * Clients of one scenario share a TlsContext (and so its session cache and buffer pools);
+     * with tlsResumption off the context itself creates a fresh SSLContext per connection.
+     */
+    static synchronized TlsContext clientTls(ScenarioConfig cfg) throws IOException {
+        if (clientTlsFor != cfg) {
+            clientTls = tls(() -> TlsContext.client(keystore(cfg), cfg.tlsProtocols, cfg.tlsCipherSuites, cfg.tlsResumption));
+            clientTlsFor = cfg;
+        }
+        return clientTls;
+    }
+
+    private interface TlsFactory {
+        TlsContext create() throws IOException, GeneralSecurityException;
+    }
+
+    private static TlsContext tls(TlsFactory factory) throws IOException {
+        try {
+            return factory.create();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("cannot set up TLS: " + e.getMessage(), e);
+        }
+    }
+
+    static File keystore(ScenarioConfig cfg) {
+        return cfg.tlsKeystore != null ? new File(cfg.tlsKeystore)
+                : new File(System.getProperty("java.io.tmpdir"), "chat-tls.p12");
+    }
+
+    static OverloadDetector overloadDetector(ScenarioConfig cfg) {
+        if (cfg.overloadLagMs <= 0 && cfg.overloadQueueKb <= 0) return null;
+        return new OverloadDetector(cfg.overloadLagMs * 1_000_000L, cfg.overloadQueueKb * 1024L);
+    }
+
+    /** udsPath, or chat-<port>.sock in the temp dir (kept short: socket paths are limited to ~100 bytes). */
+    static SocketAddress udsAddress(ScenarioConfig cfg) {
+        String path = cfg.udsPath != null ? cfg.udsPath
+                : new File(System.getProperty("java.io.tmpdir"), "chat-" + cfg.port + ".sock").getPath();
+        return UnixDomainSocketAddress.of(path);
+    }
+
+    static String serverThreadName(ScenarioConfig cfg) {
+        return cfg.transport.toLowerCase() + "-server";
+    }
+
+    static String clientThreadName(ScenarioConfig cfg, int clientId) {
+        return cfg.transport.toLowerCase() + "-client-" + clientId;
+    }
+}
@@ -0,0 +1,21 @@
+package chat.app.jfr;
+
+import jdk.jfr.*;
+
+/** Fan-out of one chat line to all connected clients. */
+@Name("chat.Broadcast")
+@Label("Broadcast Fan-out")
+@Category({"Chat", "Server"})
+@StackTrace(false)
+@Threshold("1 ms")
+public class BroadcastEvent extends Event {
+    @Label("Transport")
+    public String transport;
+
+    @Label("Recipients")
+    public int recipients;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,47 @@
+package chat.app.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.time.Duration;
+
+/**
+ * Starts a flight recording with the JDK "default" settings plus the chat events, and dumps it
+ * to a file when the run ends. thresholdMs >= 0 overrides the per-event thresholds (0 = record all),
+ * a negative value keeps the thresholds declared on the event classes. chat.EmulatorFire is
+ * only committed for fires at least 1 ms late or long (see EmulatorFireEvent).
+ */
+public final class ChatRecording {
+    private static final String[] EVENTS = {
+            "chat.MessageReceive", "chat.PongReply", "chat.Broadcast",
+            "chat.EmulatorSchedule", "chat.EmulatorFire", "chat.Rtt"
+    };
+
+    private ChatRecording() {}
+
+    public static Recording start(String name, int thresholdMs) throws IOException {
+        Recording recording;
+        try {
+            recording = new Recording(Configuration.getConfiguration("default"));
+        } catch (ParseException e) {
+            throw new IOException("Cannot load JFR 'default' configuration", e);
+        }
+        recording.setName(name);
+        for (String event : EVENTS) {
+            if (thresholdMs >= 0) recording.enable(event).withThreshold(Duration.ofMillis(thresholdMs));
+            else recording.enable(event);
+        }
+        recording.start();
+        return recording;
+    }
+
+    public static void stop(Recording recording, File out) throws IOException {
+        recording.stop();
+        recording.dump(out.toPath());
+        recording.close();
+        System.out.println("Wrote flight recording: " + out.getAbsolutePath());
+    }
+}
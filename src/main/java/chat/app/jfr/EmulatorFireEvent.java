@@ -0,0 +1,20 @@
+package chat.app.jfr;
+
+import jdk.jfr.*;
+
+/**
+ * A delayed send running on the emulator thread; lag is how late it started versus its due time.
+ * No duration threshold: a late fire is usually a quick one, so NetworkEmulator commits it when the
+ * lag or the send itself reaches REPORT_NS instead.
+ */
+@Name("chat.EmulatorFire")
+@Label("Emulator Fire")
+@Category({"Chat", "Emulator"})
+@StackTrace(false)
+public class EmulatorFireEvent extends Event {
+    public static final long REPORT_NS = 1_000_000L;
+
+    @Label("Lag")
+    @Timespan
+    public long lagNs;
+}
@@ -0,0 +1,18 @@
+package chat.app.jfr;
+
+import jdk.jfr.*;
+
+/** NetworkEmulator decision for one send: dropped, or scheduled after delayMs. */
+@Name("chat.EmulatorSchedule")
+@Label("Emulator Schedule")
+@Category({"Chat", "Emulator"})
+@StackTrace(false)
+@Enabled(false)
+public class EmulatorScheduleEvent extends Event {
+    @Label("Delay")
+    @Timespan(Timespan.MILLISECONDS)
+    public long delayMs;
+
+    @Label("Dropped")
+    public boolean dropped;
+}
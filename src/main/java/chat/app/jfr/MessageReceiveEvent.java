@@ -0,0 +1,21 @@
+package chat.app.jfr;
+
+import jdk.jfr.*;
+
+/** Server read + decode + handling of one read/datagram's worth of messages. */
+@Name("chat.MessageReceive")
+@Label("Message Receive")
+@Category({"Chat", "Server"})
+@StackTrace(false)
+@Threshold("1 ms")
+public class MessageReceiveEvent extends Event {
+    @Label("Transport")
+    public String transport;
+
+    @Label("Bytes")
+    @DataAmount
+    public int bytes;
+
+    @Label("Messages")
+    public int messages;
+}
@@ -0,0 +1,18 @@
+package chat.app.jfr;
+
+import jdk.jfr.*;
+
+/** Server answering a PING with a PONG. */
+@Name("chat.PongReply")
+@Label("PONG Reply")
+@Category({"Chat", "Server"})
+@StackTrace(false)
+@Threshold("1 ms")
+public class PongReplyEvent extends Event {
+    @Label("Transport")
+    public String transport;
+
+    @Label("Bytes")
+    @DataAmount
+    public int bytes;
+}
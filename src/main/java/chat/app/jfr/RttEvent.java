@@ -0,0 +1,20 @@
+package chat.app.jfr;
+
+import jdk.jfr.*;
+
+/** A client received the PONG for one of its PINGs. */
+@Name("chat.Rtt")
+@Label("RTT Completion")
+@Category({"Chat", "Client"})
+@StackTrace(false)
+public class RttEvent extends Event {
+    @Label("Client")
+    public int clientId;
+
+    @Label("Transport")
+    public String transport;
+
+    @Label("RTT")
+    @Timespan
+    public long rttNs;
+}
@@ -0,0 +1,239 @@
+package chat.app.log;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Segmented, memory-mapped, append-only log of broadcast chat lines.
+ * - each record is stored as "LOG:<offset>:<line>\n", so replayed bytes are valid wire messages
+ * - every segment has a mapped .idx file holding the end position of each record (int per offset)
+ * - a background flusher forces dirty segments every flushIntervalMs (group commit)
+ * - replay cursors hand out record-aligned slices of the mapped segments (no heap copies)
+ *
+ * append() is meant to be called from a single server loop; cursors may be used from any thread.
+ */
+public class MessageLog implements Closeable {
+    private static final byte[] PREFIX = "LOG:".getBytes(StandardCharsets.US_ASCII);
+    private static final int INDEX_ENTRY_BYTES = 4;
+
+    private final File dir;
+    private final int segmentBytes;
+    private final int indexEntries;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService flusher;
+    private Segment active;
+    private volatile long nextOffset;
+
+    public MessageLog(File dir, int segmentBytes, int flushIntervalMs) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.indexEntries = Math.max(1024, segmentBytes / 32);
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create log dir " + dir);
+        recover();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "log-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        int interval = Math.max(1, flushIntervalMs);
+        flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /** Append one newline-terminated line (the remaining bytes of {@code line}, left untouched). Returns its offset. */
+    public synchronized long append(ByteBuffer line) throws IOException {
+        long offset = nextOffset;
+        int digits = digits(offset);
+        int len = PREFIX.length + digits + 1 + line.remaining();
+        if (len > segmentBytes) throw new IllegalArgumentException("record of " + len + " bytes exceeds segment size");
+        Segment seg = active;
+        if (seg.writePos + len > segmentBytes || seg.count == indexEntries) seg = roll();
+
+        MappedByteBuffer d = seg.data;
+        int p = seg.writePos;
+        d.put(p, PREFIX);
+        p += PREFIX.length;
+        long v = offset;
+        for (int i = p + digits - 1; i >= p; i--) {
+            d.put(i, (byte) ('0' + (v % 10)));
+            v /= 10;
+        }
+        p += digits;
+        d.put(p++, (byte) ':');
+        d.put(p, line, line.position(), line.remaining());
+        p += line.remaining();
+
+        seg.writePos = p;
+        seg.index.putInt(seg.count * INDEX_ENTRY_BYTES, p);
+        seg.count = seg.count + 1; // volatile write publishes the record to readers
+        nextOffset = offset + 1;
+        return offset;
+    }
+
+    public long append(byte[] line) throws IOException {
+        return append(ByteBuffer.wrap(line));
+    }
+
+    /** Offset the next appended record will get (== number of records ever appended). */
+    public long nextOffset() { return nextOffset; }
+
+    /** All records below this offset have been forced to disk. */
+    public long flushedOffset() {
+        long flushed = segments.isEmpty() ? 0 : segments.get(0).baseOffset;
+        for (Segment s : segments) {
+            if (s.flushedCount < s.count) return s.baseOffset + s.flushedCount;
+            flushed = s.baseOffset + s.flushedCount;
+        }
+        return flushed;
+    }
+
+    /** Cursor replaying [fromOffset, nextOffset()) as of now. */
+    public Cursor cursor(long fromOffset) {
+        long first = segments.get(0).baseOffset;
+        return new Cursor(Math.max(first, fromOffset), nextOffset);
+    }
+
+    /** Cursor replaying [fromOffset, min(toOffset, nextOffset())) as of now. */
+    public Cursor cursor(long fromOffset, long toOffset) {
+        long first = segments.get(0).baseOffset;
+        return new Cursor(Math.max(first, fromOffset), Math.min(toOffset, nextOffset));
+    }
+
+    /**
+     * Streams records of the log. Chunks are read-only views of the mapped segments and always
+     * hold whole records; a chunk is handed out again until it has been fully consumed.
+     */
+    public final class Cursor {
+        private final long end;
+        private long offset;
+        private ByteBuffer current;
+
+        private Cursor(long offset, long end) {
+            this.offset = offset;
+            this.end = end;
+        }
+
+        public long offset() { return offset; }
+        public long endOffset() { return end; }
+
+        /** Current unfinished chunk, else the next one of at most maxBytes (but at least one record); null when done. */
+        public ByteBuffer nextChunk(int maxBytes) {
+            if (current != null && current.hasRemaining()) return current;
+            if (offset >= end) return null;
+            Segment s = segmentFor(offset);
+            int first = (int) (offset - s.baseOffset);
+            int lastExclusive = (int) Math.min(s.count, end - s.baseOffset);
+            int start = s.startPos(first);
+
+            // largest record index whose end still fits into maxBytes
+            int lo = first, hi = lastExclusive - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (s.endPos(mid) - start <= maxBytes) lo = mid;
+                else hi = mid - 1;
+            }
+            int stop = s.endPos(lo);
+            current = s.data.slice(start, stop - start).asReadOnlyBuffer();
+            offset = s.baseOffset + lo + 1;
+            return current;
+        }
+    }
+
+    private Segment segmentFor(long offset) {
+        int lo = 0, hi = segments.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (segments.get(mid).baseOffset <= offset) lo = mid;
+            else hi = mid - 1;
+        }
+        return segments.get(lo);
+    }
+
+    private Segment roll() throws IOException {
+        active = new Segment(nextOffset, false);
+        segments.add(active);
+        return active;
+    }
+
+    private void recover() throws IOException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".log"));
+        if (files != null && files.length > 0) {
+            Arrays.sort(files);
+            for (File f : files) {
+                long base = Long.parseLong(f.getName().substring(0, f.getName().length() - 4));
+                segments.add(new Segment(base, true));
+            }
+            active = segments.get(segments.size() - 1);
+            nextOffset = active.baseOffset + active.count;
+        } else {
+            active = new Segment(0, false);
+            segments.add(active);
+        }
+    }
+
+    private void flush() {
+        for (Segment s : segments) {
+            int c = s.count;
+            if (c == s.flushedCount) continue;
+            s.data.force();
+            s.index.force();
+            s.flushedCount = c;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flusher.shutdownNow();
+        try { flusher.awaitTermination(1, TimeUnit.SECONDS); } catch (InterruptedException ignored) { Thread.currentThread().interrupt(); }
+        flush();
+        for (Segment s : segments) s.close();
+    }
+
+    private static int digits(long v) {
+        int n = 1;
+        while (v >= 10) { v /= 10; n++; }
+        return n;
+    }
+
+    private final class Segment {
+        final long baseOffset;
+        final FileChannel dataChannel;
+        final FileChannel indexChannel;
+        final MappedByteBuffer data;
+        final MappedByteBuffer index;
+        volatile int count;
+        volatile int flushedCount;
+        int writePos;
+
+        Segment(long baseOffset, boolean existing) throws IOException {
+            this.baseOffset = baseOffset;
+            String stem = String.format("%020d", baseOffset);
+            this.dataChannel = FileChannel.open(new File(dir, stem + ".log").toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.indexChannel = FileChannel.open(new File(dir, stem + ".idx").toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.data = dataChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            this.index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, (long) indexEntries * INDEX_ENTRY_BYTES);
+            if (existing) {
+                // end positions are strictly positive, so the first zero entry marks the end
+                int n = 0;
+                while (n < indexEntries && index.getInt(n * INDEX_ENTRY_BYTES) > 0) n++;
+                this.count = n;
+                this.flushedCount = n;
+                this.writePos = n == 0 ? 0 : endPos(n - 1);
+            }
+        }
+
+        int endPos(int i) { return index.getInt(i * INDEX_ENTRY_BYTES); }
+        int startPos(int i) { return i == 0 ? 0 : endPos(i - 1); }
+
+        void close() throws IOException {
+            dataChannel.close();
+            indexChannel.close();
+        }
+    }
+}
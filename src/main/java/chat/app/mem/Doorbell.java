@@ -0,0 +1,25 @@
+package chat.app.mem;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Park/unpark wake-up for a single consumer thread, the in-memory stand-in for a selector.
+ * The consumer publishes itself before re-checking its rings and producers ring after publishing a frame,
+ * so a wake-up cannot be missed (both sides go through volatile fields); the timeout is only a safety net.
+ */
+final class Doorbell {
+    private volatile Thread waiter;
+
+    /** Park the calling thread until ring() or timeout, unless hasWork is already true. */
+    void await(BooleanSupplier hasWork, long timeoutNs) {
+        waiter = Thread.currentThread();
+        if (!hasWork.getAsBoolean()) LockSupport.parkNanos(this, timeoutNs);
+        waiter = null;
+    }
+
+    void ring() {
+        Thread t = waiter;
+        if (t != null) LockSupport.unpark(t);
+    }
+}
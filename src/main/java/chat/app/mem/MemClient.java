@@ -0,0 +1,165 @@
+package chat.app.mem;
+
+import chat.app.common.ChatRate;
+import chat.app.common.Clock;
+import chat.app.common.Message;
+import chat.app.common.Metrics;
+import chat.app.common.NetworkEmulator;
+import chat.app.jfr.RttEvent;
+import chat.app.trace.TraceTarget;
+import chat.app.trace.TraceWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.*;
+
+/**
+ * In-process client for MemServer. Same schedule and metrics as the socket clients
+ * (chat every 200 ms, PING every second, sends go through the NetworkEmulator),
+ * but frames travel through the connection's rings.
+ * A frame that does not fit the upstream ring is dropped and not counted as sent.
+ */
+public class MemClient implements Runnable, TraceTarget {
+    private static final long IDLE_PARK_NS = 200_000_000L; // like select(200)
+
+    private final int clientId;
+    private final int port;
+    private final NetworkEmulator emulator;
+    private final Metrics metrics;
+    private final ScheduledExecutorService scheduler;
+    private volatile MemConnection conn;
+    private volatile boolean running = true;
+    private long pingSeq = 0;
+    private long chatSeq = 0;
+    private long replayFrom = -1;
+    private ChatRate chatRate = ChatRate.fixedDefault();
+    private TraceWriter traceCapture;
+    private boolean traceDriven;
+
+    public MemClient(int clientId, int port, NetworkEmulator emulator, Metrics metrics) {
+        this.clientId = clientId;
+        this.port = port;
+        this.emulator = emulator;
+        this.metrics = metrics;
+        this.scheduler = Executors.newScheduledThreadPool(2, r -> new Thread(r, "mem-client-" + clientId + "-sched"));
+    }
+
+    /** Request a replay of the server's message log from this offset after connecting (-1 = none). */
+    public void setReplayFrom(long offset) {
+        this.replayFrom = offset;
+    }
+
+    /** Chat messages per second, possibly shared and changed while running (default 5/s); set before the thread starts. */
+    public void setChatRate(ChatRate chatRate) {
+        this.chatRate = chatRate;
+    }
+
+    /** Record every chat/PING this client generates into a trace; must be called before the client thread starts. */
+    public void setTraceCapture(TraceWriter traceCapture) {
+        this.traceCapture = traceCapture;
+    }
+
+    /** Send only when a TraceReplayer calls sendChat/sendPing, instead of on its own schedule; set before the thread starts. */
+    public void setTraceDriven(boolean traceDriven) {
+        this.traceDriven = traceDriven;
+    }
+
+    @Override
+    public void run() {
+        try {
+            conn = MemServer.connect(port);
+            if (replayFrom >= 0) send(Message.toBytes("REPLAY:" + clientId + ":" + replayFrom), false);
+            if (!traceDriven) {
+                chatRate.start(scheduler, this::sendChat);
+                scheduler.scheduleAtFixedRate(this::sendPing, 1000, 1000, TimeUnit.MILLISECONDS);
+            }
+
+            while (running && !Thread.currentThread().isInterrupted()) {
+                byte[] frame = conn.receive();
+                if (frame != null) {
+                    metrics.addBytesReceived(frame.length);
+                    ByteBuffer buf = ByteBuffer.wrap(frame);
+                    int end = Message.trimEnd(buf, 0, frame.length);
+                    if (end > 0) handleLine(buf, end);
+                } else {
+                    conn.awaitReceive(IDLE_PARK_NS);
+                }
+            }
+        } catch (IOException e) {
+            // e.printStackTrace();
+        } finally {
+            scheduler.shutdownNow();
+            if (conn != null) conn.close();
+        }
+    }
+
+    private void handleLine(ByteBuffer buf, int to) {
+        if (Message.startsWith(buf, 0, to, Message.LOG)) {
+            metrics.incMessagesReplayed();
+            return;
+        }
+        metrics.incMessagesReceived();
+        if (Message.startsWith(buf, 0, to, Message.MSG)) {
+            long sender = Message.parseField(buf, 0, to, 1);
+            long sendTs = Message.parseField(buf, 0, to, 2);
+            if (sender >= 0 && sendTs != Message.MISSING) {
+                metrics.recordDelivery((int) sender, sendTs, Message.parseField(buf, 0, to, 3), Clock.nanoTime());
+            }
+        } else if (Message.startsWith(buf, 0, to, Message.PONG)) {
+            long sendNs = Message.parseField(buf, 0, to, 3);
+            if (sendNs != Message.MISSING) {
+                long rttNs = Clock.nanoTime() - sendNs;
+                metrics.recordRTT(rttNs);
+                RttEvent rttEvent = new RttEvent();
+                if (rttEvent.shouldCommit()) {
+                    rttEvent.clientId = clientId;
+                    rttEvent.transport = "mem";
+                    rttEvent.rttNs = rttNs;
+                    rttEvent.commit();
+                }
+            }
+        }
+    }
+
+    private void send(byte[] frame, boolean countMessage) {
+        MemConnection c = conn;
+        if (c == null || !c.send(frame)) return;
+        metrics.addBytesSent(frame.length);
+        if (countMessage) metrics.incMessagesSent();
+    }
+
+    private void sendChat() {
+        sendChat(0);
+    }
+
+    @Override
+    public void sendChat(int minBytes) {
+        String payload = "MSG:" + clientId + ":" + Clock.nanoTime() + ":" + (chatSeq++);
+        metrics.incChatGenerated();
+        byte[] bytes = Message.toBytes(payload, minBytes);
+        if (traceCapture != null) traceCapture.record(clientId, TraceWriter.CHAT, bytes.length);
+        boolean scheduled = emulator.emulateSend(() -> send(bytes, true));
+        if (!scheduled) metrics.incEmulatorDrop();
+    }
+
+    private void sendPing() {
+        sendPing(0);
+    }
+
+    @Override
+    public void sendPing(int minBytes) {
+        long ts = Clock.nanoTime();
+        String payload = "PING:" + clientId + ":" + (pingSeq++) + ":" + ts;
+        byte[] bytes = Message.toBytes(payload, minBytes);
+        if (traceCapture != null) traceCapture.record(clientId, TraceWriter.PING, bytes.length);
+        boolean scheduled = emulator.emulateSend(() -> send(bytes, true));
+        if (!scheduled) metrics.incEmulatorDrop();
+    }
+
+    public void shutdown() {
+        running = false;
+        scheduler.shutdownNow();
+        MemConnection c = conn;
+        if (c != null) c.clientBell.ring();
+    }
+}
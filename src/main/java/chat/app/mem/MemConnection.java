@@ -0,0 +1,55 @@
+package chat.app.mem;
+
+import chat.app.log.MessageLog;
+
+/**
+ * One in-memory client connection: an upstream ring (client -> server) and a downstream ring
+ * (server -> client). Frames are whole newline-terminated lines; a broadcast frame is shared
+ * by all recipients and must not be modified.
+ */
+public final class MemConnection {
+    final RingBuffer<byte[]> up;
+    final RingBuffer<byte[]> down;
+    final Doorbell serverBell;
+    final Doorbell clientBell = new Doorbell();
+    volatile boolean closed;
+    /** Server loop only: the log replay in progress (null cursor = no log) and who asked for it. */
+    boolean replaying;
+    MessageLog.Cursor replay;
+    long replayClientId;
+
+    MemConnection(int ringSize, Doorbell serverBell) {
+        this.up = new RingBuffer<>(ringSize);
+        this.down = new RingBuffer<>(ringSize);
+        this.serverBell = serverBell;
+    }
+
+    /** Queue a frame for the server; false if the ring is full (the frame is dropped). */
+    public boolean send(byte[] frame) {
+        if (closed || !up.offer(frame)) return false;
+        serverBell.ring();
+        return true;
+    }
+
+    /** Next frame from the server, or null. */
+    public byte[] receive() {
+        return down.poll();
+    }
+
+    /** Block until a frame from the server may be available (or timeoutNs passes). */
+    public void awaitReceive(long timeoutNs) {
+        clientBell.await(() -> !down.isEmpty() || closed, timeoutNs);
+    }
+
+    /** Server side: queue a frame for the client and wake it; false if its ring is full. */
+    boolean deliver(byte[] frame) {
+        if (!down.offer(frame)) return false;
+        clientBell.ring();
+        return true;
+    }
+
+    public void close() {
+        closed = true;
+        serverBell.ring();
+    }
+}
@@ -0,0 +1,199 @@
+package chat.app.mem;
+
+import chat.app.common.LineHandler;
+import chat.app.common.Message;
+import chat.app.common.ServerMetrics;
+import chat.app.jfr.MessageReceiveEvent;
+import chat.app.log.MessageLog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process chat server: clients exchange frames with it through lock-free rings instead of sockets,
+ * so a run measures parsing, routing and metrics without any kernel cost. Same protocol (the shared
+ * LineHandler) and the same ServerMetrics/JFR events as the socket servers: PING is answered with PONG,
+ * REPLAY streams the message log, everything else is broadcast to every connected client.
+ *
+ * A server binds to a "port" in a JVM-wide registry; MemClient connects by that number.
+ * A downstream frame that does not fit a client's ring is dropped and counted as a short write,
+ * except for replayed records: a replay keeps its cursor on the connection, advances by at most
+ * MAX_BATCH records per loop pass as the ring frees up, and sends REPLAY_END once the cursor is done.
+ * Live broadcasts are not held back meanwhile (like UDP).
+ */
+public class MemServer implements Runnable {
+    private static final Map<Integer, MemServer> BOUND = new ConcurrentHashMap<>();
+
+    private static final int MAX_BATCH = 64;
+    private static final long IDLE_PARK_NS = 200_000_000L; // like select(200)
+    /** A client draining its ring does not ring the server, so pending replays are polled this often. */
+    private static final long REPLAY_PARK_NS = 1_000_000L;
+
+    private final int port;
+    private final int ringSize;
+    private final ServerMetrics serverMetrics;
+    private final List<MemConnection> clients = new CopyOnWriteArrayList<>();
+    private final Doorbell bell = new Doorbell();
+    private volatile boolean running = true;
+    private MessageLog messageLog;
+    private LineHandler<MemConnection> handler;
+
+    public MemServer(int port, int ringSize, ServerMetrics serverMetrics) {
+        this.port = port;
+        this.ringSize = ringSize;
+        this.serverMetrics = serverMetrics;
+        if (BOUND.putIfAbsent(port, this) != null) throw new IllegalStateException("mem port in use: " + port);
+    }
+
+    /** Open a connection to the server bound to port. */
+    public static MemConnection connect(int port) throws IOException {
+        MemServer server = BOUND.get(port);
+        if (server == null) throw new IOException("no mem server on port " + port);
+        MemConnection conn = new MemConnection(server.ringSize, server.bell);
+        server.clients.add(conn);
+        return conn;
+    }
+
+    /** Enable the broadcast log; must be called before the server thread starts. */
+    public void setMessageLog(MessageLog messageLog) {
+        this.messageLog = messageLog;
+    }
+
+    @Override
+    public void run() {
+        System.out.println("MEM server bound to port " + port);
+        handler = new LineHandler<>("mem", serverMetrics, messageLog, null, new LineHandler.Sink<>() {
+            @Override
+            public void pong(MemConnection conn, byte[] pong, long readNs) { send(conn, pong); }
+            @Override
+            public void replay(MemConnection conn, long clientId, long offset) { MemServer.this.replay(conn, clientId, offset); }
+            @Override
+            public int broadcast(byte[] line) { return MemServer.this.broadcast(line); }
+        });
+        try {
+            while (running && !Thread.currentThread().isInterrupted()) {
+                int handled = 0;
+                boolean replaying = false;
+                for (MemConnection conn : clients) {
+                    if (conn.closed) {
+                        clients.remove(conn);
+                        continue;
+                    }
+                    handled += drain(conn);
+                    if (conn.replaying) {
+                        handled += advanceReplay(conn);
+                        replaying |= conn.replaying;
+                    }
+                }
+                if (handled == 0) bell.await(this::hasWork, replaying ? REPLAY_PARK_NS : IDLE_PARK_NS);
+            }
+        } finally {
+            BOUND.remove(port, this);
+        }
+    }
+
+    private boolean hasWork() {
+        if (!running) return true;
+        for (MemConnection conn : clients) {
+            if (conn.closed || !conn.up.isEmpty()) return true;
+        }
+        return false;
+    }
+
+    private int drain(MemConnection conn) {
+        int n = 0;
+        byte[] frame;
+        while (n < MAX_BATCH && (frame = conn.up.poll()) != null) {
+            n++;
+            MessageReceiveEvent rxEvent = new MessageReceiveEvent();
+            rxEvent.begin();
+            handleFrame(conn, frame);
+            rxEvent.end();
+            if (rxEvent.shouldCommit()) {
+                rxEvent.transport = "mem";
+                rxEvent.bytes = frame.length;
+                rxEvent.messages = 1;
+                rxEvent.commit();
+            }
+        }
+        return n;
+    }
+
+    private void handleFrame(MemConnection conn, byte[] frame) {
+        if (serverMetrics != null) {
+            serverMetrics.addBytesReceived(frame.length);
+            serverMetrics.incMessagesReceived();
+        }
+        long start = System.nanoTime();
+        ByteBuffer buf = ByteBuffer.wrap(frame);
+        handler.handle(conn, buf, 0, Message.trimEnd(buf, 0, frame.length), start);
+        long procNs = System.nanoTime() - start;
+        if (serverMetrics != null) serverMetrics.recordProcessingNs(procNs);
+    }
+
+    private int broadcast(byte[] line) {
+        int recipients = 0;
+        for (MemConnection client : clients) {
+            if (client.closed) continue;
+            send(client, line);
+            recipients++;
+        }
+        return recipients;
+    }
+
+    private boolean send(MemConnection conn, byte[] frame) {
+        boolean ok = conn.deliver(frame);
+        if (serverMetrics != null) {
+            if (ok) {
+                serverMetrics.addBytesSent(frame.length);
+                serverMetrics.incMessagesSent();
+            } else {
+                serverMetrics.recordShortWrite(frame.length);
+            }
+        }
+        return ok;
+    }
+
+    private void replay(MemConnection conn, long clientId, long from) {
+        conn.replay = messageLog != null ? messageLog.cursor(from) : null;
+        conn.replayClientId = clientId;
+        conn.replaying = true;
+        advanceReplay(conn);
+    }
+
+    /** Deliver up to MAX_BATCH replayed records, then REPLAY_END once the cursor is done; returns frames delivered. */
+    private int advanceReplay(MemConnection conn) {
+        int n = 0;
+        if (conn.replay != null) {
+            ByteBuffer record;
+            // maxBytes 0 -> exactly one record per chunk, i.e. per frame
+            while (n < MAX_BATCH && (record = conn.replay.nextChunk(0)) != null) {
+                byte[] frame = new byte[record.remaining()];
+                record.get(record.position(), frame);
+                if (!conn.deliver(frame)) return n; // ring full; the cursor hands this record out again
+                record.position(record.limit());
+                n++;
+                if (serverMetrics != null) {
+                    serverMetrics.addBytesSent(frame.length);
+                    serverMetrics.incMessagesSent();
+                }
+            }
+            if (conn.replay.nextChunk(0) != null) return n;
+        }
+        long next = conn.replay != null ? conn.replay.endOffset() : 0;
+        byte[] end = Message.toBytes("REPLAY_END:" + conn.replayClientId + ":" + next);
+        if (!send(conn, end)) return n; // counted as a short write; tried again next pass
+        conn.replay = null;
+        conn.replaying = false;
+        return n + 1;
+    }
+
+    public void shutdown() {
+        running = false;
+        bell.ring();
+    }
+}
@@ -0,0 +1,76 @@
+package chat.app.mem;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free multi-producer/multi-consumer queue (Vyukov's array queue).
+ * Every slot carries a sequence number: a producer may fill slot i when its sequence equals the
+ * claimed position, a consumer may empty it when it equals position + 1. Positions are claimed with CAS.
+ * offer/poll never block; they return false/null when the ring is full/empty.
+ */
+public final class RingBuffer<E> {
+    private final int mask;
+    private final Object[] slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong enqueuePos = new AtomicLong();
+    private final AtomicLong dequeuePos = new AtomicLong();
+
+    /** capacity is rounded up to a power of two. */
+    public RingBuffer(int capacity) {
+        int size = Math.max(2, Integer.highestOneBit(capacity - 1) << 1);
+        this.mask = size - 1;
+        this.slots = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+    }
+
+    public boolean offer(E e) {
+        long pos = enqueuePos.get();
+        while (true) {
+            int idx = (int) pos & mask;
+            long dif = sequences.getAcquire(idx) - pos;
+            if (dif == 0) {
+                if (enqueuePos.compareAndSet(pos, pos + 1)) {
+                    slots[idx] = e;
+                    sequences.setRelease(idx, pos + 1);
+                    return true;
+                }
+                pos = enqueuePos.get();
+            } else if (dif < 0) {
+                return false; // full
+            } else {
+                pos = enqueuePos.get();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long pos = dequeuePos.get();
+        while (true) {
+            int idx = (int) pos & mask;
+            long dif = sequences.getAcquire(idx) - (pos + 1);
+            if (dif == 0) {
+                if (dequeuePos.compareAndSet(pos, pos + 1)) {
+                    E e = (E) slots[idx];
+                    slots[idx] = null;
+                    sequences.setRelease(idx, pos + mask + 1);
+                    return e;
+                }
+                pos = dequeuePos.get();
+            } else if (dif < 0) {
+                return null; // empty
+            } else {
+                pos = dequeuePos.get();
+            }
+        }
+    }
+
+    /** True if no frame has been claimed for enqueue beyond what was dequeued (volatile reads). */
+    public boolean isEmpty() {
+        return enqueuePos.get() == dequeuePos.get();
+    }
+
+    public int capacity() { return mask + 1; }
+}
@@ -0,0 +1,49 @@
+package chat.app.sim;
+
+import java.util.PriorityQueue;
+
+/**
+ * Virtual clock plus the pending events of a simulation, run on one thread. Events fire in time
+ * order; events due at the same nanosecond fire in the order they were scheduled, so a run is
+ * fully determined by its inputs.
+ */
+public final class EventQueue {
+    private record Event(long timeNs, long seq, Runnable action) implements Comparable<Event> {
+        @Override
+        public int compareTo(Event o) {
+            int c = Long.compare(timeNs, o.timeNs);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
+
+    private final PriorityQueue<Event> queue = new PriorityQueue<>();
+    private long nowNs;
+    private long nextSeq;
+    private long processed;
+
+    /** Virtual time in ns since the start of the run. */
+    public long nowNs() { return nowNs; }
+
+    /** Events fired so far. */
+    public long processed() { return processed; }
+
+    public void at(long timeNs, Runnable action) {
+        queue.add(new Event(Math.max(timeNs, nowNs), nextSeq++, action));
+    }
+
+    public void after(long delayNs, Runnable action) {
+        at(nowNs + delayNs, action);
+    }
+
+    /** Fire events up to and including endNs; later ones stay queued. */
+    public void runUntil(long endNs) {
+        Event e;
+        while ((e = queue.peek()) != null && e.timeNs <= endNs) {
+            queue.poll();
+            nowNs = e.timeNs;
+            processed++;
+            e.action.run();
+        }
+        nowNs = Math.max(nowNs, endNs);
+    }
+}
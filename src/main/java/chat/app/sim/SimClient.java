@@ -0,0 +1,84 @@
+package chat.app.sim;
+
+import chat.app.common.LatencyHistogram;
+import chat.app.common.Message;
+import chat.app.common.Metrics;
+import chat.app.common.NetworkEmulator;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A chat client on virtual time: the socket clients' schedule (a chat every 1/msgRate s and a
+ * PING every second, the first one interval after connecting) and their protocol lines, sends
+ * delayed or dropped by the NetworkEmulator's draws, and the same Metrics calls with virtual
+ * timestamps. Broadcast deliveries go into the shared deliveries histogram and the per-sender
+ * sequence accounting rather than Metrics' sample list, which would hold clients^2 entries per chat round.
+ */
+class SimClient {
+    private static final long PING_INTERVAL_NS = 1_000_000_000L;
+
+    private final int clientId;
+    private final EventQueue events;
+    private final SimServer server;
+    private final NetworkEmulator emulator;
+    private final Metrics metrics;
+    private final LatencyHistogram deliveries;
+    private final long chatIntervalNs;
+    private long chatSeq;
+    private long pingSeq;
+
+    SimClient(int clientId, EventQueue events, SimServer server, NetworkEmulator emulator, Metrics metrics,
+              LatencyHistogram deliveries, double msgRate) {
+        this.clientId = clientId;
+        this.events = events;
+        this.server = server;
+        this.emulator = emulator;
+        this.metrics = metrics;
+        this.deliveries = deliveries;
+        this.chatIntervalNs = msgRate > 0 ? (long) (1e9 / msgRate) : 0;
+    }
+
+    void connect() {
+        server.connect(this);
+        if (chatIntervalNs > 0) events.after(chatIntervalNs, this::sendChat);
+        events.after(PING_INTERVAL_NS, this::sendPing);
+    }
+
+    private void sendChat() {
+        metrics.incChatGenerated();
+        send(Message.toBytes("MSG:" + clientId + ":" + events.nowNs() + ":" + chatSeq++));
+        events.after(chatIntervalNs, this::sendChat);
+    }
+
+    private void sendPing() {
+        send(Message.toBytes("PING:" + clientId + ":" + pingSeq++ + ":" + events.nowNs()));
+        events.after(PING_INTERVAL_NS, this::sendPing);
+    }
+
+    private void send(byte[] line) {
+        long delayMs = emulator.sampleDelayMs();
+        if (delayMs < 0) {
+            metrics.incEmulatorDrop();
+            return;
+        }
+        events.after(delayMs * 1_000_000L, () -> {
+            metrics.addBytesSent(line.length);
+            metrics.incMessagesSent();
+            server.receive(this, line);
+        });
+    }
+
+    /** The server wrote line to this client at atNs. */
+    void deliver(byte[] line, long atNs) {
+        metrics.addBytesReceived(line.length);
+        metrics.incMessagesReceived();
+        ByteBuffer buf = ByteBuffer.wrap(line);
+        int end = Message.trimEnd(buf, 0, line.length);
+        if (Message.startsWith(buf, 0, end, Message.PONG)) {
+            metrics.recordRTT(atNs - Message.parseField(buf, 0, end, 3));
+        } else if (Message.startsWith(buf, 0, end, Message.MSG)) {
+            metrics.getSequences().record((int) Message.parseField(buf, 0, end, 1), Message.parseField(buf, 0, end, 3));
+            deliveries.record(atNs - Message.parseField(buf, 0, end, 2));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package chat.app.sim;
+
+import chat.app.common.LineHandler;
+import chat.app.common.Message;
+import chat.app.common.ServerMetrics;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The chat server on virtual time: lines go through the servers' own LineHandler, only the I/O is
+ * simulated. A single loop thread is modelled as a FIFO queue: handling a line costs serviceNs plus
+ * sendNs per line written, and lines arriving while it is busy wait. Records the same ServerMetrics
+ * as the socket servers (processing time runs from the loop picking the line up to its last write;
+ * PONG delay from the PING's arrival to the PONG written). There is no message log, so a REPLAY is
+ * answered with an empty one.
+ */
+class SimServer {
+    private final EventQueue events;
+    private final ServerMetrics serverMetrics;
+    private final long serviceNs;
+    private final long sendNs;
+    private final List<SimClient> clients = new ArrayList<>();
+    private final LineHandler<SimClient> handler;
+    private long busyUntilNs;
+    /** Virtual time of the last write of the line being handled. */
+    private long writeNs;
+
+    SimServer(EventQueue events, ServerMetrics serverMetrics, long serviceNs, long sendNs) {
+        this.events = events;
+        this.serverMetrics = serverMetrics;
+        this.serviceNs = serviceNs;
+        this.sendNs = sendNs;
+        this.handler = new LineHandler<>("sim", serverMetrics, null, null, new LineHandler.Sink<>() {
+            @Override
+            public void pong(SimClient conn, byte[] pong, long readNs) {
+                send(conn, pong);
+                if (serverMetrics != null) serverMetrics.recordPongDelayNs(writeNs - readNs);
+            }
+
+            @Override
+            public void replay(SimClient conn, long clientId, long offset) {
+                send(conn, Message.toBytes("REPLAY_END:" + clientId + ":0"));
+            }
+
+            @Override
+            public int broadcast(byte[] line) {
+                for (SimClient client : clients) send(client, line);
+                return clients.size();
+            }
+        });
+    }
+
+    void connect(SimClient client) {
+        clients.add(client);
+    }
+
+    /** A line ('\n' included) arrives now; recipients see what it causes once it is written to them. */
+    void receive(SimClient from, byte[] line) {
+        long now = events.nowNs();
+        long startNs = Math.max(now, busyUntilNs);
+        writeNs = startNs + serviceNs;
+        if (serverMetrics != null) {
+            serverMetrics.addBytesReceived(line.length);
+            serverMetrics.incMessagesReceived();
+        }
+        ByteBuffer buf = ByteBuffer.wrap(line);
+        handler.handle(from, buf, 0, Message.trimEnd(buf, 0, line.length), now);
+        busyUntilNs = writeNs;
+        if (serverMetrics != null) serverMetrics.recordProcessingNs(writeNs - startNs);
+    }
+
+    private void send(SimClient client, byte[] line) {
+        writeNs += sendNs;
+        // nothing downstream feeds back into the schedule, so the client records it right away
+        client.deliver(line, writeNs);
+        if (serverMetrics != null) {
+            serverMetrics.addBytesSent(line.length);
+            serverMetrics.incMessagesSent();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package chat.app.sim;
+
+import chat.app.common.LatencyHistogram;
+import chat.app.common.Metrics;
+import chat.app.common.NetworkEmulator;
+import chat.app.common.ServerMetrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Discrete-event run of a chat scenario: one server and its clients on a virtual clock, no sockets
+ * and no threads, so it takes as long as the events take to process rather than durationSec, and
+ * with a seeded NetworkEmulator the same inputs give the same results. Clients connect 30 ms apart
+ * like BatchRunner starts them. The transport is not modelled beyond the server's service times.
+ * Broadcast delivery latency is kept in one histogram for all clients (see getDeliveries), so memory
+ * does not grow with clients^2 x messages.
+ */
+public class Simulation {
+    private static final long CLIENT_START_GAP_NS = 30_000_000L;
+
+    private final EventQueue events = new EventQueue();
+    private final SimServer server;
+    private final NetworkEmulator emulator;
+    private final int clients;
+    private final double msgRate;
+    private final LatencyHistogram deliveries = new LatencyHistogram();
+    private long virtualNs;
+    private long wallNs;
+
+    public Simulation(int clients, double msgRate, NetworkEmulator emulator, ServerMetrics serverMetrics,
+                      long serviceNs, long sendNs) {
+        this.clients = clients;
+        this.msgRate = msgRate;
+        this.emulator = emulator;
+        this.server = new SimServer(events, serverMetrics, serviceNs, sendNs);
+    }
+
+    /**
+     * Run for durationSec of virtual time after the last client has connected (like the real runner); one Metrics
+     * per client, with counters, RTT samples and sequence accounting (delivery latency is in getDeliveries).
+     */
+    public List<Metrics> run(int durationSec) {
+        long wallStart = System.nanoTime();
+        List<Metrics> metricsList = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            Metrics m = new Metrics();
+            metricsList.add(m);
+            SimClient client = new SimClient(i, events, server, emulator, m, deliveries, msgRate);
+            events.at(i * CLIENT_START_GAP_NS, client::connect);
+        }
+        virtualNs = clients * CLIENT_START_GAP_NS + durationSec * 1_000_000_000L;
+        events.runUntil(virtualNs);
+        wallNs = System.nanoTime() - wallStart;
+        return metricsList;
+    }
+
+    public void writeCsv(File out, String headerInfo) throws IOException {
+        try (PrintWriter pw = new PrintWriter(new FileWriter(out))) {
+            pw.println("info," + headerInfo);
+            pw.printf("virtualSec,%.3f%n", virtualNs / 1e9);
+            pw.printf("wallMs,%.1f%n", wallNs / 1e6);
+            pw.printf("speedup,%.1f%n", wallNs == 0 ? 0.0 : (double) virtualNs / wallNs);
+            pw.println("events," + events.processed());
+            pw.printf("eventsPerWallSec,%.0f%n", wallNs == 0 ? 0.0 : events.processed() * 1e9 / wallNs);
+        }
+    }
+
+    /** One-way broadcast delivery latency (virtual ns) of every client. */
+    public LatencyHistogram getDeliveries() { return deliveries; }
+
+    public long getVirtualNs() { return virtualNs; }
+    public long getWallNs() { return wallNs; }
+}
@@ -1,14 +1,25 @@
 package chat.app.tcp;
 
+import chat.app.common.ChatRate;
+import chat.app.common.Clock;
+import chat.app.common.LoopStrategy;
 import chat.app.common.Message;
 import chat.app.common.NetworkEmulator;
 import chat.app.common.Metrics;
+import chat.app.jfr.RttEvent;
+import chat.app.tls.TlsChannel;
+import chat.app.tls.TlsContext;
+import chat.app.trace.TraceTarget;
+import chat.app.trace.TraceWriter;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
 import java.nio.*;
 import java.nio.channels.*;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.Iterator;
 import java.util.concurrent.*;
 
@@ -18,98 +29,274 @@ import java.util.concurrent.*;
  *  - periodically sends chat messages and PINGs (for RTT)
  *  - uses NetworkEmulator to schedule sends (simulate latency/loss)
  *  - records metrics
+ *  - optionally asks the server to replay its message log from a given offset once connected
+ * Given a UnixDomainSocketAddress it connects over a Unix domain stream socket instead (transport "uds").
+ * With a TlsContext set it runs TLS over the TCP connection (transport "tls").
+ * Lines generated before the connection is usable (connected and, with TLS, handshaken) are held and
+ * sent once it is; whatever the socket does not take is queued and written on OP_WRITE, so a line is
+ * never lost to a full socket. A line counts as sent once it has been handed to this queue.
  */
-public class TcpClientNio implements Runnable {
+public class TcpClientNio implements Runnable, TraceTarget {
     private final int clientId;
-    private final String host;
-    private final int port;
+    private final SocketAddress serverAddr;
+    private String transport;
     private final NetworkEmulator emulator;
     private final Metrics metrics;
 
     private SocketChannel channel;
     private Selector selector;
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    private final ScheduledExecutorService scheduler;
     private volatile boolean running = true;
     private long pingSeq = 0;
+    private long chatSeq = 0;
+    private long replayFrom = -1;
+    private ChatRate chatRate = ChatRate.fixedDefault();
+    private TraceWriter traceCapture;
+    private boolean traceDriven;
+    private LoopStrategy loop = LoopStrategy.block();
+    private final ByteBuffer readBuf = ByteBuffer.allocate(64 * 1024);
+    private TlsContext tls;
+    private volatile TlsChannel tlsChannel;
+    /** Lines not yet taken by the connection, oldest first; ready and write interest change under this lock. */
+    private final ArrayDeque<ByteBuffer> pendingOut = new ArrayDeque<>();
+    private boolean ready;
+    private SelectionKey key;
 
     public TcpClientNio(int clientId, String host, int port, NetworkEmulator emulator, Metrics metrics) {
+        this(clientId, new InetSocketAddress(host, port), emulator, metrics);
+    }
+
+    public TcpClientNio(int clientId, SocketAddress serverAddr, NetworkEmulator emulator, Metrics metrics) {
         this.clientId = clientId;
-        this.host = host;
-        this.port = port;
+        this.serverAddr = serverAddr;
+        this.transport = serverAddr instanceof UnixDomainSocketAddress ? "uds" : "tcp";
         this.emulator = emulator;
         this.metrics = metrics;
+        this.scheduler = Executors.newScheduledThreadPool(2, r -> new Thread(r, transport + "-client-" + clientId + "-sched"));
+    }
+
+    /** Request a replay of the server's message log from this offset after connecting (-1 = none). */
+    public void setReplayFrom(long offset) {
+        this.replayFrom = offset;
+    }
+
+    /** Chat messages per second, possibly shared and changed while running (default 5/s); set before the thread starts. */
+    public void setChatRate(ChatRate chatRate) {
+        this.chatRate = chatRate;
+    }
+
+    /** Record every chat/PING this client generates into a trace; must be called before the client thread starts. */
+    public void setTraceCapture(TraceWriter traceCapture) {
+        this.traceCapture = traceCapture;
+    }
+
+    /** Send only when a TraceReplayer calls sendChat/sendPing, instead of on its own schedule; set before the thread starts. */
+    public void setTraceDriven(boolean traceDriven) {
+        this.traceDriven = traceDriven;
+    }
+
+    /** How the event loop waits for readiness (default: blocking select); must be called before the thread starts. */
+    public void setLoopStrategy(LoopStrategy loop) {
+        this.loop = loop;
+    }
+
+    /** Run TLS over the connection (transport "tls"); must be called before the client thread starts. */
+    public void setTls(TlsContext tls) {
+        this.tls = tls;
+        this.transport = "tls";
     }
 
     @Override
     public void run() {
         try {
-            channel = SocketChannel.open();
+            channel = serverAddr instanceof UnixDomainSocketAddress
+                    ? SocketChannel.open(StandardProtocolFamily.UNIX) : SocketChannel.open();
             channel.configureBlocking(false);
             selector = Selector.open();
-            channel.register(selector, SelectionKey.OP_CONNECT | SelectionKey.OP_READ);
-            channel.connect(new InetSocketAddress(host, port));
+            // Unix domain sockets connect immediately; a leftover OP_CONNECT would make select() spin
+            if (channel.connect(serverAddr)) {
+                key = channel.register(selector, SelectionKey.OP_READ);
+                connected();
+            } else {
+                key = channel.register(selector, SelectionKey.OP_CONNECT | SelectionKey.OP_READ);
+            }
 
             // schedule periodic sends
-            scheduler.scheduleAtFixedRate(this::sendChat, 200, 200, TimeUnit.MILLISECONDS); // 5/sec
-            scheduler.scheduleAtFixedRate(this::sendPing, 1000, 1000, TimeUnit.MILLISECONDS); // 1/sec
+            if (!traceDriven) {
+                chatRate.start(scheduler, this::sendChat);
+                scheduler.scheduleAtFixedRate(this::sendPing, 1000, 1000, TimeUnit.MILLISECONDS); // 1/sec
+            }
 
-            while (running && selector.isOpen()) {
-                selector.select(200);
+            while (running && selector.isOpen() && !Thread.currentThread().isInterrupted()) {
+                loop.select(selector, 200);
                 for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
                     SelectionKey key = it.next(); it.remove();
                     if (!key.isValid()) continue;
                     if (key.isConnectable()) finishConnect();
-                    if (key.isReadable()) readFromServer(key);
+                    if (key.isValid() && key.isWritable()) onWritable();
+                    if (key.isValid() && key.isReadable()) readFromServer(key);
                 }
             }
         } catch (IOException e) {
             // e.printStackTrace();
         } finally {
-            try { if (channel != null) channel.close(); } catch (IOException ignored) {}
+            TlsChannel t = tlsChannel;
+            if (t != null) metrics.addTlsCrypto(t.cryptoNs(), t.records());
+            try { if (t != null) t.close(); else if (channel != null) channel.close(); } catch (IOException ignored) {}
             try { if (selector != null) selector.close(); } catch (IOException ignored) {}
             scheduler.shutdownNow();
+            metrics.recordLoop(loop.polls(), loop.emptyPolls(), loop.parks());
         }
     }
 
     private void finishConnect() throws IOException {
         if (channel.finishConnect()) {
-            channel.register(selector, SelectionKey.OP_READ);
-            // connected
+            key = channel.register(selector, SelectionKey.OP_READ);
+            connected();
+        }
+    }
+
+    private void connected() throws IOException {
+        if (tls == null) {
+            ready();
+            return;
+        }
+        InetSocketAddress peer = (InetSocketAddress) serverAddr;
+        tlsChannel = new TlsChannel(channel, tls.newEngine(peer.getHostString(), peer.getPort()), tls);
+        advanceHandshake();
+    }
+
+    private void advanceHandshake() throws IOException {
+        if (tlsChannel.handshake()) {
+            metrics.recordHandshake(tlsChannel.handshakeNs(), tlsChannel.isResumed());
+            ready();
+        } else {
+            key.interestOps(SelectionKey.OP_READ | (tlsChannel.hasPendingOutput() ? SelectionKey.OP_WRITE : 0));
+        }
+    }
+
+    /** The connection can carry lines: ask for the replay ahead of anything held, then send. */
+    private void ready() throws IOException {
+        synchronized (pendingOut) {
+            ready = true;
+            if (replayFrom >= 0) {
+                byte[] bytes = Message.toBytes("REPLAY:" + clientId + ":" + replayFrom);
+                pendingOut.addFirst(ByteBuffer.wrap(bytes));
+                metrics.addBytesSent(bytes.length);
+            }
+            drainPending();
         }
     }
 
+    private void onWritable() throws IOException {
+        if (tlsChannel != null && !tlsChannel.isHandshakeDone()) {
+            advanceHandshake();
+            return;
+        }
+        synchronized (pendingOut) {
+            drainPending();
+        }
+    }
+
+    /** Queue one line and write what the connection takes (nothing before it is ready). */
+    private void writeLine(byte[] bytes) throws IOException {
+        synchronized (pendingOut) {
+            pendingOut.add(ByteBuffer.wrap(bytes));
+            if (ready) drainPending();
+        }
+    }
+
+    /**
+     * Write queued lines until none is left or the socket is full; in that case OP_WRITE is armed and
+     * the loop (woken if a sender's thread got here) continues. Caller holds pendingOut.
+     */
+    private void drainPending() throws IOException {
+        ByteChannel io = tlsChannel != null ? tlsChannel : channel;
+        boolean blocked = tlsChannel != null && !tlsChannel.flush();
+        while (!blocked && !pendingOut.isEmpty()) {
+            ByteBuffer line = pendingOut.peek();
+            io.write(line);
+            if (line.hasRemaining()) blocked = true;
+            else pendingOut.poll();
+        }
+        // TLS may have taken the whole line but still hold some of its ciphertext
+        if (tlsChannel != null && tlsChannel.hasPendingOutput()) blocked = true;
+        key.interestOps(SelectionKey.OP_READ | (blocked ? SelectionKey.OP_WRITE : 0));
+        if (blocked) selector.wakeup();
+    }
+
     private void readFromServer(SelectionKey key) {
         try {
-            ByteBuffer buf = ByteBuffer.allocate(8192);
-            int r = channel.read(buf);
+            if (tlsChannel != null && !tlsChannel.isHandshakeDone()) {
+                advanceHandshake();
+                if (!tlsChannel.isHandshakeDone()) return;
+            }
+            int r = tlsChannel != null ? tlsChannel.read(readBuf) : channel.read(readBuf);
             if (r <= 0) return;
             metrics.addBytesReceived(r);
-            buf.flip();
-            String s = StandardCharsets.UTF_8.decode(buf).toString();
-            for (String line : s.split("\n")) {
-                if (line.trim().isEmpty()) continue;
-                metrics.incMessagesReceived();
-                if (line.startsWith("PONG:")) {
-                    String[] parts = line.split(":");
-                    if (parts.length >= 4) {
-                        // PONG:clientId:seq:sendTsNs
-                        long sendNs = Long.parseLong(parts[3]);
-                        long rttNs = System.nanoTime() - sendNs;
-                        metrics.recordRTT(rttNs);
-                    }
-                }
+            readBuf.flip();
+            // only complete lines are handled; a trailing partial line stays buffered for the next read
+            int lineStart = readBuf.position();
+            for (int i = lineStart; i < readBuf.limit(); i++) {
+                if (readBuf.get(i) != '\n') continue;
+                handleLine(readBuf, lineStart, Message.trimEnd(readBuf, lineStart, i));
+                lineStart = i + 1;
             }
+            readBuf.position(lineStart);
+            readBuf.compact();
+            if (!readBuf.hasRemaining()) readBuf.clear(); // oversized line, drop it
+            // TLS may hold decrypted data the socket will not signal again
+            if (tlsChannel != null && tlsChannel.hasBufferedInput()) readFromServer(key);
         } catch (IOException e) {
             // e.printStackTrace();
         }
     }
 
+    /** Handle the line buf[from, to) (without its '\n'); a line whose fields do not parse is skipped. */
+    private void handleLine(ByteBuffer buf, int from, int to) {
+        if (to <= from) return;
+        if (Message.startsWith(buf, from, to, Message.LOG)) {
+            metrics.incMessagesReplayed();
+            return;
+        }
+        metrics.incMessagesReceived();
+        if (Message.startsWith(buf, from, to, Message.MSG)) {
+            // MSG:senderId:sendTsNs:seq (a missing seq is not sequence-tracked)
+            long sender = Message.parseField(buf, from, to, 1);
+            long sendTs = Message.parseField(buf, from, to, 2);
+            if (sender >= 0 && sendTs != Message.MISSING) {
+                metrics.recordDelivery((int) sender, sendTs, Message.parseField(buf, from, to, 3), Clock.nanoTime());
+            }
+        } else if (Message.startsWith(buf, from, to, Message.PONG)) {
+            // PONG:clientId:seq:sendTsNs
+            long sendNs = Message.parseField(buf, from, to, 3);
+            if (sendNs != Message.MISSING) {
+                long rttNs = Clock.nanoTime() - sendNs;
+                metrics.recordRTT(rttNs);
+                RttEvent rttEvent = new RttEvent();
+                if (rttEvent.shouldCommit()) {
+                    rttEvent.clientId = clientId;
+                    rttEvent.transport = transport;
+                    rttEvent.rttNs = rttNs;
+                    rttEvent.commit();
+                }
+            }
+        }
+    }
+
     private void sendChat() {
-        String payload = "MSG:" + clientId + ":" + System.nanoTime();
-        byte[] bytes = Message.toBytes(payload);
+        sendChat(0);
+    }
+
+    @Override
+    public void sendChat(int minBytes) {
+        String payload = "MSG:" + clientId + ":" + Clock.nanoTime() + ":" + (chatSeq++);
+        metrics.incChatGenerated();
+        byte[] bytes = Message.toBytes(payload, minBytes);
+        if (traceCapture != null) traceCapture.record(clientId, TraceWriter.CHAT, bytes.length);
         boolean scheduled = emulator.emulateSend(() -> {
             try {
-                channel.write(ByteBuffer.wrap(bytes));
+                writeLine(bytes);
                 metrics.addBytesSent(bytes.length);
                 metrics.incMessagesSent();
             } catch (IOException e) {
@@ -120,12 +307,18 @@ public class TcpClientNio implements Runnable {
     }
 
     private void sendPing() {
-        long ts = System.nanoTime();
+        sendPing(0);
+    }
+
+    @Override
+    public void sendPing(int minBytes) {
+        long ts = Clock.nanoTime();
         String payload = "PING:" + clientId + ":" + (pingSeq++) + ":" + ts;
-        byte[] bytes = Message.toBytes(payload);
+        byte[] bytes = Message.toBytes(payload, minBytes);
+        if (traceCapture != null) traceCapture.record(clientId, TraceWriter.PING, bytes.length);
         boolean scheduled = emulator.emulateSend(() -> {
             try {
-                channel.write(ByteBuffer.wrap(bytes));
+                writeLine(bytes);
                 metrics.addBytesSent(bytes.length);
                 metrics.incMessagesSent();
             } catch (IOException e) {
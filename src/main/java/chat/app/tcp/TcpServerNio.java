@@ -1,14 +1,26 @@
 package chat.app.tcp;
 
+import chat.app.common.AdmissionPolicy;
+import chat.app.common.LineHandler;
+import chat.app.common.LoopStrategy;
 import chat.app.common.Message;
+import chat.app.common.OverloadDetector;
 import chat.app.common.ServerMetrics;
+import chat.app.common.TokenBucket;
+import chat.app.jfr.MessageReceiveEvent;
+import chat.app.log.MessageLog;
+import chat.app.tls.TlsChannel;
+import chat.app.tls.TlsContext;
 
 
 import java.io.IOException;
+import java.net.BindException;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
 import java.nio.*;
 import java.nio.channels.*;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
@@ -16,35 +28,135 @@ import java.util.*;
  * responds to PING with PONG, and broadcasts other messages to all connected clients.
  *
  * Now records server-side metrics via ServerMetrics (if provided).
+ * If a MessageLog is set, every broadcast line is appended to it after fan-out and
+ * "REPLAY:<clientId>:<fromOffset>" streams the logged records back, followed by
+ * "REPLAY_END:<clientId>:<nextOffset>". Live broadcasts to a replaying client are held back until then;
+ * the replay ends at the first broadcast already queued for the client, so no record arrives twice.
+ *
+ * Every connection has two outbound lanes: control (PONG) and data (broadcasts). Whatever the socket
+ * does not take is queued and sent on OP_WRITE. With priority lanes on, the PINGs of a read are answered
+ * before its chat lines are broadcast and the control lane is written ahead of queued data (never inside
+ * a partly written line); with them off, everything goes through the data lane in arrival order.
+ * Either way the server records how long each PONG took from read to written.
+ *
+ * Admission: with a rate limit set, each connection's chat lines go through a token bucket; excess lines
+ * are dropped, delayed (the connection is not read until a token is due, so TCP pushes back on the sender)
+ * or the client is disconnected. An OverloadDetector fed with loop-iteration time and queued broadcast bytes
+ * makes the server shed broadcasts while PINGs are still answered.
+ *
+ * Bound to a UnixDomainSocketAddress it serves the same protocol over Unix domain stream sockets
+ * (transport "uds"); a stale socket file (nobody accepting on it) is removed before bind, a live one
+ * fails the bind with "address in use", and the file is removed after close.
+ *
+ * Accepts are drained in batches (one selector event takes every pending connection, up to
+ * MAX_ACCEPTS_PER_EVENT) and open connections live in an array registry with O(1) add and remove,
+ * so reconnect storms cost little; the server records accept batches and registry add/remove time.
+ *
+ * With a TlsContext set (transport "tls") every accepted connection does its I/O through a TlsChannel:
+ * the handshake runs on the loop as data arrives, and nothing is read or written before it completes.
  */
 public class TcpServerNio implements Runnable {
-    private final int port;
+    private final SocketAddress bindAddress;
+    private String transport;
     private final Selector selector;
     private final ServerSocketChannel serverChannel;
-    private final List<SocketChannel> clients = Collections.synchronizedList(new ArrayList<>());
+    /** Open connections, only touched by the loop thread; each knows its slot so removal swaps the last one in. */
+    private Connection[] registry = new Connection[64];
+    private int registered;
     private volatile boolean running = true;
     private final ServerMetrics serverMetrics;
+    private MessageLog messageLog;
+    private boolean priorityLanes = false;
+    private double rateLimit = 0;
+    private int burst = 1;
+    private AdmissionPolicy policy = AdmissionPolicy.DROP;
+    private OverloadDetector overload;
+    private long queuedDataBytes;
+    private final List<Connection> paused = new ArrayList<>();
+    private LoopStrategy loop = LoopStrategy.block();
+    private TlsContext tls;
+    private LineHandler<Connection> handler;
+
+    private static final int REPLAY_CHUNK_BYTES = 64 * 1024;
+    /** Broadcasts queued beyond this for one slow client are dropped (and counted as short writes). */
+    private static final int MAX_QUEUED_DATA_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_ACCEPTS_PER_EVENT = 256;
+    private static final int ACCEPT_BACKLOG = 1024;
 
     public TcpServerNio(int port) throws IOException {
         this(port, null);
     }
 
     public TcpServerNio(int port, ServerMetrics serverMetrics) throws IOException {
-        this.port = port;
+        this(new InetSocketAddress(port), serverMetrics);
+    }
+
+    public TcpServerNio(SocketAddress bindAddress, ServerMetrics serverMetrics) throws IOException {
+        this.bindAddress = bindAddress;
         this.serverMetrics = serverMetrics;
+        if (bindAddress instanceof UnixDomainSocketAddress uds) removeStaleSocketFile(uds);
         this.selector = Selector.open();
-        this.serverChannel = ServerSocketChannel.open();
+        if (bindAddress instanceof UnixDomainSocketAddress) {
+            this.transport = "uds";
+            this.serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            this.transport = "tcp";
+            this.serverChannel = ServerSocketChannel.open();
+        }
         serverChannel.configureBlocking(false);
-        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.bind(bindAddress, ACCEPT_BACKLOG);
         serverChannel.register(selector, SelectionKey.OP_ACCEPT);
     }
 
+    /** Enable the broadcast log; must be called before the server thread starts. */
+    public void setMessageLog(MessageLog messageLog) {
+        this.messageLog = messageLog;
+    }
+
+    /** Answer PINGs ahead of broadcast traffic; must be called before the server thread starts. */
+    public void setPriorityLanes(boolean priorityLanes) {
+        this.priorityLanes = priorityLanes;
+    }
+
+    /** Per-client token bucket for chat lines (ratePerSec <= 0 = off); must be called before the server thread starts. */
+    public void setAdmission(double ratePerSec, int burst, AdmissionPolicy policy) {
+        this.rateLimit = ratePerSec;
+        this.burst = burst;
+        this.policy = policy;
+    }
+
+    /** Shed broadcasts while this detector reports overload; must be called before the server thread starts. */
+    public void setOverloadDetector(OverloadDetector overload) {
+        this.overload = overload;
+    }
+
+    /** How the event loop waits for readiness (default: blocking select); must be called before the thread starts. */
+    public void setLoopStrategy(LoopStrategy loop) {
+        this.loop = loop;
+    }
+
+    /** Serve TLS on the TCP socket (transport "tls"); must be called before the server thread starts. */
+    public void setTls(TlsContext tls) {
+        this.tls = tls;
+        this.transport = "tls";
+    }
+
     @Override
     public void run() {
-        System.out.println("TCP server listening on port " + port);
+        System.out.println(transport.toUpperCase() + " server listening on " + bindAddress);
+        handler = new LineHandler<>(transport, serverMetrics, messageLog, overload, new LineHandler.Sink<>() {
+            @Override
+            public void pong(Connection conn, byte[] pong, long readNs) { queuePong(conn, pong, readNs); }
+            @Override
+            public void replay(Connection conn, long clientId, long offset) { startReplay(conn, clientId, offset); }
+            @Override
+            public int broadcast(byte[] line) { return TcpServerNio.this.broadcast(line); }
+        });
         try {
-            while (running) {
-                selector.select(200);
+            while (running && !Thread.currentThread().isInterrupted()) {
+                loop.select(selector, selectTimeoutMs());
+                long loopStart = System.nanoTime();
+                if (!paused.isEmpty()) resumePaused(loopStart);
                 Iterator<SelectionKey> it = selector.selectedKeys().iterator();
                 while (it.hasNext()) {
                     SelectionKey key = it.next();
@@ -52,92 +164,480 @@ public class TcpServerNio implements Runnable {
                     try {
                         if (!key.isValid()) continue;
                         if (key.isAcceptable()) handleAccept();
-                        else if (key.isReadable()) handleRead(key);
+                        else {
+                            if (key.isReadable()) handleRead(key);
+                            if (key.isValid() && key.isWritable()) flush((Connection) key.attachment());
+                        }
                     } catch (IOException e) {
-                        Channel ch = key.channel();
                         key.cancel();
-                        if (ch instanceof SocketChannel) {
-                            clients.remove(ch);
-                            try { ch.close(); } catch (IOException ignored) {}
-                        }
+                        if (key.attachment() instanceof Connection conn) close(conn);
                     }
                 }
+                if (overload != null) {
+                    long now = System.nanoTime();
+                    overload.update(now - loopStart, queuedDataBytes, now);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
+            for (int i = 0; i < registered; i++) recordTls(registry[i]);
             try { selector.close(); serverChannel.close(); } catch (IOException ignored) {}
+            deleteSocketFile();
+            if (overload != null && serverMetrics != null) {
+                serverMetrics.recordOverload(overload.episodes(), overload.overloadedNs(System.nanoTime()));
+            }
+            if (serverMetrics != null) serverMetrics.recordLoop(loop.polls(), loop.emptyPolls(), loop.parks());
         }
     }
 
-    private void handleAccept() throws IOException {
-        SocketChannel sc = serverChannel.accept();
-        sc.configureBlocking(false);
-        sc.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(8192));
-        clients.add(sc);
-        System.out.println("Accepted TCP client: " + sc.getRemoteAddress());
+    /** Wake up in time for the earliest delayed connection. */
+    private long selectTimeoutMs() {
+        if (paused.isEmpty()) return 200;
+        long now = System.nanoTime(), next = Long.MAX_VALUE;
+        for (Connection c : paused) next = Math.min(next, c.resumeAtNs);
+        return Math.max(1, Math.min(200, (next - now + 999_999) / 1_000_000));
+    }
+
+    private void resumePaused(long nowNs) {
+        List<Connection> due = new ArrayList<>();
+        for (Iterator<Connection> it = paused.iterator(); it.hasNext(); ) {
+            Connection c = it.next();
+            if (c.resumeAtNs <= nowNs) {
+                it.remove();
+                due.add(c);
+            }
+        }
+        for (Connection c : due) {
+            if (!c.channel.isOpen()) continue;
+            c.readPaused = false;
+            setInterest(c, c.inFlight != null);
+            try {
+                processLines(c, nowNs);
+            } catch (IOException e) {
+                close(c);
+            }
+        }
+    }
+
+    /** A socket file nobody accepts on was left behind by a crashed run; one that does is another server's. */
+    private static void removeStaleSocketFile(UnixDomainSocketAddress uds) throws IOException {
+        if (!java.nio.file.Files.exists(uds.getPath())) return;
+        try (SocketChannel probe = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            probe.connect(uds);
+        } catch (IOException stale) {
+            java.nio.file.Files.deleteIfExists(uds.getPath());
+            return;
+        }
+        throw new BindException("address in use: " + uds.getPath());
+    }
+
+    private void deleteSocketFile() {
+        if (bindAddress instanceof UnixDomainSocketAddress uds) {
+            try { java.nio.file.Files.deleteIfExists(uds.getPath()); } catch (IOException ignored) {}
+        }
+    }
+
+    /** Take every pending connection (up to MAX_ACCEPTS_PER_EVENT); a failed accept must not cancel the server key. */
+    private void handleAccept() {
+        int accepted = 0;
+        while (accepted < MAX_ACCEPTS_PER_EVENT) {
+            SocketChannel sc;
+            try {
+                sc = serverChannel.accept();
+            } catch (IOException e) {
+                // e.g. out of file descriptors: leave the rest in the backlog for the next event
+                if (serverMetrics != null) serverMetrics.incAcceptErrors();
+                break;
+            }
+            if (sc == null) break;
+            accepted++;
+            try {
+                sc.configureBlocking(false);
+                Connection conn = new Connection(sc, tls != null ? new TlsChannel(sc, tls.newEngine(null, -1), tls) : null);
+                conn.key = sc.register(selector, SelectionKey.OP_READ, conn);
+                register(conn);
+            } catch (IOException e) {
+                try { sc.close(); } catch (IOException ignored) {}
+            }
+        }
+        if (accepted > 0 && serverMetrics != null) serverMetrics.recordAcceptBatch(accepted, registered);
+    }
+
+    private void register(Connection conn) {
+        long start = System.nanoTime();
+        if (registered == registry.length) registry = Arrays.copyOf(registry, registered * 2);
+        conn.slot = registered;
+        registry[registered++] = conn;
+        if (serverMetrics != null) serverMetrics.recordRegistryAddNs(System.nanoTime() - start);
+    }
+
+    private void unregister(Connection conn) {
+        if (conn.slot < 0) return;
+        long start = System.nanoTime();
+        Connection last = registry[--registered];
+        registry[conn.slot] = last;
+        last.slot = conn.slot;
+        registry[registered] = null;
+        conn.slot = -1;
+        if (serverMetrics != null) serverMetrics.recordRegistryRemoveNs(System.nanoTime() - start);
+    }
+
+    private void close(Connection conn) {
+        unregister(conn);
+        paused.remove(conn);
+        queuedDataBytes -= conn.queuedDataBytes;
+        conn.queuedDataBytes = 0;
+        conn.key.cancel();
+        recordTls(conn);
+        try { conn.io.close(); } catch (IOException ignored) {}
+    }
+
+    /** Move a TLS connection's crypto time into the server metrics (once, when it goes away). */
+    private void recordTls(Connection conn) {
+        if (conn.tls == null || serverMetrics == null || conn.tlsRecorded) return;
+        conn.tlsRecorded = true;
+        serverMetrics.addTlsCrypto(conn.tls.cryptoNs(), conn.tls.records());
+    }
+
+    /**
+     * Drive a TLS connection's handshake; true once application data can flow (always for plain sockets).
+     * While handshaking, OP_WRITE is only armed for pending handshake output.
+     */
+    private boolean tlsReady(Connection conn) throws IOException {
+        if (conn.tls == null || conn.tls.isHandshakeDone()) return true;
+        if (!conn.tls.handshake()) {
+            setInterest(conn, conn.tls.hasPendingOutput());
+            return false;
+        }
+        if (serverMetrics != null) {
+            serverMetrics.recordHandshake(conn.tls.handshakeNs(), conn.tls.handshakeWorkNs(), conn.tls.isResumed());
+        }
+        return true;
     }
 
     private void handleRead(SelectionKey key) throws IOException {
-        SocketChannel sc = (SocketChannel) key.channel();
-        ByteBuffer buf = (ByteBuffer) key.attachment();
-        int read = sc.read(buf);
+        Connection conn = (Connection) key.attachment();
+        if (conn.tls != null && !conn.tls.isHandshakeDone()) {
+            if (!tlsReady(conn)) return;
+            flush(conn); // broadcasts queued while handshaking
+        }
+        ByteBuffer buf = conn.readBuf;
+        int read = conn.io.read(buf);
         if (read == -1) {
-            clients.remove(sc);
-            sc.close();
+            close(conn);
             return;
         }
         if (read == 0) return;
+        long readNs = System.nanoTime();
         if (serverMetrics != null) serverMetrics.addBytesReceived(read);
 
-        buf.flip();
-        byte[] bytes = new byte[buf.limit()];
-        buf.get(bytes);
-        buf.clear();
+        MessageReceiveEvent rxEvent = new MessageReceiveEvent();
+        rxEvent.begin();
+        int lines = processLines(conn, readNs);
+        rxEvent.end();
+        if (rxEvent.shouldCommit()) {
+            rxEvent.transport = transport;
+            rxEvent.bytes = read;
+            rxEvent.messages = lines;
+            rxEvent.commit();
+        }
+        // TLS may hold decrypted data the socket will not signal again
+        if (conn.tls != null && conn.tls.hasBufferedInput() && conn.channel.isOpen() && !conn.readPaused) handleRead(key);
+    }
+
+    /** Handle the complete lines in the connection's read buffer; returns how many were handled. */
+    private int processLines(Connection conn, long readNs) throws IOException {
+        ByteBuffer buf = conn.readBuf;
+        // complete lines are parsed in place; a trailing partial line stays for the next read
+        int limit = buf.position();
+        int lines = 0;
+        for (int from = 0, eol; from < limit && (eol = Message.lineEnd(buf, from, limit)) < limit; from = eol + 1) {
+            int end = Message.trimEnd(buf, from, eol);
+            if (end > from) {
+                conn.lineStarts[lines] = from;
+                conn.lineEnds[lines] = end;
+                lines++;
+            }
+            conn.consumed = eol + 1;
+            if (lines == conn.lineStarts.length) conn.growLines();
+        }
+        if (rateLimit > 0) {
+            lines = admit(conn, buf, lines, readNs);
+            if (lines < 0) {
+                if (serverMetrics != null) serverMetrics.incAdmissionDisconnects();
+                close(conn);
+                return 0;
+            }
+        }
+
         long start = System.nanoTime();
-        String s = new String(bytes, StandardCharsets.UTF_8);
-        String[] lines = s.split("\n");
-        for (String line : lines) {
-            if (line.trim().isEmpty()) continue;
-            if (line.startsWith("PING:")) {
-                // reply only to this socket with PONG (replace PING with PONG)
-                String pong = line.replaceFirst("PING", "PONG") + "\n";
-                byte[] outb = pong.getBytes(StandardCharsets.UTF_8);
-                sc.write(ByteBuffer.wrap(outb));
-                if (serverMetrics != null) {
-                    serverMetrics.addBytesSent(outb.length);
-                    serverMetrics.incMessagesSent();
+        if (priorityLanes) {
+            // control pass: PINGs jump ahead of the chat lines that arrived with them
+            for (int i = 0; i < lines; i++) {
+                if (isControl(buf, conn, i)) handler.handleControl(conn, buf, conn.lineStarts[i], conn.lineEnds[i], readNs);
+            }
+            flush(conn);
+            long dataStart = System.nanoTime();
+            for (int i = 0; i < lines; i++) {
+                if (isData(buf, conn, i)) handler.broadcastLine(buf, conn.lineStarts[i], conn.lineEnds[i]);
+                else if (serverMetrics != null && Message.startsWith(buf, conn.lineStarts[i], conn.lineEnds[i], Message.PING)) {
+                    // what answering in arrival order would have added: the broadcasts queued before this PING
+                    serverMetrics.recordHolAvoidedNs(System.nanoTime() - dataStart);
                 }
-            } else {
-                // broadcast to all clients
-                byte[] out = Message.toBytes(line);
-                broadcast(out);
             }
-            if (serverMetrics != null) serverMetrics.incMessagesReceived();
+        } else {
+            for (int i = 0; i < lines; i++) handler.handle(conn, buf, conn.lineStarts[i], conn.lineEnds[i], readNs);
+        }
+        if (serverMetrics != null) {
+            for (int i = 0; i < lines; i++) serverMetrics.incMessagesReceived();
+        }
+        if (conn.channel.isOpen()) flush(conn);
+
+        if (conn.consumed > 0) {
+            buf.position(conn.consumed).limit(limit);
+            buf.compact();
+            conn.consumed = 0;
+        } else if (!buf.hasRemaining() && !conn.readPaused) {
+            buf.clear(); // a line longer than the buffer: drop it rather than stall the connection
         }
         long procNs = System.nanoTime() - start;
         if (serverMetrics != null) serverMetrics.recordProcessingNs(procNs);
+        return lines;
     }
 
-    private void broadcast(byte[] outBytes) {
-        synchronized (clients) {
-            Iterator<SocketChannel> it = clients.iterator();
-            while (it.hasNext()) {
-                SocketChannel c = it.next();
-                try {
-                    c.write(ByteBuffer.wrap(outBytes));
-                    if (serverMetrics != null) serverMetrics.addBytesSent(outBytes.length);
-                    if (serverMetrics != null) serverMetrics.incMessagesSent();
-                } catch (IOException e) {
-                    it.remove();
-                    try { c.close(); } catch (IOException ignored) {}
+    /**
+     * Run the chat lines through the connection's token bucket. Returns how many lines to handle now
+     * (DELAY stops at the first line without a token and leaves the rest in the buffer), or -1 to disconnect.
+     * Dropped lines are blanked (end == start) so both passes skip them.
+     */
+    private int admit(Connection conn, ByteBuffer buf, int lines, long nowNs) {
+        if (conn.bucket == null) conn.bucket = new TokenBucket(rateLimit, burst, nowNs);
+        for (int i = 0; i < lines; i++) {
+            if (!isData(buf, conn, i) || conn.bucket.tryAcquire(nowNs)) continue;
+            if (serverMetrics != null) serverMetrics.recordThrottled(Message.parseClientId(buf, conn.lineStarts[i], conn.lineEnds[i]));
+            switch (policy) {
+                case DROP -> conn.lineEnds[i] = conn.lineStarts[i];
+                case DELAY -> {
+                    conn.consumed = conn.lineStarts[i];
+                    conn.readPaused = true;
+                    conn.resumeAtNs = nowNs + conn.bucket.nanosUntilToken(nowNs);
+                    paused.add(conn);
+                    setInterest(conn, conn.inFlight != null);
+                    return i;
+                }
+                case DISCONNECT -> {
+                    return -1;
                 }
             }
         }
+        return lines;
+    }
+
+    private static boolean isControl(ByteBuffer buf, Connection conn, int line) {
+        return LineHandler.isControl(buf, conn.lineStarts[line], conn.lineEnds[line]);
+    }
+
+    /** A chat line to broadcast (not control, not blanked by admission). */
+    private static boolean isData(ByteBuffer buf, Connection conn, int line) {
+        return conn.lineEnds[line] > conn.lineStarts[line] && !isControl(buf, conn, line);
+    }
+
+    /** PONGs take the control lane with priority lanes on, else they queue behind the data lane. */
+    private void queuePong(Connection conn, byte[] out, long readNs) {
+        if (priorityLanes) {
+            if (serverMetrics != null) serverMetrics.addPongBypassedFrames(conn.data.size());
+            conn.control.add(new Frame(out, readNs));
+        } else {
+            conn.data.add(new Frame(out, readNs));
+            conn.queuedDataBytes += out.length;
+            queuedDataBytes += out.length;
+        }
+        if (serverMetrics != null) serverMetrics.incMessagesSent();
+    }
+
+    private int broadcast(byte[] outBytes) {
+        int recipients = 0;
+        // the handler appends the line to the log right after this, so it gets the log's next offset
+        long logOffset = messageLog != null ? messageLog.nextOffset() : -1;
+        // downwards: closing c swaps an already visited connection into its slot
+        for (int i = registered - 1; i >= 0; i--) {
+            Connection c = registry[i];
+            if (c.queuedDataBytes + outBytes.length > MAX_QUEUED_DATA_BYTES) {
+                if (serverMetrics != null) serverMetrics.recordShortWrite(outBytes.length);
+                continue;
+            }
+            // keep the stream ordered: live lines go out after anything already queued (or replayed)
+            c.data.add(new Frame(ByteBuffer.wrap(outBytes), 0, logOffset));
+            c.queuedDataBytes += outBytes.length;
+            queuedDataBytes += outBytes.length;
+            recipients++;
+            if (serverMetrics != null) serverMetrics.incMessagesSent();
+            try {
+                flush(c);
+            } catch (IOException e) {
+                close(c);
+            }
+        }
+        return recipients;
+    }
+
+    /**
+     * Broadcasts still queued for conn are in the log already: the replay stops at the first of them
+     * at or after from, and the data lane delivers that one and the rest after REPLAY_END.
+     */
+    private void startReplay(Connection conn, long clientId, long from) {
+        if (messageLog != null) {
+            long to = Long.MAX_VALUE;
+            if (conn.inFlight != null && conn.inFlight.logOffset >= from) to = conn.inFlight.logOffset;
+            for (Frame f : conn.data) {
+                if (f.logOffset >= from) {
+                    to = Math.min(to, f.logOffset);
+                    break;
+                }
+            }
+            conn.replay = messageLog.cursor(from, to);
+        } else {
+            conn.replay = null;
+        }
+        conn.replayClientId = clientId;
+        conn.replaying = true;
+    }
+
+    /**
+     * Write as much as the socket takes: a partly written frame first, then (with priority lanes)
+     * the control lane, a pending replay, and the data lane. Falls back to OP_WRITE when the socket is full.
+     */
+    private void flush(Connection conn) throws IOException {
+        if (!tlsReady(conn)) return;
+        if (conn.tls != null && !conn.tls.flush()) {
+            setInterest(conn, true);
+            return;
+        }
+        if (conn.inFlight != null) {
+            if (!write(conn, conn.inFlight)) return;
+            conn.inFlight = null;
+        }
+        if (!drain(conn, conn.control)) return;
+        if (conn.replaying) {
+            if (conn.replay != null) {
+                ByteBuffer chunk;
+                while ((chunk = conn.replay.nextChunk(REPLAY_CHUNK_BYTES)) != null) {
+                    int w = conn.io.write(chunk);
+                    if (serverMetrics != null) serverMetrics.addBytesSent(w);
+                    if (chunk.hasRemaining()) {
+                        // the cursor hands this chunk out again; nothing may be written in between
+                        conn.inFlight = new Frame(chunk, 0);
+                        setInterest(conn, true);
+                        return;
+                    }
+                }
+            }
+            long next = conn.replay != null ? conn.replay.endOffset() : 0;
+            byte[] end = Message.toBytes("REPLAY_END:" + conn.replayClientId + ":" + next);
+            conn.data.addFirst(new Frame(end, 0));
+            conn.queuedDataBytes += end.length;
+            queuedDataBytes += end.length;
+            conn.replay = null;
+            conn.replaying = false;
+        }
+        if (!drain(conn, conn.data)) return;
+        setInterest(conn, conn.tls != null && conn.tls.hasPendingOutput());
+    }
+
+    private void setInterest(Connection conn, boolean write) {
+        conn.key.interestOps((conn.readPaused ? 0 : SelectionKey.OP_READ) | (write ? SelectionKey.OP_WRITE : 0));
+    }
+
+    /** Write queued frames until the lane is empty (true) or the socket is full (false). */
+    private boolean drain(Connection conn, ArrayDeque<Frame> lane) throws IOException {
+        for (Frame f; (f = lane.poll()) != null; ) {
+            if (lane == conn.data) {
+                conn.queuedDataBytes -= f.buf.remaining();
+                queuedDataBytes -= f.buf.remaining();
+            }
+            if (!write(conn, f)) {
+                conn.inFlight = f;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** False (with OP_WRITE armed) if the frame was only partly written. */
+    private boolean write(Connection conn, Frame f) throws IOException {
+        int w = conn.io.write(f.buf);
+        if (serverMetrics != null) serverMetrics.addBytesSent(w);
+        if (f.buf.hasRemaining()) {
+            setInterest(conn, true);
+            return false;
+        }
+        if (f.pongReadNs != 0 && serverMetrics != null) serverMetrics.recordPongDelayNs(System.nanoTime() - f.pongReadNs);
+        return true;
+    }
+
+    /**
+     * One outbound line; pongReadNs is when its PING was read (0 for anything but a PONG), logOffset
+     * the message log offset of a broadcast line (-1 for anything else).
+     */
+    private static final class Frame {
+        final ByteBuffer buf;
+        final long pongReadNs;
+        final long logOffset;
+
+        Frame(byte[] bytes, long pongReadNs) {
+            this(ByteBuffer.wrap(bytes), pongReadNs);
+        }
+
+        Frame(ByteBuffer buf, long pongReadNs) {
+            this(buf, pongReadNs, -1);
+        }
+
+        Frame(ByteBuffer buf, long pongReadNs, long logOffset) {
+            this.buf = buf;
+            this.pongReadNs = pongReadNs;
+            this.logOffset = logOffset;
+        }
+    }
+
+    /** Per-client state: read buffer, outbound lanes and replay progress. */
+    private static final class Connection {
+        final SocketChannel channel;
+        /** Where reads and writes go: the socket itself, or its TlsChannel. */
+        final ByteChannel io;
+        final TlsChannel tls;
+        boolean tlsRecorded;
+        int slot = -1;
+        final ByteBuffer readBuf = ByteBuffer.allocate(8192);
+        final ArrayDeque<Frame> control = new ArrayDeque<>();
+        final ArrayDeque<Frame> data = new ArrayDeque<>();
+        SelectionKey key;
+        Frame inFlight;
+        long queuedDataBytes;
+        MessageLog.Cursor replay;
+        long replayClientId;
+        boolean replaying;
+        int[] lineStarts = new int[64];
+        int[] lineEnds = new int[64];
+        int consumed;
+        TokenBucket bucket;
+        boolean readPaused;
+        long resumeAtNs;
+
+        Connection(SocketChannel channel, TlsChannel tls) {
+            this.channel = channel;
+            this.tls = tls;
+            this.io = tls != null ? tls : channel;
+        }
+
+        void growLines() {
+            lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+            lineEnds = Arrays.copyOf(lineEnds, lineEnds.length * 2);
+        }
     }
 
     public void shutdown() {
         running = false;
         selector.wakeup();
     }
-}
\ No newline at end of file
+}
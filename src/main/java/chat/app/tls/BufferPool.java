@@ -0,0 +1,30 @@
+package chat.app.tls;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Pool of equally sized direct buffers, so TLS connections do not allocate (and leave for the GC)
+ * three ~16 KiB buffers each. Released buffers are cleared and handed out again.
+ */
+public final class BufferPool {
+    private final int bufferSize;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+
+    public BufferPool(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public ByteBuffer acquire() {
+        ByteBuffer b = free.poll();
+        return b != null ? b : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    public void release(ByteBuffer b) {
+        if (b == null || b.capacity() != bufferSize) return;
+        b.clear();
+        free.offer(b);
+    }
+
+    public int bufferSize() { return bufferSize; }
+}
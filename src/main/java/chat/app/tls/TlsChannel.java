@@ -0,0 +1,245 @@
+package chat.app.tls;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Non-blocking TLS over a connected SocketChannel. read/write behave like the plain channel's
+ * (0 = try again after the next selector event) and drive the handshake as needed; nothing
+ * blocks, delegated handshake tasks run inline on the calling thread.
+ *
+ * Buffers: netIn (ciphertext read, write mode), netOut (ciphertext not yet written, read mode) and
+ * appIn (plaintext not yet handed out, write mode) come from the context's pools and go back on close.
+ * Writes are locked because a client writes from its emulator thread while the loop thread reads.
+ *
+ * Timing: handshake latency from construction to completion, the time spent inside the handshake
+ * (its CPU cost, as the loop otherwise only waits on the peer), and wrap/unwrap ns on application data.
+ */
+public final class TlsChannel implements ByteChannel {
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    private final TlsContext context;
+    private final Object writeLock = new Object();
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private ByteBuffer appIn;
+    private final long startNs = System.nanoTime();
+    private volatile long handshakeNs = -1;
+    private long handshakeWorkNs;
+    private boolean resumed;
+    private long cryptoNs;
+    private long records;
+    private boolean closed;
+
+    public TlsChannel(SocketChannel channel, SSLEngine engine, TlsContext context) throws SSLException {
+        this.channel = channel;
+        this.engine = engine;
+        this.context = context;
+        this.netIn = context.netPool().acquire();
+        this.netOut = context.netPool().acquire();
+        this.netOut.limit(0);
+        this.appIn = context.appPool().acquire();
+        engine.beginHandshake();
+    }
+
+    public boolean isHandshakeDone() { return handshakeNs >= 0; }
+    public long handshakeNs() { return handshakeNs; }
+    public long handshakeWorkNs() { return handshakeWorkNs; }
+    public boolean isResumed() { return resumed; }
+    /** Wrap/unwrap ns spent on application data, and the records it produced or consumed. */
+    public synchronized long cryptoNs() { return cryptoNs; }
+    public synchronized long records() { return records; }
+    public String cipherSuite() { return engine.getSession().getCipherSuite(); }
+
+    /** Ciphertext is waiting for the socket to become writable. */
+    public boolean hasPendingOutput() {
+        synchronized (writeLock) { return netOut.hasRemaining(); }
+    }
+
+    /** Decrypted or undecrypted input is buffered, so read() may return data without a new selector event. */
+    public boolean hasBufferedInput() {
+        return appIn.position() > 0 || netIn.position() > 0;
+    }
+
+    /** Write pending ciphertext; true once nothing is left. */
+    public boolean flush() throws IOException {
+        synchronized (writeLock) {
+            while (netOut.hasRemaining()) {
+                if (channel.write(netOut) == 0) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Advance the handshake as far as possible without blocking; true once it has completed.
+     * Returns false while waiting on the peer or on a writable socket (see hasPendingOutput).
+     */
+    public boolean handshake() throws IOException {
+        if (handshakeNs >= 0) return true;
+        long t0 = System.nanoTime();
+        try {
+            while (true) {
+                HandshakeStatus hs = engine.getHandshakeStatus();
+                switch (hs) {
+                    case NEED_TASK -> runTasks();
+                    case NEED_WRAP -> {
+                        synchronized (writeLock) {
+                            if (!flush()) return false;
+                            netOut.clear();
+                            SSLEngineResult r = engine.wrap(ByteBuffer.allocate(0), netOut);
+                            netOut.flip();
+                            if (r.getStatus() == SSLEngineResult.Status.CLOSED) throw new EOFException("TLS closed during handshake");
+                            if (!flush()) return false;
+                        }
+                    }
+                    case NEED_UNWRAP, NEED_UNWRAP_AGAIN -> {
+                        netIn.flip();
+                        SSLEngineResult r = engine.unwrap(netIn, appIn);
+                        netIn.compact();
+                        if (r.getStatus() == SSLEngineResult.Status.CLOSED) throw new EOFException("TLS closed during handshake");
+                        if (r.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) throw new SSLException("application data during handshake overflowed");
+                        if (r.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                            int n = channel.read(netIn);
+                            if (n < 0) throw new EOFException("connection closed during TLS handshake");
+                            if (n == 0) return false;
+                        }
+                    }
+                    default -> {
+                        handshakeNs = System.nanoTime() - startNs;
+                        resumed = context.resumed(engine);
+                        return true;
+                    }
+                }
+            }
+        } finally {
+            handshakeWorkNs += System.nanoTime() - t0;
+        }
+    }
+
+    private void runTasks() {
+        for (Runnable task; (task = engine.getDelegatedTask()) != null; ) task.run();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!handshake()) return 0;
+        boolean eof = false;
+        if (appIn.position() == 0) {
+            int n = channel.read(netIn);
+            if (n < 0) eof = true;
+            unwrapAll();
+        }
+        int delivered = deliver(dst);
+        if (appIn.position() == 0 && netIn.position() > 0) {
+            // room freed up in appIn: decrypt what is left so the next read finds it
+            unwrapAll();
+            delivered += deliver(dst);
+        }
+        if (delivered == 0 && (eof || engine.isInboundDone())) return -1;
+        return delivered;
+    }
+
+    private void unwrapAll() throws IOException {
+        while (netIn.position() > 0) {
+            long t0 = System.nanoTime();
+            netIn.flip();
+            SSLEngineResult r = engine.unwrap(netIn, appIn);
+            netIn.compact();
+            synchronized (this) {
+                cryptoNs += System.nanoTime() - t0;
+                if (r.bytesProduced() > 0) records++;
+            }
+            if (r.getStatus() != SSLEngineResult.Status.OK) break;
+            // post-handshake messages (TLS 1.3 session tickets, key updates)
+            if (r.getHandshakeStatus() == HandshakeStatus.NEED_TASK) runTasks();
+            if (engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) wrapControl();
+            if (r.bytesConsumed() == 0) break;
+        }
+    }
+
+    private void wrapControl() throws IOException {
+        synchronized (writeLock) {
+            if (!flush()) return;
+            netOut.clear();
+            engine.wrap(ByteBuffer.allocate(0), netOut);
+            netOut.flip();
+            flush();
+        }
+    }
+
+    private int deliver(ByteBuffer dst) {
+        if (appIn.position() == 0) return 0;
+        appIn.flip();
+        int n = Math.min(appIn.remaining(), dst.remaining());
+        int limit = appIn.limit();
+        appIn.limit(appIn.position() + n);
+        dst.put(appIn);
+        appIn.limit(limit);
+        appIn.compact();
+        return n;
+    }
+
+    /**
+     * Encrypt and write src. Returns the plaintext bytes taken, which may already be encrypted but
+     * still pending (hasPendingOutput); returns 0 before the handshake is done or while earlier
+     * ciphertext is still pending.
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        synchronized (writeLock) {
+            if (handshakeNs < 0 || closed) return 0;
+            if (!flush()) return 0;
+            int consumed = 0;
+            while (src.hasRemaining()) {
+                long t0 = System.nanoTime();
+                netOut.clear();
+                SSLEngineResult r = engine.wrap(src, netOut);
+                netOut.flip();
+                synchronized (this) {
+                    cryptoNs += System.nanoTime() - t0;
+                    records++;
+                }
+                if (r.getStatus() == SSLEngineResult.Status.CLOSED) throw new SSLException("TLS engine closed");
+                consumed += r.bytesConsumed();
+                if (!flush()) break;
+            }
+            return consumed;
+        }
+    }
+
+    @Override
+    public boolean isOpen() { return channel.isOpen(); }
+
+    /** Send close_notify (best effort), close the socket and return the buffers to the pools. */
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            if (closed) return;
+            closed = true;
+            try {
+                engine.closeOutbound();
+                if (channel.isOpen() && flush()) {
+                    netOut.clear();
+                    engine.wrap(ByteBuffer.allocate(0), netOut);
+                    netOut.flip();
+                    flush();
+                }
+            } catch (IOException ignored) {
+            } finally {
+                channel.close();
+                context.forget(engine);
+                context.netPool().release(netIn);
+                context.netPool().release(netOut);
+                context.appPool().release(appIn);
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package chat.app.tls;
+
+import javax.net.ssl.*;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SSLContext plus engine settings for one side of the "tls" transport, and the buffer pools its
+ * connections share. The keystore is a self-signed RSA key generated with keytool on first use;
+ * both sides load it (the client as its trust store).
+ *
+ * Session resumption: a client context keeps its session cache, so every connection after the first
+ * to the same host:port can resume (TLS 1.2 session IDs, TLS 1.3 tickets). A context with resumption
+ * off gets a fresh SSLContext per engine. Only a full handshake consults the key manager (server) or the
+ * trust manager (client), so the context wraps them to tell resumed handshakes apart, whatever the protocol.
+ */
+public final class TlsContext {
+    public static final String STORE_PASSWORD = "changeit";
+
+    private final boolean client;
+    private final File keystore;
+    private final List<String> protocols;
+    private final List<String> cipherSuites;
+    private final boolean resumption;
+    private final SSLContext shared;
+    private final BufferPool netPool;
+    private final BufferPool appPool;
+    private final Set<SSLEngine> fullHandshakes = ConcurrentHashMap.newKeySet();
+
+    private TlsContext(boolean client, File keystore, List<String> protocols, List<String> cipherSuites,
+                       boolean resumption) throws IOException, GeneralSecurityException {
+        this.client = client;
+        this.keystore = keystore;
+        this.protocols = protocols;
+        this.cipherSuites = cipherSuites;
+        this.resumption = resumption;
+        this.shared = newContext();
+        SSLSession probe = shared.createSSLEngine().getSession();
+        this.netPool = new BufferPool(probe.getPacketBufferSize());
+        this.appPool = new BufferPool(probe.getApplicationBufferSize());
+    }
+
+    public static TlsContext server(File keystore, List<String> protocols, List<String> cipherSuites)
+            throws IOException, GeneralSecurityException {
+        ensureKeystore(keystore);
+        return new TlsContext(false, keystore, protocols, cipherSuites, true);
+    }
+
+    public static TlsContext client(File keystore, List<String> protocols, List<String> cipherSuites, boolean resumption)
+            throws IOException, GeneralSecurityException {
+        ensureKeystore(keystore);
+        return new TlsContext(true, keystore, protocols, cipherSuites, resumption);
+    }
+
+    /** Generate a self-signed key pair for localhost unless the keystore already exists. */
+    public static synchronized void ensureKeystore(File keystore) throws IOException {
+        if (keystore.isFile()) return;
+        File dir = keystore.getAbsoluteFile().getParentFile();
+        if (dir != null) dir.mkdirs();
+        String keytool = new File(System.getProperty("java.home"), "bin/keytool").getPath();
+        Process p = new ProcessBuilder(keytool, "-genkeypair", "-alias", "chat", "-keyalg", "RSA", "-keysize", "2048",
+                "-validity", "3650", "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1",
+                "-storetype", "PKCS12", "-keystore", keystore.getPath(),
+                "-storepass", STORE_PASSWORD, "-keypass", STORE_PASSWORD)
+                .redirectErrorStream(true).start();
+        String out = new String(p.getInputStream().readAllBytes());
+        try {
+            if (p.waitFor() != 0 || !keystore.isFile()) throw new IOException("keytool failed: " + out);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while generating " + keystore, e);
+        }
+    }
+
+    private SSLContext newContext() throws IOException, GeneralSecurityException {
+        KeyStore ks = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(keystore)) {
+            ks.load(in, STORE_PASSWORD.toCharArray());
+        }
+        SSLContext ctx = SSLContext.getInstance("TLS");
+        if (client) {
+            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmf.init(ks);
+            X509ExtendedTrustManager trust = null;
+            for (TrustManager tm : tmf.getTrustManagers()) {
+                if (tm instanceof X509ExtendedTrustManager x) trust = x;
+            }
+            ctx.init(null, new TrustManager[]{new CountingTrustManager(trust)}, null);
+        } else {
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(ks, STORE_PASSWORD.toCharArray());
+            X509ExtendedKeyManager keys = null;
+            for (KeyManager km : kmf.getKeyManagers()) {
+                if (km instanceof X509ExtendedKeyManager x) keys = x;
+            }
+            ctx.init(new KeyManager[]{new CountingKeyManager(keys)}, null, null);
+        }
+        return ctx;
+    }
+
+    /** A configured engine; the client passes the peer so the session cache can find a session to resume. */
+    public SSLEngine newEngine(String peerHost, int peerPort) throws IOException {
+        SSLContext ctx = shared;
+        if (!resumption) {
+            try {
+                ctx = newContext();
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e);
+            }
+        }
+        SSLEngine engine = client ? ctx.createSSLEngine(peerHost, peerPort) : ctx.createSSLEngine();
+        engine.setUseClientMode(client);
+        if (!protocols.isEmpty()) engine.setEnabledProtocols(protocols.toArray(new String[0]));
+        if (!cipherSuites.isEmpty()) engine.setEnabledCipherSuites(cipherSuites.toArray(new String[0]));
+        return engine;
+    }
+
+    /** True if the engine's completed handshake resumed a session (it never needed the certificate). */
+    boolean resumed(SSLEngine engine) {
+        return !fullHandshakes.remove(engine);
+    }
+
+    void forget(SSLEngine engine) {
+        fullHandshakes.remove(engine);
+    }
+
+    /** Server side: choosing the certificate to present marks a full handshake. */
+    private final class CountingKeyManager extends X509ExtendedKeyManager {
+        private final X509ExtendedKeyManager delegate;
+
+        CountingKeyManager(X509ExtendedKeyManager delegate) { this.delegate = delegate; }
+
+        @Override
+        public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+            fullHandshakes.add(engine);
+            return delegate.chooseEngineServerAlias(keyType, issuers, engine);
+        }
+
+        @Override public String[] getClientAliases(String keyType, Principal[] issuers) { return delegate.getClientAliases(keyType, issuers); }
+        @Override public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) { return delegate.chooseClientAlias(keyType, issuers, socket); }
+        @Override public String[] getServerAliases(String keyType, Principal[] issuers) { return delegate.getServerAliases(keyType, issuers); }
+        @Override public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) { return delegate.chooseServerAlias(keyType, issuers, socket); }
+        @Override public X509Certificate[] getCertificateChain(String alias) { return delegate.getCertificateChain(alias); }
+        @Override public PrivateKey getPrivateKey(String alias) { return delegate.getPrivateKey(alias); }
+    }
+
+    /** Client side: verifying the server's certificate marks a full handshake. */
+    private final class CountingTrustManager extends X509ExtendedTrustManager {
+        private final X509ExtendedTrustManager delegate;
+
+        CountingTrustManager(X509ExtendedTrustManager delegate) { this.delegate = delegate; }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException {
+            fullHandshakes.add(engine);
+            delegate.checkServerTrusted(chain, authType, engine);
+        }
+
+        @Override public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException { delegate.checkClientTrusted(chain, authType, socket); }
+        @Override public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket) throws CertificateException { delegate.checkServerTrusted(chain, authType, socket); }
+        @Override public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine) throws CertificateException { delegate.checkClientTrusted(chain, authType, engine); }
+        @Override public void checkClientTrusted(X509Certificate[] chain, String authType) throws CertificateException { delegate.checkClientTrusted(chain, authType); }
+        @Override public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException { delegate.checkServerTrusted(chain, authType); }
+        @Override public X509Certificate[] getAcceptedIssuers() { return delegate.getAcceptedIssuers(); }
+    }
+
+    BufferPool netPool() { return netPool; }
+    BufferPool appPool() { return appPool; }
+}
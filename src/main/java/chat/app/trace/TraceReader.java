@@ -0,0 +1,76 @@
+package chat.app.trace;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams the records of a TraceWriter file in order through memory-mapped windows of at most
+ * 64 MB, so a trace of any size is read without loading it onto the heap. next() advances to the
+ * following record and the accessors describe it.
+ */
+public class TraceReader implements Closeable {
+    private static final long WINDOW_BYTES = (64L << 20) / TraceWriter.RECORD_BYTES * TraceWriter.RECORD_BYTES;
+
+    private final FileChannel channel;
+    private final long records;
+    private long next;
+    private MappedByteBuffer window;
+    private long timeNs;
+    private int clientId;
+    private short type;
+    private int bytes;
+
+    public TraceReader(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(TraceWriter.HEADER_BYTES);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) { }
+        header.flip();
+        if (header.remaining() < TraceWriter.HEADER_BYTES || header.getInt() != TraceWriter.MAGIC) {
+            channel.close();
+            throw new IOException("not a chat trace: " + file);
+        }
+        int version = header.getInt();
+        if (version != TraceWriter.VERSION) {
+            channel.close();
+            throw new IOException("unsupported trace version " + version + ": " + file);
+        }
+        long count = header.getLong();
+        long complete = (channel.size() - TraceWriter.HEADER_BYTES) / TraceWriter.RECORD_BYTES;
+        records = count > 0 ? Math.min(count, complete) : complete; // 0: the capture was not closed
+    }
+
+    public long records() { return records; }
+
+    public boolean next() throws IOException {
+        if (next >= records) return false;
+        if (window == null || !window.hasRemaining()) {
+            long len = Math.min(WINDOW_BYTES, (records - next) * TraceWriter.RECORD_BYTES);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, TraceWriter.HEADER_BYTES + next * TraceWriter.RECORD_BYTES, len);
+        }
+        timeNs = window.getLong();
+        clientId = window.getInt();
+        type = window.getShort();
+        bytes = window.getShort() & 0xFFFF;
+        next++;
+        return true;
+    }
+
+    /** ns since the start of the capture. */
+    public long timeNs() { return timeNs; }
+    public int clientId() { return clientId; }
+    /** TraceWriter.CHAT or TraceWriter.PING. */
+    public short type() { return type; }
+    /** Size of the line that was sent, newline included. */
+    public int bytes() { return bytes; }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,75 @@
+package chat.app.trace;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a captured trace: each record makes the target client send a chat or PING of the recorded
+ * size at the recorded time divided by speedup, measured from when run() starts. Record clientIds
+ * are mapped onto the targets modulo their number. Stops at the end of the trace or when interrupted;
+ * lag is how late sends left the replayer compared to their scaled time.
+ */
+public class TraceReplayer implements Runnable {
+    private final File trace;
+    private final List<? extends TraceTarget> targets;
+    private final double speedup;
+    private volatile long records;
+    private volatile long replayed;
+    private volatile long traceNs;
+    private volatile long totalLagNs;
+    private volatile long maxLagNs;
+    private volatile boolean finished;
+
+    public TraceReplayer(File trace, List<? extends TraceTarget> targets, double speedup) {
+        if (targets.isEmpty()) throw new IllegalArgumentException("trace replay needs at least one client");
+        if (speedup <= 0) throw new IllegalArgumentException("trace replay speedup must be > 0: " + speedup);
+        this.trace = trace;
+        this.targets = targets;
+        this.speedup = speedup;
+    }
+
+    @Override
+    public void run() {
+        try (TraceReader reader = new TraceReader(trace)) {
+            records = reader.records();
+            long startNs = System.nanoTime();
+            while (reader.next()) {
+                long dueNs = startNs + (long) (reader.timeNs() / speedup);
+                for (long wait; (wait = dueNs - System.nanoTime()) > 0; ) {
+                    LockSupport.parkNanos(wait);
+                    if (Thread.currentThread().isInterrupted()) return;
+                }
+                TraceTarget target = targets.get(reader.clientId() % targets.size());
+                if (reader.type() == TraceWriter.PING) target.sendPing(reader.bytes());
+                else target.sendChat(reader.bytes());
+                long lagNs = System.nanoTime() - dueNs;
+                totalLagNs += lagNs;
+                if (lagNs > maxLagNs) maxLagNs = lagNs;
+                traceNs = reader.timeNs();
+                replayed++;
+            }
+            finished = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void writeCsv(File out, String headerInfo) throws IOException {
+        long n = replayed;
+        try (PrintWriter pw = new PrintWriter(new FileWriter(out))) {
+            pw.println("info," + headerInfo);
+            pw.println("trace," + trace.getPath());
+            pw.println("speedup," + speedup);
+            pw.println("records," + records);
+            pw.println("replayed," + n);
+            pw.println("finished," + finished);
+            pw.printf("traceSecReplayed,%.3f%n", traceNs / 1e9);
+            pw.printf("meanLagUs,%.1f%n", n == 0 ? 0.0 : totalLagNs / 1_000.0 / n);
+            pw.printf("maxLagUs,%.1f%n", maxLagNs / 1_000.0);
+        }
+    }
+}
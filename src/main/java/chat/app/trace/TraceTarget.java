@@ -0,0 +1,8 @@
+package chat.app.trace;
+
+/** A client a TraceReplayer can drive: send one chat or PING now, padded to at least bytes bytes. */
+public interface TraceTarget {
+    void sendChat(int bytes);
+
+    void sendPing(int bytes);
+}
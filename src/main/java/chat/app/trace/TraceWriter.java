@@ -0,0 +1,85 @@
+package chat.app.trace;
+
+import chat.app.common.Clock;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Captures client sends into a binary trace file: a 16-byte header (magic "CHTR", version, record
+ * count) followed by fixed 16-byte records (ns since capture start, clientId, type, line size).
+ * Clients of all threads append to one writer; records are taken under its lock, so their times never
+ * go backwards. The record count is filled in on close (a reader of an unclosed trace uses the file size).
+ */
+public class TraceWriter implements Closeable {
+    static final int MAGIC = 0x43485452; // "CHTR"
+    static final int VERSION = 1;
+    public static final int HEADER_BYTES = 16;
+    public static final int RECORD_BYTES = 16;
+    public static final short CHAT = 1;
+    public static final short PING = 2;
+
+    private final FileChannel channel;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(RECORD_BYTES * 4096);
+    private final long startNs;
+    private long records;
+    private IOException failure;
+    private boolean closed;
+
+    public TraceWriter(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        writeHeader();
+        channel.position(HEADER_BYTES); // header writes are positional; records follow it
+        startNs = Clock.nanoTime();
+    }
+
+    /**
+     * One send by clientId; bytes above 65535 are recorded as 65535. Sends after close are ignored
+     * and a write error is reported by close().
+     */
+    public synchronized void record(int clientId, short type, int bytes) {
+        if (closed || failure != null) return;
+        buf.putLong(Clock.nanoTime() - startNs).putInt(clientId).putShort(type).putShort((short) Math.min(bytes, 0xFFFF));
+        records++;
+        if (!buf.hasRemaining()) {
+            try {
+                drain();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+
+    public synchronized long records() { return records; }
+
+    private void drain() throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) channel.write(buf);
+        buf.clear();
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).putLong(records).flip();
+        while (header.hasRemaining()) channel.write(header, header.position());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            if (failure == null) {
+                drain();
+                writeHeader();
+            }
+        } finally {
+            channel.close();
+        }
+        if (failure != null) throw failure;
+    }
+}
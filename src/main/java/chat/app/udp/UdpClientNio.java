@@ -1,14 +1,19 @@
 package chat.app.udp;
 
+import chat.app.common.ChatRate;
+import chat.app.common.Clock;
+import chat.app.common.LoopStrategy;
 import chat.app.common.Message;
 import chat.app.common.NetworkEmulator;
 import chat.app.common.Metrics;
+import chat.app.jfr.RttEvent;
+import chat.app.trace.TraceTarget;
+import chat.app.trace.TraceWriter;
 
 import java.io.IOException;
 import java.net.*;
 import java.nio.*;
 import java.nio.channels.*;
-import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.concurrent.*;
 
@@ -16,18 +21,28 @@ import java.util.concurrent.*;
  * UDP non-blocking client:
  *  - sends chat messages and PINGs periodically (scheduled)
  *  - uses NetworkEmulator to schedule sends (simulate latency/loss)
- *  - listens for responses via DatagramChannel.receive
+ *  - listens for responses via DatagramChannel.receive, draining the socket on each wakeup
+ *    into a direct buffer and parsing lines in place
+ *  - optionally asks the server to replay its message log from a given offset at start
  */
-public class UdpClientNio implements Runnable {
+public class UdpClientNio implements Runnable, TraceTarget {
     private final int clientId;
     private final InetSocketAddress serverAddr;
     private final DatagramChannel channel;
     private final Selector selector;
     private final NetworkEmulator emulator;
     private final Metrics metrics;
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    private final ScheduledExecutorService scheduler;
     private volatile boolean running = true;
     private long pingSeq = 0;
+    private long chatSeq = 0;
+    private long replayFrom = -1;
+    private ChatRate chatRate = ChatRate.fixedDefault();
+    private TraceWriter traceCapture;
+    private boolean traceDriven;
+    private int maxBatch = 64;
+    private LoopStrategy loop = LoopStrategy.block();
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(8192);
 
     public UdpClientNio(int clientId, String host, int port, NetworkEmulator emulator, Metrics metrics) throws IOException {
         this.clientId = clientId;
@@ -38,42 +53,60 @@ public class UdpClientNio implements Runnable {
         channel.register(selector, SelectionKey.OP_READ);
         this.emulator = emulator;
         this.metrics = metrics;
+        this.scheduler = Executors.newScheduledThreadPool(2, r -> new Thread(r, "udp-client-" + clientId + "-sched"));
+    }
+
+    /** Request a replay of the server's message log from this offset at start (-1 = none). */
+    public void setReplayFrom(long offset) {
+        this.replayFrom = offset;
+    }
+
+    /** Chat messages per second, possibly shared and changed while running (default 5/s); set before the thread starts. */
+    public void setChatRate(ChatRate chatRate) {
+        this.chatRate = chatRate;
+    }
+
+    /** Record every chat/PING this client generates into a trace; must be called before the client thread starts. */
+    public void setTraceCapture(TraceWriter traceCapture) {
+        this.traceCapture = traceCapture;
+    }
+
+    /** Send only when a TraceReplayer calls sendChat/sendPing, instead of on its own schedule; set before the thread starts. */
+    public void setTraceDriven(boolean traceDriven) {
+        this.traceDriven = traceDriven;
+    }
+
+    /** Fairness cap: datagrams drained per selector wakeup. */
+    public void setMaxBatch(int maxBatch) {
+        this.maxBatch = Math.max(1, maxBatch);
+    }
+
+    /** How the event loop waits for readiness (default: blocking select); must be called before the thread starts. */
+    public void setLoopStrategy(LoopStrategy loop) {
+        this.loop = loop;
     }
 
     @Override
     public void run() {
-        scheduler.scheduleAtFixedRate(this::sendChat, 200, 200, TimeUnit.MILLISECONDS);
-        scheduler.scheduleAtFixedRate(this::sendPing, 1000, 1000, TimeUnit.MILLISECONDS);
+        if (replayFrom >= 0) {
+            try {
+                byte[] bytes = Message.toBytes("REPLAY:" + clientId + ":" + replayFrom);
+                channel.send(ByteBuffer.wrap(bytes), serverAddr);
+                metrics.addBytesSent(bytes.length);
+            } catch (IOException ignored) {}
+        }
+        if (!traceDriven) {
+            chatRate.start(scheduler, this::sendChat);
+            scheduler.scheduleAtFixedRate(this::sendPing, 1000, 1000, TimeUnit.MILLISECONDS);
+        }
 
-        ByteBuffer buf = ByteBuffer.allocate(8192);
         try {
-            while (running) {
-                selector.select(200);
+            while (running && !Thread.currentThread().isInterrupted()) {
+                loop.select(selector, 200);
                 for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
                     SelectionKey key = it.next(); it.remove();
                     if (!key.isValid()) continue;
-                    if (key.isReadable()) {
-                        buf.clear();
-                        SocketAddress sa = channel.receive(buf);
-                        if (sa == null) continue;
-                        buf.flip();
-                        byte[] b = new byte[buf.limit()];
-                        buf.get(b);
-                        metrics.addBytesReceived(b.length);
-                        String s = new String(b, StandardCharsets.UTF_8);
-                        for (String line : s.split("\n")) {
-                            if (line.trim().isEmpty()) continue;
-                            metrics.incMessagesReceived();
-                            if (line.startsWith("PONG:")) {
-                                String[] p = line.split(":");
-                                if (p.length >= 4) {
-                                    long sendNs = Long.parseLong(p[3]);
-                                    long rttNs = System.nanoTime() - sendNs;
-                                    metrics.recordRTT(rttNs);
-                                }
-                            }
-                        }
-                    }
+                    if (key.isReadable()) drain();
                 }
             }
         } catch (IOException e) {
@@ -81,12 +114,71 @@ public class UdpClientNio implements Runnable {
         } finally {
             scheduler.shutdownNow();
             try { selector.close(); channel.close(); } catch (IOException ignored) {}
+            metrics.recordLoop(loop.polls(), loop.emptyPolls(), loop.parks());
+        }
+    }
+
+    /** Receive until the socket is empty (at most maxBatch datagrams) and parse each one in place. */
+    private void drain() throws IOException {
+        long batchStart = System.nanoTime();
+        int n = 0;
+        while (n < maxBatch) {
+            buf.clear();
+            SocketAddress sa = channel.receive(buf);
+            if (sa == null) break;
+            n++;
+            int len = buf.position();
+            metrics.addBytesReceived(len);
+            int from = 0;
+            while (from < len) {
+                int eol = Message.lineEnd(buf, from, len);
+                int end = Message.trimEnd(buf, from, eol);
+                if (end > from) handleLine(from, end);
+                from = eol + 1;
+            }
+        }
+        if (n > 0) metrics.recordReceiveBatch(n, System.nanoTime() - batchStart);
+    }
+
+    /** One line in buf[from, to), without its '\n'. */
+    private void handleLine(int from, int to) {
+        if (Message.startsWith(buf, from, to, Message.LOG)) {
+            metrics.incMessagesReplayed();
+            return;
+        }
+        metrics.incMessagesReceived();
+        if (Message.startsWith(buf, from, to, Message.MSG)) {
+            long sender = Message.parseField(buf, from, to, 1);
+            long sendTs = Message.parseField(buf, from, to, 2);
+            if (sender >= 0 && sendTs != Message.MISSING) {
+                metrics.recordDelivery((int) sender, sendTs, Message.parseField(buf, from, to, 3), Clock.nanoTime());
+            }
+        } else if (Message.startsWith(buf, from, to, Message.PONG)) {
+            long sendNs = Message.parseField(buf, from, to, 3);
+            if (sendNs != Message.MISSING) {
+                long rttNs = Clock.nanoTime() - sendNs;
+                metrics.recordRTT(rttNs);
+                RttEvent rttEvent = new RttEvent();
+                if (rttEvent.shouldCommit()) {
+                    rttEvent.clientId = clientId;
+                    rttEvent.transport = "udp";
+                    rttEvent.rttNs = rttNs;
+                    rttEvent.commit();
+                }
+            }
         }
     }
 
     private void sendChat() {
-        String payload = "MSG:" + clientId + ":" + System.nanoTime();
-        byte[] bytes = Message.toBytes(payload);
+        sendChat(0);
+    }
+
+    @Override
+    public void sendChat(int minBytes) {
+        String payload = "MSG:" + clientId + ":" + Clock.nanoTime() + ":" + (chatSeq++);
+        metrics.incChatGenerated();
+        byte[] bytes = Message.toBytes(payload, minBytes);
+        if (traceCapture != null) traceCapture.record(clientId, TraceWriter.CHAT, bytes.length);
         boolean scheduled = emulator.emulateSend(() -> {
             try {
                 channel.send(ByteBuffer.wrap(bytes), serverAddr);
@@ -99,9 +191,15 @@ public class UdpClientNio implements Runnable {
     }
 
     private void sendPing() {
-        long ts = System.nanoTime();
+        sendPing(0);
+    }
+
+    @Override
+    public void sendPing(int minBytes) {
+        long ts = Clock.nanoTime();
         String payload = "PING:" + clientId + ":" + (pingSeq++) + ":" + ts;
-        byte[] bytes = Message.toBytes(payload);
+        byte[] bytes = Message.toBytes(payload, minBytes);
+        if (traceCapture != null) traceCapture.record(clientId, TraceWriter.PING, bytes.length);
         boolean scheduled = emulator.emulateSend(() -> {
             try {
                 channel.send(ByteBuffer.wrap(bytes), serverAddr);
@@ -1,19 +1,39 @@
 package chat.app.udp;
 
+import chat.app.common.AdmissionPolicy;
+import chat.app.common.LoopStrategy;
 import chat.app.common.Message;
+import chat.app.common.OverloadDetector;
 import chat.app.common.ServerMetrics;
+import chat.app.common.TokenBucket;
+import chat.app.jfr.BroadcastEvent;
+import chat.app.jfr.MessageReceiveEvent;
+import chat.app.jfr.PongReplyEvent;
+import chat.app.log.MessageLog;
 
 
 import java.io.IOException;
 import java.net.*;
 import java.nio.*;
 import java.nio.channels.*;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
  * UDP server using DatagramChannel. Receives datagrams, responds to PINGs with PONG,
  * and broadcasts other messages to all known client addresses. Records server metrics.
+ * With a MessageLog set, broadcast lines are logged and "REPLAY:<clientId>:<fromOffset>" sends
+ * each logged record as its own datagram (straight from the mapped segment), then "REPLAY_END".
+ * Replays advance by at most REPLAY_BATCH datagrams per loop iteration so live traffic keeps flowing,
+ * and resume where they stopped when the send buffer was full.
+ *
+ * Each selector wakeup drains the socket until receive() returns null (at most maxBatch datagrams,
+ * so other keys are not starved). Datagrams land in a direct buffer and are parsed in place:
+ * a PING becomes its PONG by rewriting one byte, and a chat line is sent on from the same buffer.
+ *
+ * Admission: with a rate limit set, chat datagrams go through a token bucket per sender address; excess ones
+ * are dropped, held in a small per-sender queue until a token is due (DELAY), or the sender is dropped from
+ * the broadcast set and ignored for a second (DISCONNECT). While the OverloadDetector (loop-iteration time,
+ * held bytes) reports overload, broadcasts are shed and PINGs are still answered.
  */
 public class UdpServerNio implements Runnable {
     private final int port;
@@ -22,6 +42,22 @@ public class UdpServerNio implements Runnable {
     private final Set<SocketAddress> clients = Collections.synchronizedSet(new HashSet<>());
     private volatile boolean running = true;
     private final ServerMetrics serverMetrics;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(8192);
+    private MessageLog messageLog;
+    private int maxBatch = 64;
+    private double rateLimit = 0;
+    private int burst = 1;
+    private AdmissionPolicy policy = AdmissionPolicy.DROP;
+    private OverloadDetector overload;
+    private final Map<SocketAddress, Sender> senders = new HashMap<>();
+    private long heldBytes;
+    private LoopStrategy loop = LoopStrategy.block();
+
+    private final List<Replay> replays = new ArrayList<>();
+
+    private static final int REPLAY_BATCH = 64;
+    private static final int MAX_HELD_PER_SENDER = 256;
+    private static final long DISCONNECT_BAN_NS = 1_000_000_000L;
 
     public UdpServerNio(int port) throws IOException {
         this(port, null);
@@ -37,62 +73,254 @@ public class UdpServerNio implements Runnable {
         channel.register(selector, SelectionKey.OP_READ);
     }
 
+    /** Enable the broadcast log; must be called before the server thread starts. */
+    public void setMessageLog(MessageLog messageLog) {
+        this.messageLog = messageLog;
+    }
+
+    /** Fairness cap: datagrams drained per selector wakeup. */
+    public void setMaxBatch(int maxBatch) {
+        this.maxBatch = Math.max(1, maxBatch);
+    }
+
+    /** Per-sender token bucket for chat datagrams (ratePerSec <= 0 = off); must be called before the server thread starts. */
+    public void setAdmission(double ratePerSec, int burst, AdmissionPolicy policy) {
+        this.rateLimit = ratePerSec;
+        this.burst = burst;
+        this.policy = policy;
+    }
+
+    /** Shed broadcasts while this detector reports overload; must be called before the server thread starts. */
+    public void setOverloadDetector(OverloadDetector overload) {
+        this.overload = overload;
+    }
+
+    /** How the event loop waits for readiness (default: blocking select); must be called before the thread starts. */
+    public void setLoopStrategy(LoopStrategy loop) {
+        this.loop = loop;
+    }
+
     @Override
     public void run() {
         System.out.println("UDP server listening on port " + port);
-        ByteBuffer buf = ByteBuffer.allocate(8192);
         try {
-            while (running) {
-                selector.select(200);
+            while (running && !Thread.currentThread().isInterrupted()) {
+                loop.select(selector, heldBytes > 0 || !replays.isEmpty() ? 1 : 200);
+                long loopStart = System.nanoTime();
                 Iterator<SelectionKey> it = selector.selectedKeys().iterator();
                 while (it.hasNext()) {
                     SelectionKey key = it.next();
                     it.remove();
                     if (!key.isValid()) continue;
-                    if (key.isReadable()) {
-                        buf.clear();
-                        SocketAddress sa = channel.receive(buf);
-                        if (sa == null) continue;
-                        buf.flip();
-                        int len = buf.limit();
-                        byte[] b = new byte[len];
-                        buf.get(b);
-                        String msg = new String(b, StandardCharsets.UTF_8).trim();
-                        clients.add(sa);
-                        if (serverMetrics != null) {
-                            serverMetrics.addBytesReceived(len);
-                            serverMetrics.incMessagesReceived();
-                        }
-                        long start = System.nanoTime();
-                        if (msg.startsWith("PING:")) {
-                            String pong = msg.replaceFirst("PING", "PONG") + "\n";
-                            byte[] out = pong.getBytes(StandardCharsets.UTF_8);
-                            channel.send(ByteBuffer.wrap(out), sa);
-                            if (serverMetrics != null) {
-                                serverMetrics.addBytesSent(out.length);
-                                serverMetrics.incMessagesSent();
-                            }
-                        } else {
-                            byte[] out = Message.toBytes(msg);
-                            synchronized (clients) {
-                                for (SocketAddress client : clients) {
-                                    channel.send(ByteBuffer.wrap(out), client);
-                                    if (serverMetrics != null) {
-                                        serverMetrics.addBytesSent(out.length);
-                                        serverMetrics.incMessagesSent();
-                                    }
-                                }
-                            }
-                        }
-                        long procNs = System.nanoTime() - start;
-                        if (serverMetrics != null) serverMetrics.recordProcessingNs(procNs);
-                    }
+                    if (key.isReadable()) drain();
+                }
+                if (heldBytes > 0) releaseHeld(loopStart);
+                if (!replays.isEmpty()) advanceReplays();
+                if (overload != null) {
+                    long now = System.nanoTime();
+                    overload.update(now - loopStart, heldBytes, now);
                 }
             }
         } catch (IOException e) {
             e.printStackTrace();
         } finally {
             try { selector.close(); channel.close(); } catch (IOException ignored) {}
+            if (overload != null && serverMetrics != null) {
+                serverMetrics.recordOverload(overload.episodes(), overload.overloadedNs(System.nanoTime()));
+            }
+            if (serverMetrics != null) serverMetrics.recordLoop(loop.polls(), loop.emptyPolls(), loop.parks());
+        }
+    }
+
+    /** DELAY: handle held datagrams whose tokens have come due, oldest first per sender. */
+    private void releaseHeld(long nowNs) throws IOException {
+        for (Map.Entry<SocketAddress, Sender> e : senders.entrySet()) {
+            Sender sender = e.getValue();
+            while (!sender.held.isEmpty() && sender.bucket.tryAcquire(nowNs)) {
+                byte[] held = sender.held.poll();
+                heldBytes -= held.length;
+                buf.clear();
+                buf.put(held).flip();
+                handleDatagram(e.getKey(), held.length, true);
+            }
+        }
+    }
+
+    private void drain() throws IOException {
+        long batchStart = System.nanoTime();
+        int n = 0;
+        while (n < maxBatch) {
+            MessageReceiveEvent rxEvent = new MessageReceiveEvent();
+            rxEvent.begin();
+            buf.clear();
+            SocketAddress sa = channel.receive(buf);
+            if (sa == null) break;
+            n++;
+            buf.flip();
+            int len = buf.limit();
+            handleDatagram(sa, len, false);
+            rxEvent.end();
+            if (rxEvent.shouldCommit()) {
+                rxEvent.transport = "udp";
+                rxEvent.bytes = len;
+                rxEvent.messages = 1;
+                rxEvent.commit();
+            }
+        }
+        if (serverMetrics != null && n > 0) serverMetrics.recordReceiveBatch(n, System.nanoTime() - batchStart);
+    }
+
+    /** buf holds one datagram in [0, len); admitted = it already passed the sender's token bucket. */
+    private void handleDatagram(SocketAddress sa, int len, boolean admitted) throws IOException {
+        long start = System.nanoTime();
+        Sender sender = rateLimit > 0 ? senders.computeIfAbsent(sa, k -> new Sender(rateLimit, burst, start)) : null;
+        if (!admitted) {
+            if (sender != null && sender.bannedUntilNs > start) return; // disconnected by admission control
+            if (serverMetrics != null) {
+                serverMetrics.addBytesReceived(len);
+                serverMetrics.incMessagesReceived();
+            }
+        }
+        clients.add(sa);
+        int end = Message.trimEnd(buf, 0, len);
+        if (end == 0) return;
+        if (sender != null && !admitted && !Message.startsWith(buf, 0, end, Message.PING)
+                && !Message.startsWith(buf, 0, end, Message.REPLAY) && !admit(sa, sender, len, end, start)) {
+            return;
+        }
+        // normalise to exactly one trailing '\n', as Message.toBytes would
+        if (end < buf.capacity()) {
+            buf.put(end, (byte) '\n');
+            buf.limit(end + 1);
+        }
+
+        if (Message.startsWith(buf, 0, end, Message.PING)) {
+            PongReplyEvent pongEvent = new PongReplyEvent();
+            pongEvent.begin();
+            buf.put(1, (byte) 'O'); // PING -> PONG
+            buf.position(0);
+            int sent = channel.send(buf, sa);
+            if (serverMetrics != null) {
+                serverMetrics.addBytesSent(sent);
+                if (sent > 0) serverMetrics.incMessagesSent();
+                else serverMetrics.recordShortWrite(buf.limit());
+            }
+            pongEvent.end();
+            if (pongEvent.shouldCommit()) {
+                pongEvent.transport = "udp";
+                pongEvent.bytes = buf.limit();
+                pongEvent.commit();
+            }
+        } else if (Message.startsWith(buf, 0, end, Message.REPLAY)) {
+            replay(Message.parseField(buf, 0, end, 1), Message.parseField(buf, 0, end, 2), sa);
+        } else if (overload != null && overload.isOverloaded()) {
+            if (serverMetrics != null) serverMetrics.recordShed(Message.parseClientId(buf, 0, end));
+        } else {
+            BroadcastEvent bcEvent = new BroadcastEvent();
+            bcEvent.begin();
+            int out = buf.limit();
+            int recipients;
+            synchronized (clients) {
+                recipients = clients.size();
+                for (SocketAddress client : clients) {
+                    buf.position(0);
+                    int sent = channel.send(buf, client);
+                    if (serverMetrics != null) {
+                        // a datagram the kernel refused is lost, not sent
+                        serverMetrics.addBytesSent(sent);
+                        if (sent > 0) serverMetrics.incMessagesSent();
+                        else serverMetrics.recordShortWrite(out);
+                    }
+                }
+            }
+            bcEvent.end();
+            if (bcEvent.shouldCommit()) {
+                bcEvent.transport = "udp";
+                bcEvent.recipients = recipients;
+                bcEvent.bytes = (long) recipients * out;
+                bcEvent.commit();
+            }
+            if (messageLog != null) {
+                buf.position(0);
+                try {
+                    messageLog.append(buf);
+                } catch (IOException e) {
+                    if (serverMetrics != null) serverMetrics.incLogAppendErrors();
+                }
+            }
+        }
+        long procNs = System.nanoTime() - start;
+        if (serverMetrics != null) serverMetrics.recordProcessingNs(procNs);
+    }
+
+    /** Token bucket check for a chat datagram; false if it must not be handled now. */
+    private boolean admit(SocketAddress sa, Sender sender, int len, int end, long nowNs) {
+        // a sender with held datagrams queues behind them to keep its order
+        if (sender.held.isEmpty() && sender.bucket.tryAcquire(nowNs)) return true;
+        if (serverMetrics != null) serverMetrics.recordThrottled(Message.parseClientId(buf, 0, end));
+        switch (policy) {
+            case DELAY -> {
+                if (sender.held.size() < MAX_HELD_PER_SENDER) {
+                    byte[] copy = new byte[len];
+                    buf.get(0, copy);
+                    sender.held.add(copy);
+                    heldBytes += len;
+                }
+            }
+            case DISCONNECT -> {
+                clients.remove(sa);
+                heldBytes -= sender.held.stream().mapToLong(b -> b.length).sum();
+                sender.held.clear();
+                sender.bannedUntilNs = nowNs + DISCONNECT_BAN_NS;
+                if (serverMetrics != null) serverMetrics.incAdmissionDisconnects();
+            }
+            case DROP -> { }
+        }
+        return false;
+    }
+
+    /** Admission state per sender address. */
+    private static final class Sender {
+        final TokenBucket bucket;
+        final ArrayDeque<byte[]> held = new ArrayDeque<>();
+        long bannedUntilNs;
+
+        Sender(double ratePerSec, int burst, long nowNs) {
+            this.bucket = new TokenBucket(ratePerSec, burst, nowNs);
+        }
+    }
+
+    /** A client's log replay in progress; cursor is null without a message log. */
+    private record Replay(SocketAddress sa, long clientId, MessageLog.Cursor cursor) {}
+
+    private void replay(long clientId, long from, SocketAddress sa) {
+        if (from < 0) return;
+        replays.add(new Replay(sa, clientId, messageLog != null ? messageLog.cursor(from) : null));
+    }
+
+    /** Send the next records of every pending replay; a replay whose send buffer is full waits for the next round. */
+    private void advanceReplays() throws IOException {
+        for (Iterator<Replay> it = replays.iterator(); it.hasNext(); ) {
+            Replay r = it.next();
+            if (r.cursor() != null) {
+                ByteBuffer record;
+                int sentRecords = 0;
+                // maxBytes 0 -> exactly one record per chunk, i.e. per datagram
+                while (sentRecords < REPLAY_BATCH && (record = r.cursor().nextChunk(0)) != null) {
+                    int sent = channel.send(record, r.sa());
+                    if (sent == 0) break; // send buffer full; the cursor hands this record out again
+                    sentRecords++;
+                    if (serverMetrics != null) {
+                        serverMetrics.addBytesSent(sent);
+                        serverMetrics.incMessagesSent();
+                    }
+                }
+                if (r.cursor().nextChunk(0) != null) continue;
+            }
+            long next = r.cursor() != null ? r.cursor().endOffset() : 0;
+            ByteBuffer end = ByteBuffer.wrap(Message.toBytes("REPLAY_END:" + r.clientId() + ":" + next));
+            if (channel.send(end, r.sa()) == 0) continue;
+            it.remove();
         }
     }
 
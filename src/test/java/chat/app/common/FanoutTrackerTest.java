@@ -0,0 +1,74 @@
+package chat.app.common;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FanoutTrackerTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void spreadIsLastMinusFirstArrivalWhateverTheOrder() {
+        FanoutTracker tracker = new FanoutTracker(3);
+        tracker.recordArrival(1, 100, 5_000);
+        tracker.recordArrival(1, 100, 2_000);
+        tracker.recordArrival(1, 100, 9_000);
+        assertEquals(List.of(7_000L), tracker.getCompleteSpreadsNs());
+        assertEquals(0, tracker.getIncompleteCount());
+    }
+
+    @Test
+    void messagesMissingRecipientsAreIncomplete() {
+        FanoutTracker tracker = new FanoutTracker(3);
+        tracker.recordArrival(1, 100, 1_000);
+        tracker.recordArrival(1, 100, 4_000);
+        tracker.recordArrival(2, 100, 1_000);
+        assertEquals(List.of(), tracker.getCompleteSpreadsNs());
+        assertEquals(2, tracker.getIncompleteCount());
+        // a single arrival has no spread
+        assertEquals(List.of(3_000L), tracker.getIncompleteSpreadsNs());
+    }
+
+    @Test
+    void entriesOlderThanTheExpiryAreFinalizedAsIncomplete() {
+        FanoutTracker tracker = FanoutTracker.withExpiry(3, 1_000_000);
+        tracker.recordArrival(1, 100, 0);
+        tracker.recordArrival(1, 100, 500);
+        // the next sweep is due a second after the first one
+        tracker.recordArrival(2, 200, 2_000_000_000L);
+        assertEquals(1, tracker.getExpiredCount());
+        assertEquals(2, tracker.getIncompleteCount());
+        assertEquals(List.of(500L), tracker.getIncompleteSpreadsNs());
+
+        // a late arrival of an expired message starts a new entry
+        tracker.recordArrival(1, 100, 2_000_000_100L);
+        assertEquals(3, tracker.getIncompleteCount());
+    }
+
+    @Test
+    void workerPartialsMergeIntoCompleteSpreads() throws IOException {
+        FanoutTracker a = FanoutTracker.forWorker(4);
+        FanoutTracker b = FanoutTracker.forWorker(4);
+        a.recordArrival(1, 100, 1_000);
+        a.recordArrival(1, 100, 3_000);
+        b.recordArrival(1, 100, 2_000);
+        b.recordArrival(1, 100, 8_000);
+        b.recordArrival(2, 100, 5_000);
+        File fa = new File(dir, "a.csv"), fb = new File(dir, "b.csv");
+        a.writeCsv(fa);
+        b.writeCsv(fb);
+
+        FanoutTracker merged = new FanoutTracker(4);
+        merged.mergeCsv(fa);
+        merged.mergeCsv(fb);
+        assertEquals(List.of(7_000L), merged.getCompleteSpreadsNs());
+        assertEquals(1, merged.getIncompleteCount());
+    }
+}
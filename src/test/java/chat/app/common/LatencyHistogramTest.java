@@ -0,0 +1,87 @@
+package chat.app.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void emptyHistogram() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.count());
+        assertEquals(0, h.min());
+        assertEquals(0, h.percentile(99));
+        assertTrue(Double.isNaN(h.mean()));
+    }
+
+    @Test
+    void smallValuesAreExact() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int v = 1; v <= 100; v++) h.record(v);
+        assertEquals(1, h.percentile(0));
+        assertEquals(50, h.percentile(50));
+        assertEquals(99, h.percentile(99));
+        assertEquals(100, h.percentile(100));
+        assertEquals(50.5, h.mean());
+    }
+
+    @Test
+    void negativeValuesCountAsZero() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(-5);
+        assertEquals(0, h.min());
+        assertEquals(0, h.max());
+        assertEquals(1, h.count());
+    }
+
+    @Test
+    void percentilesStayWithinTwoPercentOfTheExactValue() {
+        Random rnd = new Random(42);
+        long[] values = new long[100_000];
+        LatencyHistogram h = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            // log-uniform from 1 us to 10 s
+            values[i] = (long) Math.pow(10, 3 + rnd.nextDouble() * 7);
+            h.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double pct : new double[] {1, 10, 50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(pct / 100 * values.length) - 1];
+            long got = h.percentile(pct);
+            assertTrue(Math.abs(got - exact) <= exact * 0.02, "p" + pct + ": " + got + " vs " + exact);
+        }
+    }
+
+    @Test
+    void percentilesAreClampedToMinAndMax() {
+        // 999_500 and 1_015_000 share the bucket [999_424, 1_015_808), whose midpoint is 1_007_616
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(1_015_000);
+        h.record(2_000_000);
+        assertEquals(1_015_000, h.percentile(0));
+        LatencyHistogram g = new LatencyHistogram();
+        g.record(1);
+        g.record(999_500);
+        assertEquals(999_500, g.percentile(100));
+    }
+
+    @Test
+    void mergeMatchesRecordingEverythingInOne() {
+        LatencyHistogram a = new LatencyHistogram(), b = new LatencyHistogram(), all = new LatencyHistogram();
+        for (long v = 0; v < 10_000; v += 7) {
+            (v % 2 == 0 ? a : b).record(v * 1000);
+            all.record(v * 1000);
+        }
+        a.merge(b);
+        assertEquals(all.count(), a.count());
+        assertEquals(all.min(), a.min());
+        assertEquals(all.max(), a.max());
+        assertEquals(all.mean(), a.mean());
+        for (double pct : new double[] {50, 90, 99}) assertEquals(all.percentile(pct), a.percentile(pct));
+    }
+}
@@ -0,0 +1,70 @@
+package chat.app.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageTest {
+
+    @Test
+    void parsesEveryNumericField() {
+        assertEquals(7, field("MSG:7:123456789:42", 1));
+        assertEquals(123456789, field("MSG:7:123456789:42", 2));
+        assertEquals(42, field("MSG:7:123456789:42", 3));
+    }
+
+    @Test
+    void missingOrNonNumericFieldIsMissing() {
+        assertEquals(Message.MISSING, field("MSG:7:123", 3));
+        assertEquals(Message.MISSING, field("MSG:7::5", 2));
+        assertEquals(Message.MISSING, field("MSG:7:12a:5", 2));
+        assertEquals(Message.MISSING, field("MSG:7:-:5", 2));
+        assertEquals(Message.MISSING, field("MSG", 0));
+        assertEquals(Message.MISSING, field("", 1));
+    }
+
+    @Test
+    void negativeFieldParses() {
+        assertEquals(-5_000, field("PING:3:0:-5000", 3));
+        assertEquals(-1, Message.parseClientId(buf("MSG:-2:1:1"), 0, "MSG:-2:1:1".length()));
+    }
+
+    @Test
+    void paddedLineKeepsItsFieldsAndEndsWithANewline() {
+        byte[] line = Message.toBytes("MSG:7:123:42", 64);
+        assertEquals(64, line.length);
+        assertEquals('\n', line[line.length - 1]);
+        ByteBuffer b = ByteBuffer.wrap(line);
+        int end = Message.trimEnd(b, 0, line.length);
+        assertEquals(42, Message.parseField(b, 0, end, 3));
+        assertEquals(Message.MISSING, Message.parseField(b, 0, end, 4));
+        assertEquals(13, Message.toBytes("MSG:7:123:42", 5).length, "never shortened");
+    }
+
+    @Test
+    void fieldEndsAtTrailingWhitespace() {
+        assertEquals(42, field("MSG:7:123:42\r\n", 3));
+    }
+
+    @Test
+    void parsesWithinTheGivenRangeOnly() {
+        ByteBuffer b = buf("xxMSG:7:99:1yy");
+        assertTrue(Message.startsWith(b, 2, 12, Message.MSG));
+        assertFalse(Message.startsWith(b, 0, 12, Message.MSG));
+        assertEquals(1, Message.parseField(b, 2, 12, 3));
+        assertEquals(Message.MISSING, Message.parseField(b, 2, 9, 3));
+    }
+
+    private static long field(String line, int field) {
+        return Message.parseField(buf(line), 0, line.length(), field);
+    }
+
+    private static ByteBuffer buf(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.US_ASCII));
+    }
+}
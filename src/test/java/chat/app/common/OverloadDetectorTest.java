@@ -0,0 +1,60 @@
+package chat.app.common;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OverloadDetectorTest {
+    private static final long MS = 1_000_000L;
+
+    @Test
+    void lagAboveTheLimitStartsAnEpisode() {
+        OverloadDetector d = new OverloadDetector(10 * MS, 0);
+        assertFalse(d.update(10 * MS, 0, 0));
+        assertTrue(d.update(11 * MS, 0, 1 * MS));
+        assertTrue(d.isOverloaded());
+        assertEquals(1, d.episodes());
+    }
+
+    @Test
+    void clearsOnlyBelowHalfTheLimit() {
+        OverloadDetector d = new OverloadDetector(10 * MS, 0);
+        d.update(20 * MS, 0, 0);
+        // between half and the limit: no flapping back to normal
+        assertTrue(d.update(9 * MS, 0, 1 * MS));
+        assertTrue(d.update(6 * MS, 0, 2 * MS));
+        assertFalse(d.update(5 * MS, 0, 3 * MS));
+        // and back under the limit without crossing it does not start a new episode
+        assertFalse(d.update(9 * MS, 0, 4 * MS));
+        assertEquals(1, d.episodes());
+    }
+
+    @Test
+    void bothSignalsMustSettleBeforeClearing() {
+        OverloadDetector d = new OverloadDetector(10 * MS, 1000);
+        d.update(0, 2000, 0);
+        assertTrue(d.update(0, 600, 1 * MS), "queue still above half");
+        assertTrue(d.update(8 * MS, 400, 2 * MS), "lag above half");
+        assertFalse(d.update(4 * MS, 400, 3 * MS));
+    }
+
+    @Test
+    void zeroLimitIsIgnored() {
+        OverloadDetector d = new OverloadDetector(0, 1000);
+        assertFalse(d.update(Long.MAX_VALUE, 0, 0));
+        assertTrue(d.update(Long.MAX_VALUE, 1001, 1));
+        assertFalse(d.update(Long.MAX_VALUE, 500, 2));
+    }
+
+    @Test
+    void countsEpisodesAndTimeOverloaded() {
+        OverloadDetector d = new OverloadDetector(10 * MS, 0);
+        d.update(20 * MS, 0, 100 * MS);
+        d.update(0, 0, 130 * MS);             // 30 ms episode
+        d.update(20 * MS, 0, 200 * MS);       // still open at 250 ms
+        assertEquals(2, d.episodes());
+        assertEquals(80 * MS, d.overloadedNs(250 * MS));
+    }
+}
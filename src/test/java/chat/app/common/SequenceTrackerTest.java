@@ -0,0 +1,93 @@
+package chat.app.common;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SequenceTrackerTest {
+
+    @Test
+    void inOrderStreamHasNothingToReport() {
+        SequenceTracker t = new SequenceTracker();
+        for (long seq = 0; seq < 5000; seq++) t.record(1, seq);
+        assertEquals(5000, t.getUnique());
+        assertEquals(0, t.getLost());
+        assertEquals(0, t.getDuplicates());
+        assertEquals(0, t.getReordered());
+        assertEquals(0, t.getLate());
+    }
+
+    @Test
+    void gapIsLostUntilTheSequenceArrivesReordered() {
+        SequenceTracker t = new SequenceTracker();
+        t.record(1, 0);
+        t.record(1, 1);
+        t.record(1, 4);
+        assertEquals(2, t.getLost());
+        t.record(1, 2);
+        assertEquals(1, t.getLost());
+        assertEquals(1, t.getReordered());
+        assertEquals(2, t.getMaxReorderDistance());
+        assertEquals(4, t.getUnique());
+    }
+
+    @Test
+    void repeatedSequenceIsADuplicate() {
+        SequenceTracker t = new SequenceTracker();
+        t.record(1, 0);
+        t.record(1, 1);
+        t.record(1, 1);
+        t.record(1, 0);
+        assertEquals(2, t.getUnique());
+        assertEquals(2, t.getDuplicates());
+        assertEquals(0, t.getReordered());
+    }
+
+    @Test
+    void lateJoinerDoesNotCountEarlierSequencesButExtendsDownwardsUntilTheWindowSlides() {
+        SequenceTracker t = new SequenceTracker();
+        t.record(1, 500);
+        assertEquals(0, t.getLost());
+        t.record(1, 497);
+        assertEquals(2, t.getLost());
+        assertEquals(1, t.getReordered());
+        assertEquals(3, t.getMaxReorderDistance());
+    }
+
+    @Test
+    void sequencesSlidingOutOfTheWindowStayLostAndLaterArrivalsAreLate() {
+        SequenceTracker t = new SequenceTracker();
+        t.record(1, 0);
+        t.record(1, 2000);
+        assertEquals(1999, t.getLost());
+        // still inside the slid window: recovered
+        t.record(1, 1500);
+        assertEquals(1998, t.getLost());
+        // already slid out: counted as lost, so only late
+        t.record(1, 5);
+        assertEquals(1998, t.getLost());
+        assertEquals(1, t.getLate());
+        assertEquals(3, t.getUnique());
+    }
+
+    @Test
+    void jumpBeyondAWholeWindowCountsEverySkippedSequence() {
+        SequenceTracker t = new SequenceTracker();
+        t.record(1, 0);
+        t.record(1, 10_000);
+        t.record(1, 10_001);
+        assertEquals(9_999, t.getLost());
+    }
+
+    @Test
+    void sendersAreTrackedIndependently() {
+        SequenceTracker t = new SequenceTracker();
+        t.record(1, 0);
+        t.record(2, 7);
+        t.record(1, 1);
+        t.record(2, 8);
+        assertEquals(4, t.getUnique());
+        assertEquals(0, t.getLost());
+        assertEquals(0, t.getReordered());
+    }
+}
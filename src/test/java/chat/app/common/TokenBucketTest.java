@@ -0,0 +1,63 @@
+package chat.app.common;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketTest {
+    private static final long T0 = 1_000_000_000L;
+    private static final long MS = 1_000_000L;
+
+    @Test
+    void startsWithAFullBurst() {
+        TokenBucket bucket = new TokenBucket(10, 3, T0);
+        for (int i = 0; i < 3; i++) assertTrue(bucket.tryAcquire(T0), "token " + i);
+        assertFalse(bucket.tryAcquire(T0));
+    }
+
+    @Test
+    void refillsAtTheConfiguredRate() {
+        TokenBucket bucket = new TokenBucket(10, 1, T0); // one token per 100 ms
+        assertTrue(bucket.tryAcquire(T0));
+        assertFalse(bucket.tryAcquire(T0 + 99 * MS));
+        assertTrue(bucket.tryAcquire(T0 + 101 * MS));
+        assertFalse(bucket.tryAcquire(T0 + 101 * MS));
+    }
+
+    @Test
+    void refillIsCappedAtBurst() {
+        TokenBucket bucket = new TokenBucket(100, 4, T0);
+        for (int i = 0; i < 4; i++) bucket.tryAcquire(T0);
+        long later = T0 + 10_000 * MS; // enough for 1000 tokens
+        int admitted = 0;
+        while (bucket.tryAcquire(later)) admitted++;
+        assertEquals(4, admitted);
+    }
+
+    @Test
+    void nanosUntilTokenPointsAtTheNextRefill() {
+        TokenBucket bucket = new TokenBucket(10, 1, T0);
+        assertEquals(0, bucket.nanosUntilToken(T0));
+        bucket.tryAcquire(T0);
+        long wait = bucket.nanosUntilToken(T0 + 40 * MS);
+        assertTrue(Math.abs(wait - 60 * MS) <= 1, "wait " + wait);
+        assertTrue(bucket.tryAcquire(T0 + 40 * MS + wait));
+    }
+
+    @Test
+    void timeGoingBackwardsAddsNoTokens() {
+        TokenBucket bucket = new TokenBucket(10, 1, T0);
+        bucket.tryAcquire(T0);
+        assertFalse(bucket.tryAcquire(T0 - 500 * MS));
+        assertFalse(bucket.tryAcquire(T0 + 50 * MS));
+    }
+
+    @Test
+    void burstBelowOneStillAdmitsOne() {
+        TokenBucket bucket = new TokenBucket(10, 0, T0);
+        assertTrue(bucket.tryAcquire(T0));
+        assertFalse(bucket.tryAcquire(T0));
+    }
+}
@@ -0,0 +1,67 @@
+package chat.app.experiments;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ResultsReportTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void withinToleranceIsNoRegression() throws IOException {
+        File baseline = baseline("a,1000.0,2.0");
+        // 5% slower and 5% higher p99 against 10% tolerances
+        assertEquals(0, ResultsReport.compareToBaseline(baseline, List.of(stats("a", 950, 2.1)), 0.10, 0.10));
+    }
+
+    @Test
+    void throughputAndRttRegressionsCountSeparately() throws IOException {
+        File baseline = baseline("a,1000.0,2.0", "b,1000.0,2.0");
+        List<ResultsReport.ScenarioStats> run = List.of(stats("a", 800, 2.0), stats("b", 800, 3.0));
+        assertEquals(3, ResultsReport.compareToBaseline(baseline, run, 0.10, 0.10));
+        // each metric has its own tolerance
+        assertEquals(2, ResultsReport.compareToBaseline(baseline, run, 0.60, 0.10));
+        assertEquals(1, ResultsReport.compareToBaseline(baseline, run, 0.10, 0.30));
+    }
+
+    @Test
+    void scenarioMissingFromResultsCountsButNewScenarioDoesNot() throws IOException {
+        File baseline = baseline("a,1000.0,2.0", "gone,1000.0,2.0");
+        List<ResultsReport.ScenarioStats> run = List.of(stats("a", 1000, 2.0), stats("new", 1, 100.0));
+        assertEquals(1, ResultsReport.compareToBaseline(baseline, run, 0.10, 0.10));
+    }
+
+    @Test
+    void metricTheRunCannotProduceIsARegression() throws IOException {
+        File baseline = baseline("a,1000.0,2.0");
+        ResultsReport.ScenarioStats noRtt = new ResultsReport.ScenarioStats("a");
+        noRtt.durationSec = 1;
+        noRtt.messagesReceived = 1000;
+        assertEquals(1, ResultsReport.compareToBaseline(baseline, List.of(noRtt), 0.10, 0.10));
+    }
+
+    private File baseline(String... rows) throws IOException {
+        File f = new File(dir, "baseline.csv");
+        StringBuilder sb = new StringBuilder("scenario,throughputMsgPerSec,rttP99Ms\n");
+        for (String row : rows) sb.append(row).append('\n');
+        Files.writeString(f.toPath(), sb);
+        return f;
+    }
+
+    /** A scenario received msgPerSec over one second with every RTT sample at rttMs. */
+    private static ResultsReport.ScenarioStats stats(String name, long msgPerSec, double rttMs) {
+        ResultsReport.ScenarioStats s = new ResultsReport.ScenarioStats(name);
+        s.durationSec = 1;
+        s.messagesReceived = msgPerSec;
+        s.rtt.record((long) (rttMs * 1e6));
+        return s;
+    }
+}
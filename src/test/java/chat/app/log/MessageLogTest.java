@@ -0,0 +1,117 @@
+package chat.app.log;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageLogTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void appendAssignsConsecutiveOffsetsAndPrefixesRecords() throws IOException {
+        try (MessageLog log = new MessageLog(dir, 1 << 16, 1000)) {
+            assertEquals(0, log.append(line(0)));
+            assertEquals(1, log.append(line(1)));
+            assertEquals(2, log.nextOffset());
+            assertEquals(List.of("LOG:0:MSG:0\n", "LOG:1:MSG:1\n"), readAll(log.cursor(0), 0));
+        }
+    }
+
+    @Test
+    void appendLeavesTheCallersBufferUntouched() throws IOException {
+        try (MessageLog log = new MessageLog(dir, 1 << 16, 1000)) {
+            ByteBuffer buf = ByteBuffer.wrap(line(7));
+            log.append(buf);
+            assertEquals(0, buf.position());
+            assertEquals(buf.capacity(), buf.limit());
+        }
+    }
+
+    @Test
+    void rollsSegmentsAndReplaysAcrossThem() throws IOException {
+        int n = 200;
+        try (MessageLog log = new MessageLog(dir, 256, 1000)) {
+            for (int i = 0; i < n; i++) log.append(line(i));
+            assertEquals(n, log.nextOffset());
+            assertEquals(expected(0, n), readAll(log.cursor(0), 0));
+            assertEquals(expected(0, n), readAll(log.cursor(0), 100), "multi-record chunks never span segments");
+        }
+        assertTrue(dir.listFiles((d, name) -> name.endsWith(".log")).length > 1);
+    }
+
+    @Test
+    void reopenRecoversRecordsAndContinuesOffsets() throws IOException {
+        try (MessageLog log = new MessageLog(dir, 256, 1000)) {
+            for (int i = 0; i < 50; i++) log.append(line(i));
+        }
+        try (MessageLog log = new MessageLog(dir, 256, 1000)) {
+            assertEquals(50, log.nextOffset());
+            assertEquals(50, log.flushedOffset());
+            assertEquals(50, log.append(line(50)));
+            assertEquals(expected(0, 51), readAll(log.cursor(0), 0));
+        }
+    }
+
+    @Test
+    void cursorFromMidLogStopsAtTheEndAsOfCreation() throws IOException {
+        try (MessageLog log = new MessageLog(dir, 256, 1000)) {
+            for (int i = 0; i < 100; i++) log.append(line(i));
+            MessageLog.Cursor cursor = log.cursor(37);
+            log.append(line(100));
+            assertEquals(37, cursor.offset());
+            assertEquals(100, cursor.endOffset());
+            assertEquals(expected(37, 100), readAll(cursor, 64));
+            assertEquals(expected(40, 60), readAll(log.cursor(40, 60), 0));
+            assertEquals(List.of(), readAll(log.cursor(101), 0));
+        }
+    }
+
+    @Test
+    void chunkIsHandedOutAgainUntilConsumed() throws IOException {
+        try (MessageLog log = new MessageLog(dir, 1 << 16, 1000)) {
+            log.append(line(0));
+            log.append(line(1));
+            MessageLog.Cursor cursor = log.cursor(0);
+            ByteBuffer chunk = cursor.nextChunk(0);
+            chunk.get();
+            assertSame(chunk, cursor.nextChunk(0));
+            chunk.position(chunk.limit());
+            assertEquals("LOG:1:MSG:1\n", StandardCharsets.US_ASCII.decode(cursor.nextChunk(0)).toString());
+            assertNull(cursor.nextChunk(0));
+        }
+    }
+
+    private static byte[] line(int i) {
+        return ("MSG:" + i + "\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static List<String> expected(int from, int to) {
+        List<String> lines = new ArrayList<>();
+        for (int i = from; i < to; i++) lines.add("LOG:" + i + ":MSG:" + i + "\n");
+        return lines;
+    }
+
+    /** Every record the cursor hands out, split back into lines. */
+    private static List<String> readAll(MessageLog.Cursor cursor, int maxBytes) {
+        List<String> lines = new ArrayList<>();
+        ByteBuffer chunk;
+        while ((chunk = cursor.nextChunk(maxBytes)) != null) {
+            String text = StandardCharsets.US_ASCII.decode(chunk).toString();
+            for (String l : text.split("(?<=\n)")) lines.add(l);
+        }
+        return lines;
+    }
+}
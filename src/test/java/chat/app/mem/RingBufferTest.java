@@ -0,0 +1,120 @@
+package chat.app.mem;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RingBufferTest {
+
+    @Test
+    void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(2, new RingBuffer<>(1).capacity());
+        assertEquals(8, new RingBuffer<>(5).capacity());
+        assertEquals(8, new RingBuffer<>(8).capacity());
+        assertEquals(1024, new RingBuffer<>(1000).capacity());
+    }
+
+    @Test
+    void fifoAcrossManyWraps() {
+        RingBuffer<Integer> ring = new RingBuffer<>(4);
+        int next = 0, expected = 0;
+        for (int round = 0; round < 100; round++) {
+            while (ring.offer(next)) next++;
+            assertEquals(4, next - expected, "full after one ring's worth");
+            for (int i = 0; i < 3; i++) assertEquals(expected++, ring.poll());
+        }
+        while (!ring.isEmpty()) assertEquals(expected++, ring.poll());
+        assertEquals(next, expected);
+        assertNull(ring.poll());
+    }
+
+    @Test
+    void emptyAndFull() {
+        RingBuffer<String> ring = new RingBuffer<>(2);
+        assertTrue(ring.isEmpty());
+        assertNull(ring.poll());
+        assertTrue(ring.offer("a"));
+        assertTrue(ring.offer("b"));
+        assertFalse(ring.offer("c"));
+        assertFalse(ring.isEmpty());
+        assertEquals("a", ring.poll());
+        assertTrue(ring.offer("c"));
+        assertEquals("b", ring.poll());
+        assertEquals("c", ring.poll());
+        assertTrue(ring.isEmpty());
+    }
+
+    /**
+     * Producers and consumers race on a small ring: nothing is lost or duplicated, and every consumer
+     * sees each producer's items in the order they were offered.
+     */
+    @Test
+    @Timeout(60)
+    void concurrentProducersAndConsumersKeepPerProducerOrder() throws Exception {
+        int producers = 4, consumers = 2, perProducer = 50_000;
+        RingBuffer<long[]> ring = new RingBuffer<>(64);
+        AtomicLong consumed = new AtomicLong();
+        AtomicReference<String> error = new AtomicReference<>();
+        long[][] seen = new long[consumers][producers];
+        long[] received = new long[producers];
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int id = p;
+            threads.add(new Thread(() -> {
+                await(start);
+                for (long i = 0; i < perProducer; i++) {
+                    long[] item = {id, i};
+                    while (!ring.offer(item)) Thread.yield();
+                }
+            }));
+        }
+        for (int c = 0; c < consumers; c++) {
+            long[] last = seen[c];
+            Arrays.fill(last, -1);
+            threads.add(new Thread(() -> {
+                await(start);
+                while (consumed.get() < (long) producers * perProducer) {
+                    long[] item = ring.poll();
+                    if (item == null) {
+                        Thread.yield();
+                        continue;
+                    }
+                    int p = (int) item[0];
+                    if (item[1] <= last[p]) error.compareAndSet(null, "producer " + p + ": " + item[1] + " after " + last[p]);
+                    last[p] = item[1];
+                    synchronized (received) {
+                        received[p]++;
+                    }
+                    consumed.incrementAndGet();
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread t : threads) t.join();
+
+        assertNull(error.get());
+        for (int p = 0; p < producers; p++) assertEquals(perProducer, received[p], "items of producer " + p);
+        assertTrue(ring.isEmpty());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package chat.app.trace;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TraceRoundTripTest {
+    /** Records the writer buffers before it first writes to the file. */
+    private static final int BUFFERED = 4096;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void closedTraceReadsBackEveryRecord() throws IOException {
+        File file = dir.resolve("closed.trace").toFile();
+        int n = BUFFERED * 2 + 17;
+        try (TraceWriter writer = new TraceWriter(file)) {
+            for (int i = 0; i < n; i++) writer.record(i % 7, i % 3 == 0 ? TraceWriter.PING : TraceWriter.CHAT, 20 + i % 50);
+            assertEquals(n, writer.records());
+        }
+        assertEquals(TraceWriter.HEADER_BYTES + (long) n * TraceWriter.RECORD_BYTES, file.length());
+
+        try (TraceReader reader = new TraceReader(file)) {
+            assertEquals(n, reader.records());
+            long lastNs = 0;
+            for (int i = 0; i < n; i++) {
+                assertTrue(reader.next(), "record " + i);
+                assertTrue(reader.timeNs() >= lastNs, "time went backwards at " + i);
+                lastNs = reader.timeNs();
+                assertEquals(i % 7, reader.clientId());
+                assertEquals(i % 3 == 0 ? TraceWriter.PING : TraceWriter.CHAT, reader.type());
+                assertEquals(20 + i % 50, reader.bytes());
+            }
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    void oversizedLinesAreClamped() throws IOException {
+        File file = dir.resolve("big.trace").toFile();
+        try (TraceWriter writer = new TraceWriter(file)) {
+            writer.record(1, TraceWriter.CHAT, 70_000);
+        }
+        try (TraceReader reader = new TraceReader(file)) {
+            assertTrue(reader.next());
+            assertEquals(0xFFFF, reader.bytes());
+        }
+    }
+
+    @Test
+    void unclosedTraceIsReadUpToItsLastCompleteRecord() throws IOException {
+        File file = dir.resolve("unclosed.trace").toFile();
+        TraceWriter writer = new TraceWriter(file);
+        try {
+            // one full buffer reaches the file, the rest is still in memory and the header count is 0
+            for (int i = 0; i < BUFFERED + 10; i++) writer.record(i, TraceWriter.CHAT, 30);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(raf.length());
+                raf.write(new byte[5]); // a torn record, as a crash mid-write leaves it
+            }
+
+            try (TraceReader reader = new TraceReader(file)) {
+                assertEquals(BUFFERED, reader.records());
+                int read = 0;
+                while (reader.next()) {
+                    assertEquals(read, reader.clientId());
+                    read++;
+                }
+                assertEquals(BUFFERED, read);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    void rejectsFilesThatAreNotTraces() throws IOException {
+        Path notATrace = dir.resolve("other.bin");
+        Files.write(notATrace, new byte[TraceWriter.HEADER_BYTES]);
+        assertThrows(IOException.class, () -> new TraceReader(notATrace.toFile()));
+
+        Path tooShort = dir.resolve("short.bin");
+        Files.write(tooShort, new byte[3]);
+        assertThrows(IOException.class, () -> new TraceReader(tooShort.toFile()));
+    }
+}